@@ -0,0 +1,106 @@
+package benchmarks;
+
+import com.partisiablockchain.language.abicodegen.OptimizedZkDoubleAuction;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of decoding the state of {@code optimized-zk-double-auction} through the generated
+ * {@code ContractState.deserialize}, for growing {@code matched_orders} trade logs. 7225 trades
+ * corresponds to every one of 85 sellers trading with every one of 85 buyers.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class ContractStateDecodingBenchmark {
+
+    private static final int ADDRESS_BYTES = 21;
+    private static final int PRICE_LEVELS = 6;
+
+    @Param({"0", "170", "7225"})
+    public int trades;
+
+    private byte[] state;
+
+    @Setup
+    public void setup() {
+        state = serializeState(trades);
+    }
+
+    @Benchmark
+    public OptimizedZkDoubleAuction.ContractState deserialize() {
+        return OptimizedZkDoubleAuction.ContractState.deserialize(state);
+    }
+
+    /**
+     * Writes a state in the little-endian layout of {@code ReadWriteState} with the given number of
+     * trades in the latest round and no earlier round results.
+     */
+    static byte[] serializeState(int trades) {
+        byte[] tradeLog = encodeTrades(trades);
+        ByteBuffer buffer = ByteBuffer
+            .allocate(ADDRESS_BYTES + 4 + 4 + 2 * PRICE_LEVELS + 3 + 4 + 4 + tradeLog.length + 5 + 4 + 5 + 4 + 4 + 1 + 4 + 1 + 1 + 1 + 1)
+            .order(ByteOrder.LITTLE_ENDIAN);
+        buffer.put(new byte[ADDRESS_BYTES]);
+        buffer.putInt(PRICE_LEVELS);
+        buffer.putInt(PRICE_LEVELS);
+        for (int level = 0; level < PRICE_LEVELS; level++) {
+            buffer.putShort((short) (40 + 3 * level));
+        }
+        buffer.put((byte) 1).putShort((short) 2);
+        buffer.putInt(trades);
+        buffer.putInt(tradeLog.length).put(tradeLog);
+        // compute_options, current_round and cleared_round
+        buffer.put((byte) 0).put((byte) 0).put((byte) 0).put((byte) 0).put((byte) 0);
+        buffer.putInt(2);
+        buffer.put((byte) 1).putInt(1);
+        // round_results, closed_rounds, clearing_round, folded_through, folding, compacted_clearing, profiling
+        // and matching
+        buffer.putInt(0);
+        buffer.putInt(0);
+        buffer.put((byte) 0);
+        buffer.putInt(0);
+        buffer.put((byte) 0);
+        buffer.put((byte) 0);
+        buffer.put((byte) 0);
+        buffer.put((byte) 0);
+        return buffer.array();
+    }
+
+    /**
+     * Encodes the trades in the varint layout of {@code TradeLog}, where every seller trades with
+     * all 85 buyers in turn and is therefore only written once.
+     */
+    private static byte[] encodeTrades(int trades) {
+        ByteArrayOutputStream output = new ByteArrayOutputStream(3 * trades);
+        for (int trade = 0; trade < trades; trade++) {
+            boolean sameSeller = trade % 85 != 0;
+            writeVarint(output, ((85 + trade % 85) << 1) | (sameSeller ? 1 : 0));
+            if (!sameSeller) {
+                writeVarint(output, trade / 85);
+            }
+            writeVarint(output, 1 + trade % 100);
+        }
+        return output.toByteArray();
+    }
+
+    private static void writeVarint(ByteArrayOutputStream output, int value) {
+        int remaining = value;
+        while (remaining >= 0x80) {
+            output.write((remaining & 0x7F) | 0x80);
+            remaining >>>= 7;
+        }
+        output.write(remaining);
+    }
+}
@@ -0,0 +1,62 @@
+package benchmarks;
+
+import examples.OrderBook;
+import examples.ReferenceClearingEngine;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of clearing one auction with the {@link ReferenceClearingEngine}: totals, clearing index
+ * search and the two-pointer matching loop of {@code save_opened_variable}. The engine keeps ids
+ * and totals in {@code short}s like the contract, so a side holds at most {@link #MAX_ORDERS_PER_SIDE} orders.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class MatchingBenchmark {
+
+    /** Largest quantity of an order at one price level, see {@link #setup()}. */
+    private static final int LARGEST_QUANTITY = 5;
+    /** Most orders per side whose ids and totals fit in a {@code short}. */
+    private static final int MAX_ORDERS_PER_SIDE = Short.MAX_VALUE / LARGEST_QUANTITY;
+
+    @Param({"6", "85", "1000", "6000"})
+    public int ordersPerSide;
+
+    @Param({"false", "true"})
+    public boolean aggregateOrders;
+
+    private OrderBook sellOrders;
+    private OrderBook buyOrders;
+    private ReferenceClearingEngine engine;
+
+    @Setup
+    public void setup() {
+        if (ordersPerSide > MAX_ORDERS_PER_SIDE) {
+            throw new IllegalArgumentException("At most " + MAX_ORDERS_PER_SIDE + " orders per side fit 16-bit ids and totals, got " + ordersPerSide);
+        }
+        Random rand = new Random(ordersPerSide);
+        sellOrders = new OrderBook(ordersPerSide);
+        buyOrders = new OrderBook(ordersPerSide);
+        for (int i = 0; i < ordersPerSide; i++) {
+            sellOrders.add(i, 0, rand.nextInt(2), rand.nextInt(3), rand.nextInt(4), rand.nextInt(5), rand.nextInt(LARGEST_QUANTITY + 1));
+            buyOrders.add(ordersPerSide + i, rand.nextInt(LARGEST_QUANTITY + 1), rand.nextInt(5), rand.nextInt(4), rand.nextInt(3), rand.nextInt(2), 0);
+        }
+        engine = new ReferenceClearingEngine(ordersPerSide, aggregateOrders);
+    }
+
+    @Benchmark
+    public int clear() {
+        engine.clear(sellOrders, buyOrders);
+        return engine.tradeCount();
+    }
+}
@@ -0,0 +1,99 @@
+package benchmarks;
+
+import com.secata.stream.BitOutput;
+import com.secata.stream.CompactBitArray;
+import examples.OrderBook;
+import examples.ProsumerOrders;
+import examples.SecretOrderInputs;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of encoding household orders as {@code SecretOrderInput}s: the boxed {@code List<Integer>}
+ * path of {@code createSecretInput} in the contract tests, the same encoding read from an
+ * {@link OrderBook}, and orders encoded as {@link ProsumerOrders} generates them, without keeping them.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class SecretInputEncodingBenchmark {
+
+    @Param({"1", "85", "1000"})
+    public int orders;
+
+    private List<Order> boxedOrders;
+    private OrderBook orderBook;
+
+    @Setup
+    public void setup() {
+        Random rand = new Random(orders);
+        boxedOrders = new ArrayList<>(orders);
+        orderBook = new OrderBook(orders);
+        for (int i = 0; i < orders; i++) {
+            int[] quantities = new int[OrderBook.PRICE_LEVELS];
+            for (int level = 0; level < quantities.length; level++) {
+                quantities[level] = rand.nextInt(101);
+            }
+            boxedOrders.add(new Order(i, List.of(quantities[0], quantities[1], quantities[2], quantities[3], quantities[4], quantities[5])));
+            orderBook.add(i, quantities);
+        }
+    }
+
+    @Benchmark
+    public void boxedListEncoding(Blackhole blackhole) {
+        for (Order order : boxedOrders) {
+            blackhole.consume(createSecretInput(order));
+        }
+    }
+
+    @Benchmark
+    public void orderBookEncoding(Blackhole blackhole) {
+        for (int i = 0; i < orderBook.size(); i++) {
+            int order = i;
+            blackhole.consume(BitOutput.serializeBits(
+                bitOutput -> {
+                bitOutput.writeUnsignedInt(orderBook.id(order), 16);
+                for (int level = 0; level < OrderBook.PRICE_LEVELS; level++) {
+                    bitOutput.writeUnsignedInt(orderBook.quantity(order, level), 16);
+                }
+            }));
+        }
+    }
+
+    @Benchmark
+    public void streamedProsumerEncoding(Blackhole blackhole) {
+        ProsumerOrders prosumerOrders = ProsumerOrders.generate(orders, orders, 48, 100);
+        short[] record = new short[prosumerOrders.recordLength()];
+        while (prosumerOrders.hasNext()) {
+            blackhole.consume(SecretOrderInputs.encodeRecord(prosumerOrders.next(record)));
+        }
+    }
+
+    private record Order(int houseId, List<Integer> prices){ }
+
+    /** Same encoding as {@code createSecretInput} in {@code OptimizedZkDoubleAuctionTest}. */
+    private static CompactBitArray createSecretInput(Order order) {
+        return BitOutput.serializeBits(
+            bitOutput -> {
+            bitOutput.writeUnsignedInt(order.houseId, 16);
+            bitOutput.writeUnsignedInt(order.prices.get(0), 16);
+            bitOutput.writeUnsignedInt(order.prices.get(1), 16);
+            bitOutput.writeUnsignedInt(order.prices.get(2), 16);
+            bitOutput.writeUnsignedInt(order.prices.get(3), 16);
+            bitOutput.writeUnsignedInt(order.prices.get(4), 16);
+            bitOutput.writeUnsignedInt(order.prices.get(5), 16);
+        });
+    }
+}
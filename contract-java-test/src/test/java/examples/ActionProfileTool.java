@@ -0,0 +1,171 @@
+package examples;
+
+import com.partisiablockchain.BlockchainAddress;
+import com.partisiablockchain.language.abicodegen.DoubleAuction;
+import com.partisiablockchain.language.abicodegen.OptimizedZkDoubleAuction;
+import com.partisiablockchain.language.abicodegen.ZkDoubleAuction;
+import com.partisiablockchain.language.junit.ContractBytes;
+import com.partisiablockchain.language.junit.ContractTest;
+import com.partisiablockchain.language.junit.JunitContractTest;
+import org.assertj.core.api.Assertions;
+
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * Profiles the gas and state size of every action of the three auction contracts on the same
+ * orders, and writes one report per contract to {@code target/profile}, e.g.
+ * {@code mvn test -Dtest=ActionProfileTool -Dprofile.orders=20}.
+ */
+public final class ActionProfileTool extends JunitContractTest{
+
+    private static final int LARGEST_ORDER = 100;
+
+    private static final int PROFILE_ORDERS = Integer.getInteger("profile.orders", 10);
+    private static final long PROFILE_SEED = Long.getLong("profile.seed", 1L);
+    private static final Path PROFILE_OUTPUT_DIRECTORY = Path.of(System.getProperty("profile.output", "target/profile"));
+
+    private static final ContractBytes DOUBLE_AUCTION_BYTES =
+          ContractBytes.fromPbcFile(
+          Path.of("../rust/target/wasm32-unknown-unknown/release/double_auction.pbc"),
+          Path.of("../rust/target/wasm32-unknown-unknown/release/double_auction_runner"));
+    private static final ContractBytes ZK_DOUBLE_AUCTION_BYTES =
+          ContractBytes.fromPaths(
+          Path.of("../rust/target/wasm32-unknown-unknown/release/zk_double_auction.zkwa"),
+          Path.of("../rust/target/wasm32-unknown-unknown/release/zk_double_auction.abi"),
+          Path.of("../rust/target/wasm32-unknown-unknown/release/zk_double_auction_runner"));
+    private static final ContractBytes OPTIMIZED_ZK_DOUBLE_AUCTION_BYTES =
+          ContractBytes.fromPaths(
+          Path.of("../rust/target/wasm32-unknown-unknown/release/optimized_zk_double_auction.zkwa"),
+          Path.of("../rust/target/wasm32-unknown-unknown/release/optimized_zk_double_auction.abi"),
+          Path.of("../rust/target/wasm32-unknown-unknown/release/optimized_zk_double_auction_runner"));
+
+    @ContractTest
+    void profileDoubleAuction() {
+        List<BlockchainAddress> households = newHouseholds();
+        BlockchainAddress contract = blockchain.deployContract(households.get(0), DOUBLE_AUCTION_BYTES, DoubleAuction.initialize());
+        ActionProfiler profiler = new ActionProfiler(blockchain, contract, "double-auction");
+        OrderBook sellOrders = orders(0, true);
+        OrderBook buyOrders = orders(PROFILE_ORDERS, false);
+
+        profiler.sendAction("update_prices", households.get(0), DoubleAuction.updatePrices((short)40, (short)58));
+        for (int i = 0; i < PROFILE_ORDERS; i++){
+            profiler.sendAction("input_sell_order", households.get(i), DoubleAuction.inputSellOrder(orderInput(sellOrders, i)));
+        }
+        for (int i = 0; i < PROFILE_ORDERS; i++){
+            profiler.sendAction("input_buy_order", households.get(PROFILE_ORDERS + i), DoubleAuction.inputBuyOrder(orderInput(buyOrders, i)));
+        }
+        profiler.sendAction("hold_double_auction", households.get(0), DoubleAuction.holdDoubleAuction());
+        while (DoubleAuction.ContractState.deserialize(blockchain.getContractState(contract)).matching() != null){
+            profiler.sendAction("continue_matching", households.get(0), DoubleAuction.continueMatching());
+        }
+        profiler.sendAction("reset_contract", households.get(0), DoubleAuction.resetContract());
+
+        report(profiler, "input_sell_order", "input_buy_order");
+    }
+
+    @ContractTest
+    void profileZkDoubleAuction() {
+        List<BlockchainAddress> households = newHouseholds();
+        BlockchainAddress contract = blockchain.deployZkContract(households.get(0), ZK_DOUBLE_AUCTION_BYTES, ZkDoubleAuction.initialize());
+        ActionProfiler profiler = new ActionProfiler(blockchain, contract, "zk-double-auction");
+        OrderBook sellOrders = orders(0, true);
+        OrderBook buyOrders = orders(PROFILE_ORDERS, false);
+
+        // Both ZK contracts take the same SecretOrderInput layout and shortnames for single orders.
+        profiler.sendAction("update_prices", households.get(0), ZkDoubleAuction.updatePrices((short)40, (short)58));
+        for (int i = 0; i < PROFILE_ORDERS; i++){
+            profiler.sendSecretInput("secret_input_sell_order", households.get(i), SecretOrderInputs.encode(sellOrders, i), SecretOrderInputs.sellOrderRpc());
+        }
+        for (int i = 0; i < PROFILE_ORDERS; i++){
+            profiler.sendSecretInput("secret_input_buy_order", households.get(PROFILE_ORDERS + i), SecretOrderInputs.encode(buyOrders, i), SecretOrderInputs.buyOrderRpc());
+        }
+        profiler.sendAction("hold_double_auction", households.get(0), ZkDoubleAuction.holdDoubleAuction());
+        profiler.sendAction("reset_contract", households.get(0), ZkDoubleAuction.resetContract());
+
+        report(profiler, "secret_input_sell_order", "secret_input_buy_order");
+    }
+
+    @ContractTest
+    void profileOptimizedZkDoubleAuction() {
+        List<BlockchainAddress> households = newHouseholds();
+        BlockchainAddress contract = blockchain.deployZkContract(households.get(0), OPTIMIZED_ZK_DOUBLE_AUCTION_BYTES, OptimizedZkDoubleAuction.initialize());
+        ActionProfiler profiler = new ActionProfiler(blockchain, contract, "optimized-zk-double-auction");
+        OrderBook sellOrders = orders(0, true);
+        OrderBook buyOrders = orders(PROFILE_ORDERS, false);
+
+        profiler.sendAction("update_prices", households.get(0), OptimizedZkDoubleAuction.updatePrices((short)40, (short)58));
+        for (int i = 0; i < PROFILE_ORDERS; i++){
+            profiler.sendSecretInput("secret_input_sell_order", households.get(i), SecretOrderInputs.encode(sellOrders, i), SecretOrderInputs.sellOrderRpc());
+        }
+        for (int i = 0; i < PROFILE_ORDERS; i++){
+            profiler.sendSecretInput("secret_input_buy_order", households.get(PROFILE_ORDERS + i), SecretOrderInputs.encode(buyOrders, i), SecretOrderInputs.buyOrderRpc());
+        }
+        profiler.sendAction("hold_double_auction", households.get(0), OptimizedZkDoubleAuction.holdDoubleAuction());
+        while (OptimizedZkDoubleAuction.ContractState.deserialize(blockchain.getContractState(contract)).matching() != null){
+            profiler.sendAction("continue_matching", households.get(0), OptimizedZkDoubleAuction.continueMatching());
+        }
+        profiler.sendAction("reset_contract", households.get(0), OptimizedZkDoubleAuction.resetContract());
+
+        report(profiler, "secret_input_sell_order", "secret_input_buy_order");
+    }
+
+    private List<BlockchainAddress> newHouseholds() {
+        List<BlockchainAddress> households = new ArrayList<>();
+        for (int i = 0; i < 2 * PROFILE_ORDERS; i++){
+            households.add(blockchain.newAccount(i + 1));
+        }
+        return households;
+    }
+
+    /** Orders with ids from {@code firstId}, drawn from the same seed for every contract. */
+    private static OrderBook orders(int firstId, boolean selling) {
+        Random rand = new Random(PROFILE_SEED * 31 + (selling ? 1 : 0));
+        OrderBook book = new OrderBook(PROFILE_ORDERS);
+        for (int i = 0; i < PROFILE_ORDERS; i++){
+            int[] quantities = new int[OrderBook.PRICE_LEVELS];
+            for (int level = 0; level < quantities.length; level++){
+                quantities[level] = rand.nextInt(LARGEST_ORDER + 1);
+            }
+            book.add(firstId + i, quantities);
+        }
+        return book;
+    }
+
+    private static DoubleAuction.OrderInput orderInput(OrderBook book, int order) {
+        List<Short> quantities = new ArrayList<>();
+        for (int level = 0; level < book.priceLevels(); level++){
+            quantities.add(book.quantity(order, level));
+        }
+        return new DoubleAuction.OrderInput(book.id(order), quantities);
+    }
+
+    /**
+     * Prints and writes the report of {@code profiler}, and checks that every order was sent once
+     * under {@code sellAction} or {@code buyAction}. The number of {@code continue_matching} actions
+     * depends on the number of trades, so it is not checked.
+     */
+    private static void report(ActionProfiler profiler, String sellAction, String buyAction) {
+        List<ActionProfiler.ActionSummary> summaries = profiler.report();
+        for (ActionProfiler.ActionSummary summary : summaries){
+            System.out.println(summary.toCsv());
+        }
+        Path output = profiler.writeReport(PROFILE_OUTPUT_DIRECTORY);
+        System.out.println("action profile written to " + output.toAbsolutePath());
+        Map<String, Integer> counts = new HashMap<>();
+        for (ActionProfiler.ActionSummary summary : summaries){
+            counts.put(summary.action(), summary.count());
+        }
+        counts.remove("continue_matching");
+        Assertions.assertThat(counts).containsOnly(
+            Map.entry("update_prices", 1),
+            Map.entry(sellAction, PROFILE_ORDERS),
+            Map.entry(buyAction, PROFILE_ORDERS),
+            Map.entry("hold_double_auction", 1),
+            Map.entry("reset_contract", 1));
+    }
+}
@@ -0,0 +1,123 @@
+package examples;
+
+import com.partisiablockchain.BlockchainAddress;
+import com.partisiablockchain.language.junit.TestBlockchain;
+import com.partisiablockchain.language.junit.TxExecution;
+import com.secata.stream.CompactBitArray;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Sends actions and secret inputs to one contract on the test blockchain, recording the gas of each
+ * transaction and the size of the serialized contract state after it. The samples are aggregated
+ * per action into a report, which is deterministic and needs no testnet.
+ */
+public final class ActionProfiler {
+
+    static final String CSV_HEADER = "contract,action,count,total_gas,mean_gas,max_gas,max_state_bytes,last_state_bytes";
+
+    private final TestBlockchain blockchain;
+    private final BlockchainAddress contract;
+    private final String contractName;
+    private final List<Sample> samples = new ArrayList<>();
+
+    public ActionProfiler(TestBlockchain blockchain, BlockchainAddress contract, String contractName) {
+        this.blockchain = blockchain;
+        this.contract = contract;
+        this.contractName = contractName;
+    }
+
+    /** Sends {@code rpc} to the contract and records it under {@code action}. */
+    public TxExecution sendAction(String action, BlockchainAddress sender, byte[] rpc) {
+        TxExecution execution = blockchain.sendAction(sender, contract, rpc);
+        record(action, execution);
+        return execution;
+    }
+
+    /** Sends a secret input to the contract and records it under {@code action}. */
+    public TxExecution sendSecretInput(String action, BlockchainAddress sender, CompactBitArray secretInput, byte[] rpc) {
+        TxExecution execution = blockchain.sendSecretInput(contract, sender, secretInput, rpc);
+        record(action, execution);
+        return execution;
+    }
+
+    public List<Sample> samples() {
+        return List.copyOf(samples);
+    }
+
+    /** Aggregates the samples so far per action, in the order the actions were first sent. */
+    public List<ActionSummary> report() {
+        return summarize(contractName, samples);
+    }
+
+    /** Writes the report as {@code <contract>.csv} in {@code directory}, and returns the file. */
+    public Path writeReport(Path directory) {
+        Path output = directory.resolve(contractName + ".csv");
+        List<String> lines = new ArrayList<>();
+        lines.add(CSV_HEADER);
+        for (ActionSummary summary : report()) {
+            lines.add(summary.toCsv());
+        }
+        try {
+            Files.createDirectories(directory);
+            Files.write(output, lines);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return output;
+    }
+
+    private void record(String action, TxExecution execution) {
+        samples.add(new Sample(action, execution.getGasCost(), blockchain.getContractState(contract).length));
+    }
+
+    static List<ActionSummary> summarize(String contractName, List<Sample> samples) {
+        Map<String, List<Sample>> byAction = new LinkedHashMap<>();
+        for (Sample sample : samples) {
+            byAction.computeIfAbsent(sample.action(), action -> new ArrayList<>()).add(sample);
+        }
+
+        List<ActionSummary> summaries = new ArrayList<>();
+        for (Map.Entry<String, List<Sample>> entry : byAction.entrySet()) {
+            long totalGas = 0;
+            long maxGas = 0;
+            int maxStateBytes = 0;
+            for (Sample sample : entry.getValue()) {
+                totalGas += sample.gas();
+                maxGas = Math.max(maxGas, sample.gas());
+                maxStateBytes = Math.max(maxStateBytes, sample.stateBytes());
+            }
+            int count = entry.getValue().size();
+            int lastStateBytes = entry.getValue().get(count - 1).stateBytes();
+            summaries.add(new ActionSummary(contractName, entry.getKey(), count, totalGas, totalGas / count, maxGas, maxStateBytes, lastStateBytes));
+        }
+        return summaries;
+    }
+
+    /** Gas of one transaction and the size of the contract state after it. */
+    public record Sample(String action, long gas, int stateBytes) { }
+
+    /** Gas and state size of every sample of one action. */
+    public record ActionSummary(
+        String contract,
+        String action,
+        int count,
+        long totalGas,
+        long meanGas,
+        long maxGas,
+        int maxStateBytes,
+        int lastStateBytes
+    ) {
+        String toCsv() {
+            return contract + "," + action + "," + count + "," + totalGas + "," + meanGas + "," + maxGas + ","
+                + maxStateBytes + "," + lastStateBytes;
+        }
+    }
+}
@@ -0,0 +1,30 @@
+package examples;
+
+import org.assertj.core.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+public final class ActionProfilerTest {
+
+    @Test
+    void shouldAggregateSamplesPerActionInOrderOfFirstUse() {
+        // Arrange
+        List<ActionProfiler.Sample> samples = List.of(
+            new ActionProfiler.Sample("update_prices", 900, 120),
+            new ActionProfiler.Sample("input_sell_order", 1_000, 140),
+            new ActionProfiler.Sample("input_buy_order", 1_200, 160),
+            new ActionProfiler.Sample("input_sell_order", 1_400, 180),
+            new ActionProfiler.Sample("hold_double_auction", 5_000, 150));
+
+        // Act
+        List<ActionProfiler.ActionSummary> summaries = ActionProfiler.summarize("double-auction", samples);
+
+        // Assert
+        Assertions.assertThat(summaries).extracting(ActionProfiler.ActionSummary::action)
+            .containsExactly("update_prices", "input_sell_order", "input_buy_order", "hold_double_auction");
+        Assertions.assertThat(summaries.get(1)).isEqualTo(
+            new ActionProfiler.ActionSummary("double-auction", "input_sell_order", 2, 2_400, 1_200, 1_400, 180, 180));
+        Assertions.assertThat(summaries.get(3).toCsv()).isEqualTo("double-auction,hold_double_auction,1,5000,5000,5000,150,150");
+    }
+}
@@ -5,13 +5,19 @@ import com.partisiablockchain.language.abicodegen.OptimizedZkDoubleAuction;
 import com.partisiablockchain.language.junit.ContractBytes;
 import com.partisiablockchain.language.junit.ContractTest;
 import com.partisiablockchain.language.junit.JunitContractTest;
+import com.partisiablockchain.language.junit.TxExecution;
 import com.partisiablockchain.language.junit.exceptions.ActionFailureException;
 import com.secata.stream.CompactBitArray;
 import com.secata.stream.BitOutput;
 import org.assertj.core.api.Assertions;
 
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
 import java.nio.file.Path;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.List;
 import java.util.Random;
 
@@ -21,18 +27,45 @@ public final class ComplexityTool extends JunitContractTest{
     private static final int SELLERS = 10;
     private static final int LARGEST_ORDER = 100;
 
-    private static final ContractBytes ZK_DOUBLE_AUCTION_BYTES = 
-            ContractBytes.fromPaths(
-            Path.of("../rust/target/wasm32-unknown-unknown/release/optimized_zk_double_auction.zkwa"),
-            Path.of("../rust/target/wasm32-unknown-unknown/release/optimized_zk_double_auction.abi"),
-            Path.of("../rust/target/wasm32-unknown-unknown/release/optimized_zk_double_auction_runner"));
+    /** Order slots per side of the compute variants of the optimized contract, smallest first. */
+    private static final int[] CAPACITY_TIERS = {8, 16, 32, 85, 128};
+    /** Number of sell orders and buy orders the optimized contract can hold in one auction. */
+    private static final int ORDER_CAPACITY = CAPACITY_TIERS[CAPACITY_TIERS.length - 1];
+    /** Opened bytes of the clearing price index, see {@code PriceIndex} in the contract. */
+    private static final int INDEX_BYTES = 1;
+    /** Opened bytes of the summary of a compacted auction: the index and one order count per side. */
+    private static final int SUMMARY_BYTES = INDEX_BYTES + 2 * 2;
+    /** Order slots of the chunks of a compacted side, see {@code COMPACTED_CHUNK_SLOTS} in the contract. */
+    private static final int[] COMPACTED_CHUNK_SLOTS = {8, 8, 16, 32, 64};
+    /** Stages of {@code profile_stage}, see {@code PROFILE_SUPPLY_DEMAND} and {@code PROFILE_CLEARING_PRICE} in the contract. */
+    private static final byte PROFILE_SUPPLY_DEMAND = 1;
+    private static final byte PROFILE_CLEARING_PRICE = 2;
+
+    private static final int SWEEP_MIN_ORDERS = Integer.getInteger("complexity.minOrders", 2);
+    private static final int SWEEP_MAX_ORDERS = Integer.getInteger("complexity.maxOrders", ORDER_CAPACITY);
+    private static final int SWEEP_STEP = Integer.getInteger("complexity.step", 1);
+    private static final int SWEEP_SEEDS = Integer.getInteger("complexity.seeds", 3);
+    private static final String SWEEP_DISTRIBUTIONS = System.getProperty("complexity.distributions", "UNIFORM,MONOTONE,SPARSE");
+    private static final String SWEEP_FORMAT = System.getProperty("complexity.format", "csv");
+    private static final String LADDER_LEVELS = System.getProperty("complexity.ladderLevels", "6,8,16,32,64");
+    private static final int LADDER_ORDERS = Integer.getInteger("complexity.ladderOrders", 8);
+    private static final String STAGE_ORDERS = System.getProperty("complexity.stageOrders", "8,16,32,85,128");
+    private static final String TWO_PHASE_ORDERS = System.getProperty("complexity.twoPhaseOrders", "8,16,32,85,128");
+    private static final Path SWEEP_OUTPUT_DIRECTORY = Path.of(System.getProperty("complexity.output", "target/complexity"));
+    /** Widths of the ids and quantities of the contract that is deployed, see {@link #contractBytes}. */
+    private static final SecretOrderInputs.OrderWidths WIDTHS =
+        SecretOrderInputs.OrderWidths.parse(System.getProperty("complexity.widths", SecretOrderInputs.OrderWidths.DEFAULT.toString()));
+    private static final String WIDTH_COMPARISON = System.getProperty("complexity.widthComparison", "16x16,8x16,16x8,8x8");
+    private static final int WIDTH_ORDERS = Integer.getInteger("complexity.widthOrders", 8);
+
+    private static final ContractBytes ZK_DOUBLE_AUCTION_BYTES = contractBytes(WIDTHS);
     private List<BlockchainAddress> households;
     private BlockchainAddress double_auction_contract;
 
     @ContractTest
     void deploy() {
         households = new ArrayList<BlockchainAddress>();
-        for (int i = 0; i < BUYERS + SELLERS; i++) {
+        for (int i = 0; i < Math.max(BUYERS + SELLERS, 2 * SWEEP_MAX_ORDERS); i++) {
             households.add(blockchain.newAccount(i+1));
         }
 
@@ -50,7 +83,7 @@ public final class ComplexityTool extends JunitContractTest{
 
         Assertions.assertThat(state).isNotNull();
         Assertions.assertThat(state.marketClearingPriceIndex()).isNull();
-        Assertions.assertThat(state.matchedOrders()).isEmpty();
+        Assertions.assertThat(state.matchedOrders().tradeCount()).isZero();
         Assertions.assertThat(state.prices().size()).isEqualTo(6);
         Assertions.assertThat(state.prices().get(0)).isEqualTo((short)0);
     }
@@ -71,6 +104,7 @@ public final class ComplexityTool extends JunitContractTest{
         byte[] holdDoubleAuction = OptimizedZkDoubleAuction.holdDoubleAuction();
         try {
             blockchain.sendAction(households.get(0), double_auction_contract, holdDoubleAuction);
+            finishMatching();
 
         } catch(ActionFailureException e){
             throw e;
@@ -83,6 +117,595 @@ public final class ComplexityTool extends JunitContractTest{
         System.out.println("number of rounds " + zkNodes.getComplexityOfLastComputation().numberOfRounds());
     }
 
+    /**
+     * Runs the auction for every combination of order distribution, seed and number of orders per
+     * side, and writes one row per point to {@code target/complexity}. The sweep is configured through
+     * the {@code complexity.*} system properties, e.g.
+     * {@code mvn test -Dtest=ComplexityTool#runComplexitySweep -Dcomplexity.maxOrders=40}.
+     *
+     * <p>When run by {@link ParallelSweepTool}, only the points of the current {@link SweepShard}
+     * are run, and they are handed to the shard instead of being written.
+     */
+    @ContractTest(previous = "deploy")
+    void runComplexitySweep(){
+        SweepShard shard = SweepShard.current();
+        List<SweepPoint> points = new ArrayList<>();
+
+        int pointIndex = 0;
+        for (String name : SWEEP_DISTRIBUTIONS.split(",")){
+            Distribution distribution = Distribution.valueOf(name.trim());
+            for (int seed = 0; seed < SWEEP_SEEDS; seed++){
+                for (int orders = SWEEP_MIN_ORDERS; orders <= SWEEP_MAX_ORDERS; orders += SWEEP_STEP, pointIndex++){
+                    if (shard != null && !shard.owns(pointIndex)){
+                        continue;
+                    }
+                    SweepPoint point = runSweepPoint(distribution, seed, orders);
+                    System.out.println(point.toCsv());
+                    points.add(point);
+                    if (shard != null){
+                        shard.add(pointIndex, point);
+                    }
+                }
+            }
+        }
+
+        if (shard != null){
+            return;
+        }
+        Path output = writeSweep(points);
+        System.out.println("complexity sweep written to " + output.toAbsolutePath());
+        Assertions.assertThat(points).isNotEmpty();
+    }
+
+    private SweepPoint runSweepPoint(Distribution distribution, int seed, int ordersPerSide){
+        Random rand = new Random(seed * 1_000_003L + ordersPerSide);
+        OrderBook sellOrders = new OrderBook(ordersPerSide);
+        OrderBook buyOrders = new OrderBook(ordersPerSide);
+        for (int i = 0; i < ordersPerSide; i++){
+            sellOrders.add(i, distribution.quantities(rand, true).stream().mapToInt(Integer::intValue).toArray());
+        }
+        for (int i = ordersPerSide; i < 2 * ordersPerSide; i++){
+            buyOrders.add(i, distribution.quantities(rand, false).stream().mapToInt(Integer::intValue).toArray());
+        }
+        ReferenceClearingEngine engine = new ReferenceClearingEngine(ordersPerSide, false);
+        engine.clear(sellOrders, buyOrders);
+
+        HoldMeasurement sequential = holdAuction(sellOrders, buyOrders, engine, new OptimizedZkDoubleAuction.ComputeOptions(false, false, true, false, false));
+        HoldMeasurement tree = holdAuction(sellOrders, buyOrders, engine, new OptimizedZkDoubleAuction.ComputeOptions(true, false, true, false, false));
+        HoldMeasurement incremental = holdAuction(sellOrders, buyOrders, engine, new OptimizedZkDoubleAuction.ComputeOptions(false, true, true, false, false));
+        HoldMeasurement tournament = holdAuction(sellOrders, buyOrders, engine, new OptimizedZkDoubleAuction.ComputeOptions(false, false, false, false, false));
+        HoldMeasurement compacted = holdAuction(sellOrders, buyOrders, engine, new OptimizedZkDoubleAuction.ComputeOptions(false, false, false, true, false));
+
+        int sellCount = tradingOrders(sellOrders, engine.marketClearingPriceIndex());
+        int buyCount = tradingOrders(buyOrders, engine.marketClearingPriceIndex());
+        int compactedOpenedBytes = SUMMARY_BYTES;
+        if (sellCount > 0 && buyCount > 0){
+            compactedOpenedBytes += (compactedSlots(sellCount) + compactedSlots(buyCount)) * WIDTHS.orderOutputBytes();
+        }
+
+        int capacity = capacityTier(ordersPerSide);
+        return new SweepPoint(
+            distribution,
+            seed,
+            ordersPerSide,
+            2 * ordersPerSide,
+            capacity,
+            openedBytes(ordersPerSide, WIDTHS),
+            sequential.multiplications(),
+            sequential.rounds(),
+            sequential.holdGas(),
+            tree.multiplications(),
+            tree.rounds(),
+            incremental.foldMultiplications(),
+            incremental.foldRounds(),
+            incremental.multiplications(),
+            incremental.rounds(),
+            incremental.holdGas(),
+            tournament.multiplications(),
+            tournament.rounds(),
+            compactedOpenedBytes,
+            compacted.multiplications(),
+            compacted.rounds(),
+            compacted.holdGas());
+    }
+
+    /** Number of orders of {@code book} with a non-zero quantity at price level {@code index}. */
+    private static int tradingOrders(OrderBook book, int index){
+        int count = 0;
+        for (int order = 0; order < book.size(); order++){
+            if (book.quantity(order, index) > 0){
+                count++;
+            }
+        }
+        return count;
+    }
+
+    /** Order slots of the first compacted chunks that together hold {@code count} orders. */
+    private static int compactedSlots(int count){
+        int slots = 0;
+        for (int chunk = 0; slots < count; chunk++){
+            slots += COMPACTED_CHUNK_SLOTS[chunk];
+        }
+        return slots;
+    }
+
+    /**
+     * Sends the orders of both books, holds the auction with the given compute options and checks
+     * the result against {@code engine}. With incremental totals, the folds run as the orders arrive
+     * and are measured separately from the hold. In two phases, the first phase is measured with
+     * {@code profile_stage} before the hold, which runs the same computation, and is added to the
+     * second. The hold gas includes the gas of the transactions that finish the matching. Leaves the
+     * contract reset with the sweep prices.
+     */
+    private HoldMeasurement holdAuction(OrderBook sellOrders, OrderBook buyOrders, ReferenceClearingEngine engine, OptimizedZkDoubleAuction.ComputeOptions options){
+        blockchain.sendAction(households.get(0), double_auction_contract, OptimizedZkDoubleAuction.updateComputeOptions(options));
+
+        long foldMultiplications = 0;
+        long foldRounds = 0;
+        for (int i = 0; i < sellOrders.size() + buyOrders.size(); i++){
+            boolean selling = i < sellOrders.size();
+            OrderBook book = selling ? sellOrders : buyOrders;
+            int order = selling ? i : i - sellOrders.size();
+            blockchain.sendSecretInput(double_auction_contract, households.get(book.id(order)), SecretOrderInputs.encode(book, order, WIDTHS),
+                selling ? secretInputSellingRpc() : secretInputBuyingRpc());
+            if (options.incrementalTotals()){
+                var fold = zkNodes.getComplexityOfLastComputation();
+                foldMultiplications += fold.multiplicationCount();
+                foldRounds = Math.max(foldRounds, fold.numberOfRounds());
+            }
+        }
+
+        long firstPhaseMultiplications = 0;
+        long firstPhaseRounds = 0;
+        if (options.twoPhase()){
+            blockchain.sendAction(households.get(0), double_auction_contract, OptimizedZkDoubleAuction.profileStage(PROFILE_CLEARING_PRICE));
+            var firstPhase = zkNodes.getComplexityOfLastComputation();
+            firstPhaseMultiplications = firstPhase.multiplicationCount();
+            firstPhaseRounds = firstPhase.numberOfRounds();
+        }
+
+        long start = System.nanoTime();
+        TxExecution hold = blockchain.sendAction(households.get(0), double_auction_contract, OptimizedZkDoubleAuction.holdDoubleAuction());
+        long holdMillis = (System.nanoTime() - start) / 1_000_000;
+        var complexity = zkNodes.getComplexityOfLastComputation();
+        long continuationGas = finishMatching();
+
+        OptimizedZkDoubleAuction.ContractState state =
+            OptimizedZkDoubleAuction.ContractState.deserialize(blockchain.getContractState(double_auction_contract));
+        Assertions.assertThat(state.marketClearingPriceIndex()).isEqualTo((short)engine.marketClearingPriceIndex());
+        Assertions.assertThat(state.matchedOrders().tradeCount()).isEqualTo(engine.tradeCount());
+
+        blockchain.sendAction(households.get(0), double_auction_contract, OptimizedZkDoubleAuction.resetContract());
+        blockchain.sendAction(households.get(0), double_auction_contract, OptimizedZkDoubleAuction.updatePrices((short)40, (short)58));
+        return new HoldMeasurement(
+            firstPhaseMultiplications + complexity.multiplicationCount(),
+            firstPhaseRounds + complexity.numberOfRounds(),
+            hold.getGasCost() + continuationGas,
+            holdMillis,
+            foldMultiplications,
+            foldRounds);
+    }
+
+    /**
+     * Continues the matching of the last hold until it is done, so the contract can be reset, and
+     * returns the gas of the continuations.
+     */
+    private long finishMatching(){
+        return finishMatching(double_auction_contract);
+    }
+
+    private long finishMatching(BlockchainAddress contract){
+        long gas = 0;
+        while (OptimizedZkDoubleAuction.ContractState.deserialize(blockchain.getContractState(contract)).matching() != null){
+            gas += blockchain.sendAction(households.get(0), contract, OptimizedZkDoubleAuction.continueMatching()).getGasCost();
+        }
+        return gas;
+    }
+
+    /**
+     * Holds an auction of {@code complexity.ladderOrders} cumulative orders per side for every price
+     * ladder size in {@code complexity.ladderLevels}, and writes the cost of each to
+     * {@code target/complexity/complexity-ladder.csv}.
+     */
+    @ContractTest(previous = "deploy")
+    void runPriceLadderSweep(){
+        List<String> lines = new ArrayList<>();
+        lines.add("price_levels,orders_per_side,multiplications,rounds,hold_gas");
+
+        Random rand = new Random(LADDER_ORDERS);
+        for (String value : LADDER_LEVELS.split(",")){
+            int levels = Integer.parseInt(value.trim());
+            blockchain.sendAction(households.get(0), double_auction_contract, OptimizedZkDoubleAuction.updatePriceLevels(levels));
+            blockchain.sendAction(households.get(0), double_auction_contract, OptimizedZkDoubleAuction.updatePrices((short)40, (short)(40 + levels)));
+
+            OrderBook sellOrders = new OrderBook(LADDER_ORDERS, levels);
+            OrderBook buyOrders = new OrderBook(LADDER_ORDERS, levels);
+            for (int i = 0; i < LADDER_ORDERS; i++){
+                sellOrders.add(i, cumulativeQuantities(rand, levels, true));
+                buyOrders.add(i + LADDER_ORDERS, cumulativeQuantities(rand, levels, false));
+                blockchain.sendSecretInput(double_auction_contract, households.get(i), SecretOrderInputs.encodeLadder(sellOrders, i, WIDTHS), SecretOrderInputs.sellLadderOrderRpc());
+                blockchain.sendSecretInput(double_auction_contract, households.get(i + LADDER_ORDERS), SecretOrderInputs.encodeLadder(buyOrders, i, WIDTHS), SecretOrderInputs.buyLadderOrderRpc());
+            }
+
+            TxExecution hold = blockchain.sendAction(households.get(0), double_auction_contract, OptimizedZkDoubleAuction.holdDoubleAuction());
+            var complexity = zkNodes.getComplexityOfLastComputation();
+            long continuationGas = finishMatching();
+
+            OptimizedZkDoubleAuction.ContractState state =
+                OptimizedZkDoubleAuction.ContractState.deserialize(blockchain.getContractState(double_auction_contract));
+            ReferenceClearingEngine engine = ReferenceClearingEngine.forPriceLadder(LADDER_ORDERS, levels);
+            engine.clear(sellOrders, buyOrders);
+            Assertions.assertThat(state.marketClearingPriceIndex()).isEqualTo((short)engine.marketClearingPriceIndex());
+            Assertions.assertThat(state.matchedOrders().tradeCount()).isEqualTo(engine.tradeCount());
+
+            String line = levels + "," + LADDER_ORDERS + "," + complexity.multiplicationCount() + ","
+                + complexity.numberOfRounds() + "," + (hold.getGasCost() + continuationGas);
+            System.out.println(line);
+            lines.add(line);
+
+            blockchain.sendAction(households.get(0), double_auction_contract, OptimizedZkDoubleAuction.resetContract());
+        }
+
+        Path output = SWEEP_OUTPUT_DIRECTORY.resolve("complexity-ladder.csv");
+        try {
+            Files.createDirectories(output.getParent());
+            Files.write(output, lines);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        System.out.println("price ladder sweep written to " + output.toAbsolutePath());
+    }
+
+    /**
+     * Splits the cost of the auction between its stages for every number of orders per side in
+     * {@code complexity.stageOrders}. The supply and demand stage and the clearing price stage are
+     * run on their own with {@code profile_stage}, and each stage is charged what it adds to the
+     * stages before it, so the order output stage is the full hold minus the clearing price stage.
+     * Writes {@code target/complexity/complexity-stages.csv} and prints the breakdown as a table.
+     */
+    @ContractTest(previous = "deploy")
+    void runStageBreakdown(){
+        List<StageCost> costs = new ArrayList<>();
+        for (String value : STAGE_ORDERS.split(",")){
+            int ordersPerSide = Integer.parseInt(value.trim());
+            Random rand = new Random(ordersPerSide);
+            OrderBook sellOrders = new OrderBook(ordersPerSide);
+            OrderBook buyOrders = new OrderBook(ordersPerSide);
+            for (int i = 0; i < ordersPerSide; i++){
+                sellOrders.add(i, Distribution.MONOTONE.quantities(rand, true).stream().mapToInt(Integer::intValue).toArray());
+                buyOrders.add(ordersPerSide + i, Distribution.MONOTONE.quantities(rand, false).stream().mapToInt(Integer::intValue).toArray());
+                blockchain.sendSecretInput(double_auction_contract, households.get(i), SecretOrderInputs.encode(sellOrders, i, WIDTHS), secretInputSellingRpc());
+                blockchain.sendSecretInput(double_auction_contract, households.get(ordersPerSide + i), SecretOrderInputs.encode(buyOrders, i, WIDTHS), secretInputBuyingRpc());
+            }
+
+            blockchain.sendAction(households.get(0), double_auction_contract, OptimizedZkDoubleAuction.profileStage(PROFILE_SUPPLY_DEMAND));
+            var supplyDemand = zkNodes.getComplexityOfLastComputation();
+            blockchain.sendAction(households.get(0), double_auction_contract, OptimizedZkDoubleAuction.profileStage(PROFILE_CLEARING_PRICE));
+            var clearingPrice = zkNodes.getComplexityOfLastComputation();
+            blockchain.sendAction(households.get(0), double_auction_contract, OptimizedZkDoubleAuction.holdDoubleAuction());
+            var hold = zkNodes.getComplexityOfLastComputation();
+            finishMatching();
+
+            costs.add(new StageCost("calculate_supply_demand", ordersPerSide,
+                supplyDemand.multiplicationCount(), supplyDemand.numberOfRounds()));
+            costs.add(new StageCost("calculate_market_clearing_price_index", ordersPerSide,
+                clearingPrice.multiplicationCount() - supplyDemand.multiplicationCount(),
+                clearingPrice.numberOfRounds() - supplyDemand.numberOfRounds()));
+            costs.add(new StageCost("calculate_sell_buy_order_outputs", ordersPerSide,
+                hold.multiplicationCount() - clearingPrice.multiplicationCount(),
+                hold.numberOfRounds() - clearingPrice.numberOfRounds()));
+
+            blockchain.sendAction(households.get(0), double_auction_contract, OptimizedZkDoubleAuction.resetContract());
+            blockchain.sendAction(households.get(0), double_auction_contract, OptimizedZkDoubleAuction.updatePrices((short)40, (short)58));
+        }
+
+        List<String> lines = new ArrayList<>();
+        lines.add(StageCost.CSV_HEADER);
+        System.out.println(String.format("%-40s %8s %16s %8s", "stage", "orders", "multiplications", "rounds"));
+        for (StageCost cost : costs){
+            lines.add(cost.toCsv());
+            System.out.println(String.format("%-40s %8d %16d %8d", cost.stage(), cost.ordersPerSide(), cost.multiplications(), cost.rounds()));
+        }
+
+        Path output = SWEEP_OUTPUT_DIRECTORY.resolve("complexity-stages.csv");
+        try {
+            Files.createDirectories(output.getParent());
+            Files.write(output, lines);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        System.out.println("stage breakdown written to " + output.toAbsolutePath());
+    }
+
+    /**
+     * Holds the same auction in a single phase and in two phases for every number of orders per side
+     * in {@code complexity.twoPhaseOrders}, and writes the total multiplications and rounds, the hold
+     * gas and the wall-clock time of the hold of both to
+     * {@code target/complexity/complexity-two-phase.csv}. Besides its rounds, the two-phase hold waits
+     * for one more opening of outputs, that of the clearing price index.
+     */
+    @ContractTest(previous = "deploy")
+    void runTwoPhaseComparison(){
+        List<String> lines = new ArrayList<>();
+        lines.add("orders_per_side,single_multiplications,single_rounds,single_hold_gas,single_hold_millis,"
+            + "two_phase_multiplications,two_phase_rounds,two_phase_hold_gas,two_phase_hold_millis");
+        for (String value : TWO_PHASE_ORDERS.split(",")){
+            int ordersPerSide = Integer.parseInt(value.trim());
+            Random rand = new Random(ordersPerSide);
+            OrderBook sellOrders = new OrderBook(ordersPerSide);
+            OrderBook buyOrders = new OrderBook(ordersPerSide);
+            for (int i = 0; i < ordersPerSide; i++){
+                sellOrders.add(i, Distribution.MONOTONE.quantities(rand, true).stream().mapToInt(Integer::intValue).toArray());
+                buyOrders.add(ordersPerSide + i, Distribution.MONOTONE.quantities(rand, false).stream().mapToInt(Integer::intValue).toArray());
+            }
+            ReferenceClearingEngine engine = new ReferenceClearingEngine(ordersPerSide, false);
+            engine.clear(sellOrders, buyOrders);
+
+            HoldMeasurement single = holdAuction(sellOrders, buyOrders, engine, new OptimizedZkDoubleAuction.ComputeOptions(false, false, false, false, false));
+            HoldMeasurement twoPhase = holdAuction(sellOrders, buyOrders, engine, new OptimizedZkDoubleAuction.ComputeOptions(false, false, false, false, true));
+
+            String line = ordersPerSide + "," + single.multiplications() + "," + single.rounds() + "," + single.holdGas() + ","
+                + single.holdMillis() + "," + twoPhase.multiplications() + "," + twoPhase.rounds() + ","
+                + twoPhase.holdGas() + "," + twoPhase.holdMillis();
+            System.out.println(line);
+            lines.add(line);
+        }
+
+        Path output = SWEEP_OUTPUT_DIRECTORY.resolve("complexity-two-phase.csv");
+        try {
+            Files.createDirectories(output.getParent());
+            Files.write(output, lines);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        System.out.println("two-phase comparison written to " + output.toAbsolutePath());
+    }
+
+    /**
+     * Holds the same auction of {@code complexity.widthOrders} orders per side on a contract built for
+     * each of the widths in {@code complexity.widthComparison}, and writes the measured multiplications
+     * and rounds, the opened bytes and the hold gas of each to
+     * {@code target/complexity/complexity-widths.csv}. The quantities are small enough for the totals
+     * to fit 8-bit quantities, so every width clears the same auction.
+     */
+    @ContractTest(previous = "deploy")
+    void runWidthComparison(){
+        Random rand = new Random(WIDTH_ORDERS);
+        OrderBook sellOrders = new OrderBook(WIDTH_ORDERS);
+        OrderBook buyOrders = new OrderBook(WIDTH_ORDERS);
+        for (int i = 0; i < WIDTH_ORDERS; i++){
+            sellOrders.add(i, boundedQuantities(rand, Byte.MAX_VALUE / WIDTH_ORDERS, true));
+            buyOrders.add(WIDTH_ORDERS + i, boundedQuantities(rand, Byte.MAX_VALUE / WIDTH_ORDERS, false));
+        }
+        ReferenceClearingEngine engine = new ReferenceClearingEngine(WIDTH_ORDERS, false);
+        engine.clear(sellOrders, buyOrders);
+
+        List<String> lines = new ArrayList<>();
+        lines.add("id_bits,quantity_bits,orders_per_side,opened_bytes,multiplications,rounds,hold_gas");
+        for (String value : WIDTH_COMPARISON.split(",")){
+            SecretOrderInputs.OrderWidths widths = SecretOrderInputs.OrderWidths.parse(value);
+            BlockchainAddress contract = blockchain.deployZkContract(households.get(0), contractBytes(widths), OptimizedZkDoubleAuction.initialize());
+            blockchain.sendAction(households.get(0), contract, OptimizedZkDoubleAuction.updatePrices((short)40, (short)58));
+            for (int i = 0; i < WIDTH_ORDERS; i++){
+                blockchain.sendSecretInput(contract, households.get(i), SecretOrderInputs.encode(sellOrders, i, widths), secretInputSellingRpc());
+                blockchain.sendSecretInput(contract, households.get(WIDTH_ORDERS + i), SecretOrderInputs.encode(buyOrders, i, widths), secretInputBuyingRpc());
+            }
+
+            TxExecution hold = blockchain.sendAction(households.get(0), contract, OptimizedZkDoubleAuction.holdDoubleAuction());
+            var complexity = zkNodes.getComplexityOfLastComputation();
+            long continuationGas = finishMatching(contract);
+
+            OptimizedZkDoubleAuction.ContractState state =
+                OptimizedZkDoubleAuction.ContractState.deserialize(blockchain.getContractState(contract));
+            Assertions.assertThat(state.marketClearingPriceIndex()).isEqualTo((short)engine.marketClearingPriceIndex());
+            Assertions.assertThat(state.matchedOrders().tradeCount()).isEqualTo(engine.tradeCount());
+
+            String line = widths.idBits() + "," + widths.quantityBits() + "," + WIDTH_ORDERS + ","
+                + openedBytes(WIDTH_ORDERS, widths) + "," + complexity.multiplicationCount() + ","
+                + complexity.numberOfRounds() + "," + (hold.getGasCost() + continuationGas);
+            System.out.println(line);
+            lines.add(line);
+        }
+
+        Path output = SWEEP_OUTPUT_DIRECTORY.resolve("complexity-widths.csv");
+        try {
+            Files.createDirectories(output.getParent());
+            Files.write(output, lines);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        System.out.println("width comparison written to " + output.toAbsolutePath());
+    }
+
+    /**
+     * Quantities of at most {@code largest}, sorted increasing with the price for sellers and
+     * decreasing for buyers.
+     */
+    private static int[] boundedQuantities(Random rand, int largest, boolean selling){
+        int[] quantities = new int[6];
+        for (int level = 0; level < 6; level++){
+            quantities[level] = rand.nextInt(largest + 1);
+        }
+        Arrays.sort(quantities);
+        if (!selling){
+            for (int level = 0; level < 3; level++){
+                int quantity = quantities[level];
+                quantities[level] = quantities[5 - level];
+                quantities[5 - level] = quantity;
+            }
+        }
+        return quantities;
+    }
+
+    /** Cumulative quantities, non-decreasing with the price for sellers and non-increasing for buyers. */
+    private static int[] cumulativeQuantities(Random rand, int levels, boolean selling){
+        int[] quantities = new int[levels];
+        int total = 0;
+        for (int level = 0; level < levels; level++){
+            total += rand.nextInt(LARGEST_ORDER / levels + 1);
+            quantities[selling ? level : levels - 1 - level] = total;
+        }
+        return quantities;
+    }
+
+    /** Bytes the optimized contract opens for an auction without compaction or two phases. */
+    static int openedBytes(int ordersPerSide){
+        return openedBytes(ordersPerSide, SecretOrderInputs.OrderWidths.DEFAULT);
+    }
+
+    /** Bytes the optimized contract built for {@code widths} opens for an auction without compaction or two phases. */
+    static int openedBytes(int ordersPerSide, SecretOrderInputs.OrderWidths widths){
+        return INDEX_BYTES + 2 * capacityTier(ordersPerSide) * widths.orderOutputBytes();
+    }
+
+    /**
+     * The contract built for {@code widths}: the release build for the default widths, and otherwise
+     * the build with the matching {@code narrow-ids} and {@code narrow-quantities} features, copied to
+     * {@code rust/target/widths/<idBits>x<quantityBits>}.
+     */
+    private static ContractBytes contractBytes(SecretOrderInputs.OrderWidths widths){
+        Path directory = widths.equals(SecretOrderInputs.OrderWidths.DEFAULT)
+            ? Path.of("../rust/target/wasm32-unknown-unknown/release")
+            : Path.of("../rust/target/widths", widths.toString());
+        return ContractBytes.fromPaths(
+            directory.resolve("optimized_zk_double_auction.zkwa"),
+            directory.resolve("optimized_zk_double_auction.abi"),
+            directory.resolve("optimized_zk_double_auction_runner"));
+    }
+
+    private static int capacityTier(int ordersPerSide){
+        for (int capacity : CAPACITY_TIERS){
+            if (ordersPerSide <= capacity){
+                return capacity;
+            }
+        }
+        throw new IllegalArgumentException("No capacity tier holds " + ordersPerSide + " orders per side");
+    }
+
+    static Path writeSweep(List<SweepPoint> points){
+        boolean json = SWEEP_FORMAT.equalsIgnoreCase("json");
+        Path output = SWEEP_OUTPUT_DIRECTORY.resolve(json ? "complexity-sweep.json" : "complexity-sweep.csv");
+
+        List<String> lines = new ArrayList<>();
+        if (json){
+            lines.add("[");
+            for (int i = 0; i < points.size(); i++){
+                lines.add("  " + points.get(i).toJson() + (i + 1 < points.size() ? "," : ""));
+            }
+            lines.add("]");
+        } else {
+            lines.add(SweepPoint.CSV_HEADER);
+            for (SweepPoint point : points){
+                lines.add(point.toCsv());
+            }
+        }
+
+        try {
+            Files.createDirectories(output.getParent());
+            Files.write(output, lines);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return output;
+    }
+
+    /** Shapes of the quantity-per-price curves used in the sweep. */
+    private enum Distribution {
+        /** Independent uniform quantities at every price, as in {@link #runDoubleAuction()}. */
+        UNIFORM,
+        /** Sorted quantities, increasing with price for sellers and decreasing for buyers, as in the testnet scripts. */
+        MONOTONE,
+        /** A single non-zero quantity at a random price. */
+        SPARSE;
+
+        List<Integer> quantities(Random rand, boolean selling){
+            Integer[] quantities = new Integer[6];
+            for (int i = 0; i < 6; i++){
+                quantities[i] = this == SPARSE ? 0 : rand.nextInt(LARGEST_ORDER+1);
+            }
+            if (this == SPARSE){
+                quantities[rand.nextInt(6)] = rand.nextInt(LARGEST_ORDER+1);
+            }
+            if (this == MONOTONE){
+                Arrays.sort(quantities);
+                if (!selling){
+                    Collections.reverse(Arrays.asList(quantities));
+                }
+            }
+            return List.of(quantities);
+        }
+    }
+
+    record SweepPoint(
+        Distribution distribution,
+        int seed,
+        int ordersPerSide,
+        int secretInputs,
+        int capacity,
+        int openedBytes,
+        long multiplications,
+        long rounds,
+        long holdGas,
+        long treeMultiplications,
+        long treeRounds,
+        long foldMultiplications,
+        long foldRounds,
+        long incrementalMultiplications,
+        long incrementalRounds,
+        long incrementalHoldGas,
+        long tournamentMultiplications,
+        long tournamentRounds,
+        int compactedOpenedBytes,
+        long compactedMultiplications,
+        long compactedRounds,
+        long compactedHoldGas){
+
+        static final String CSV_HEADER = "distribution,seed,orders_per_side,secret_inputs,capacity,opened_bytes,multiplications,rounds,hold_gas,tree_multiplications,tree_rounds,"
+            + "fold_multiplications,fold_rounds,incremental_multiplications,incremental_rounds,incremental_hold_gas,"
+            + "tournament_multiplications,tournament_rounds,"
+            + "compacted_opened_bytes,compacted_multiplications,compacted_rounds,compacted_hold_gas";
+
+        String toCsv(){
+            return distribution + "," + seed + "," + ordersPerSide + "," + secretInputs + ","
+                + capacity + "," + openedBytes + "," + multiplications + "," + rounds + "," + holdGas + ","
+                + treeMultiplications + "," + treeRounds + "," + foldMultiplications + "," + foldRounds + ","
+                + incrementalMultiplications + "," + incrementalRounds + "," + incrementalHoldGas + ","
+                + tournamentMultiplications + "," + tournamentRounds + ","
+                + compactedOpenedBytes + "," + compactedMultiplications + "," + compactedRounds + "," + compactedHoldGas;
+        }
+
+        String toJson(){
+            return "{\"distribution\":\"" + distribution + "\",\"seed\":" + seed
+                + ",\"orders_per_side\":" + ordersPerSide + ",\"secret_inputs\":" + secretInputs
+                + ",\"capacity\":" + capacity + ",\"opened_bytes\":" + openedBytes
+                + ",\"multiplications\":" + multiplications + ",\"rounds\":" + rounds
+                + ",\"hold_gas\":" + holdGas + ",\"tree_multiplications\":" + treeMultiplications
+                + ",\"tree_rounds\":" + treeRounds + ",\"fold_multiplications\":" + foldMultiplications
+                + ",\"fold_rounds\":" + foldRounds + ",\"incremental_multiplications\":" + incrementalMultiplications
+                + ",\"incremental_rounds\":" + incrementalRounds + ",\"incremental_hold_gas\":" + incrementalHoldGas
+                + ",\"tournament_multiplications\":" + tournamentMultiplications + ",\"tournament_rounds\":" + tournamentRounds
+                + ",\"compacted_opened_bytes\":" + compactedOpenedBytes + ",\"compacted_multiplications\":" + compactedMultiplications
+                + ",\"compacted_rounds\":" + compactedRounds + ",\"compacted_hold_gas\":" + compactedHoldGas + "}";
+        }
+    }
+
+    /** Multiplications and rounds a stage of the auction adds to the stages before it. */
+    private record StageCost(String stage, int ordersPerSide, long multiplications, long rounds){
+
+        static final String CSV_HEADER = "stage,orders_per_side,multiplications,rounds";
+
+        String toCsv(){
+            return stage + "," + ordersPerSide + "," + multiplications + "," + rounds;
+        }
+    }
+
+    /**
+     * Cost of one hold of the auction, with the wall-clock time the hold took on the test
+     * blockchain, and with incremental totals the summed multiplications and the largest number of
+     * rounds of the folds that ran while the orders arrived.
+     */
+    private record HoldMeasurement(long multiplications, long rounds, long holdGas, long holdMillis, long foldMultiplications, long foldRounds){ }
+
     private record Order(int houseId, List<Integer> prices){ }
 
     private CompactBitArray createSecretInput(Order order) {
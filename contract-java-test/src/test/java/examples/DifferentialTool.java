@@ -0,0 +1,272 @@
+package examples;
+
+import com.partisiablockchain.BlockchainAddress;
+import com.partisiablockchain.language.abicodegen.DoubleAuction;
+import com.partisiablockchain.language.abicodegen.OptimizedZkDoubleAuction;
+import com.partisiablockchain.language.abicodegen.ZkDoubleAuction;
+import com.partisiablockchain.language.junit.ContractBytes;
+import com.partisiablockchain.language.junit.ContractTest;
+import com.partisiablockchain.language.junit.JunitContractTest;
+import examples.TradeLogReader.Trade;
+import org.assertj.core.api.Assertions;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Sends the same order books to {@code double-auction}, {@code zk-double-auction} and
+ * {@code optimized-zk-double-auction} for every number of orders per side in
+ * {@code differential.orders}, and reports the gas, multiplications, rounds and opened bytes of each
+ * side by side in {@code target/differential/differential.csv}, e.g.
+ * {@code mvn test -Dtest=DifferentialTool -Ddifferential.orders=8,32,128 -Ddifferential.slot=48}.
+ *
+ * <p>The contracts do not clear the same way: {@code double-auction} makes the order curves
+ * cumulative, {@code zk-double-auction} takes the first level where supply exceeds demand and fills
+ * the buy orders from each sell order in turn, and {@code optimized-zk-double-auction} clears the
+ * quantities as given. Every contract is therefore checked against the reference of its own
+ * mechanism, and a contract that diverges from it fails the run. How far the results of the
+ * mechanisms differ from the public contract is reported, not failed.
+ */
+public final class DifferentialTool extends JunitContractTest{
+
+    private static final String DIFFERENTIAL_ORDERS = System.getProperty("differential.orders", "8,32,85,128");
+    private static final int DIFFERENTIAL_LARGEST_ORDER = Integer.getInteger("differential.largestOrder", 50);
+    private static final long DIFFERENTIAL_SEED = Long.getLong("differential.seed", 1L);
+    /** Market of the day to draw {@link ProsumerOrders} for, or -1 for the uniform quantities of {@link OrderStream#generate}. */
+    private static final int DIFFERENTIAL_SLOT = Integer.getInteger("differential.slot", -1);
+    private static final Path DIFFERENTIAL_OUTPUT_DIRECTORY = Path.of(System.getProperty("differential.output", "target/differential"));
+
+    /** Opened bytes of {@code zk-double-auction}: the equilibrium price and three 16-bit values for each of 256 trade slots. */
+    private static final int ZK_OPENED_BYTES = 2 + 3 * 2 * 256;
+
+    private static final String CSV_HEADER = "orders_per_side,contract,input_gas,hold_gas,multiplications,rounds,opened_bytes,"
+        + "clearing_index,trades,traded_quantity,matches_reference,same_index_as_public,same_quantity_as_public";
+
+    private static final ContractBytes DOUBLE_AUCTION_BYTES =
+          ContractBytes.fromPbcFile(
+          Path.of("../rust/target/wasm32-unknown-unknown/release/double_auction.pbc"),
+          Path.of("../rust/target/wasm32-unknown-unknown/release/double_auction_runner"));
+    private static final ContractBytes ZK_DOUBLE_AUCTION_BYTES =
+          ContractBytes.fromPaths(
+          Path.of("../rust/target/wasm32-unknown-unknown/release/zk_double_auction.zkwa"),
+          Path.of("../rust/target/wasm32-unknown-unknown/release/zk_double_auction.abi"),
+          Path.of("../rust/target/wasm32-unknown-unknown/release/zk_double_auction_runner"));
+    private static final ContractBytes OPTIMIZED_ZK_DOUBLE_AUCTION_BYTES =
+          ContractBytes.fromPaths(
+          Path.of("../rust/target/wasm32-unknown-unknown/release/optimized_zk_double_auction.zkwa"),
+          Path.of("../rust/target/wasm32-unknown-unknown/release/optimized_zk_double_auction.abi"),
+          Path.of("../rust/target/wasm32-unknown-unknown/release/optimized_zk_double_auction_runner"));
+
+    private BlockchainAddress holder;
+    private BlockchainAddress seller;
+    private BlockchainAddress buyer;
+
+    @ContractTest
+    void runDifferentialBenchmark() {
+        holder = blockchain.newAccount(1);
+        seller = blockchain.newAccount(2);
+        buyer = blockchain.newAccount(3);
+
+        List<String> lines = new ArrayList<>();
+        lines.add(CSV_HEADER);
+        List<String> divergences = new ArrayList<>();
+        for (String value : DIFFERENTIAL_ORDERS.split(",")){
+            int ordersPerSide = Integer.parseInt(value.trim());
+            OrderStream stream = DIFFERENTIAL_SLOT < 0
+                ? OrderStream.generate(DIFFERENTIAL_SEED, ordersPerSide, ordersPerSide, DIFFERENTIAL_LARGEST_ORDER, OrderStream.ArrivalPattern.SELLERS_FIRST)
+                : OrderStream.fromProsumers(DIFFERENTIAL_SEED, ordersPerSide, ordersPerSide, DIFFERENTIAL_SLOT, DIFFERENTIAL_LARGEST_ORDER, OrderStream.ArrivalPattern.SELLERS_FIRST);
+            OrderBook sellOrders = stream.sellOrders();
+            OrderBook buyOrders = stream.buyOrders();
+
+            List<ContractRun> runs = List.of(
+                runDoubleAuction(sellOrders, buyOrders),
+                runZkDoubleAuction(sellOrders, buyOrders),
+                runOptimizedZkDoubleAuction(sellOrders, buyOrders));
+            ContractRun publicRun = runs.get(0);
+            for (ContractRun run : runs){
+                if (!run.matchesReference()){
+                    divergences.add(run.contract() + " diverges from its reference at " + ordersPerSide + " orders per side");
+                }
+                String line = ordersPerSide + "," + run.toCsv() + "," + (run.clearingIndex() == publicRun.clearingIndex())
+                    + "," + (run.tradedQuantity() == publicRun.tradedQuantity());
+                System.out.println(line);
+                lines.add(line);
+            }
+            System.out.println(String.format(Locale.ROOT, "price of privacy at %d orders per side: zk-double-auction %.1fx, optimized-zk-double-auction %.1fx the gas of double-auction",
+                ordersPerSide, runs.get(1).totalGas() / (double) publicRun.totalGas(), runs.get(2).totalGas() / (double) publicRun.totalGas()));
+        }
+
+        Path output = DIFFERENTIAL_OUTPUT_DIRECTORY.resolve("differential.csv");
+        try {
+            Files.createDirectories(output.getParent());
+            Files.write(output, lines);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        System.out.println("differential benchmark written to " + output.toAbsolutePath());
+        divergences.forEach(System.out::println);
+        Assertions.assertThat(divergences).isEmpty();
+    }
+
+    private ContractRun runDoubleAuction(OrderBook sellOrders, OrderBook buyOrders) {
+        BlockchainAddress contract = blockchain.deployContract(holder, DOUBLE_AUCTION_BYTES, DoubleAuction.initialize());
+        blockchain.sendAction(holder, contract, DoubleAuction.updatePrices((short)40, (short)58));
+
+        long inputGas = 0;
+        for (int i = 0; i < sellOrders.size(); i++){
+            inputGas += blockchain.sendAction(seller, contract, DoubleAuction.inputSellOrder(orderInput(sellOrders, i))).getGasCost();
+        }
+        for (int i = 0; i < buyOrders.size(); i++){
+            inputGas += blockchain.sendAction(buyer, contract, DoubleAuction.inputBuyOrder(orderInput(buyOrders, i))).getGasCost();
+        }
+        long holdGas = blockchain.sendAction(holder, contract, DoubleAuction.holdDoubleAuction()).getGasCost();
+        DoubleAuction.ContractState state = DoubleAuction.ContractState.deserialize(blockchain.getContractState(contract));
+        while (state.matching() != null){
+            holdGas += blockchain.sendAction(holder, contract, DoubleAuction.continueMatching()).getGasCost();
+            state = DoubleAuction.ContractState.deserialize(blockchain.getContractState(contract));
+        }
+
+        List<Trade> trades = new ArrayList<>();
+        for (DoubleAuction.Trade trade : state.matchedOrders()){
+            trades.add(new Trade(trade.buyerId(), trade.sellerId(), trade.quantity()));
+        }
+        ReferenceClearingEngine engine = new ReferenceClearingEngine(Math.max(sellOrders.size(), buyOrders.size()), true);
+        engine.clear(sellOrders, buyOrders);
+        return ContractRun.of("double-auction", inputGas, holdGas, 0, 0, 0,
+            state.marketClearingPriceIndex(), trades, engine.marketClearingPriceIndex(), trades(engine));
+    }
+
+    private ContractRun runZkDoubleAuction(OrderBook sellOrders, OrderBook buyOrders) {
+        BlockchainAddress contract = blockchain.deployZkContract(holder, ZK_DOUBLE_AUCTION_BYTES, ZkDoubleAuction.initialize());
+        blockchain.sendAction(holder, contract, ZkDoubleAuction.updatePrices((short)40, (short)58));
+
+        // Both ZK contracts take the same SecretOrderInput layout and shortnames for single orders.
+        long inputGas = sendSecretOrders(contract, sellOrders, buyOrders);
+        long holdGas = blockchain.sendAction(holder, contract, ZkDoubleAuction.holdDoubleAuction()).getGasCost();
+        var complexity = zkNodes.getComplexityOfLastComputation();
+        ZkDoubleAuction.ContractState state = ZkDoubleAuction.ContractState.deserialize(blockchain.getContractState(contract));
+
+        List<Trade> trades = new ArrayList<>();
+        for (ZkDoubleAuction.SingleTradeResult trade : state.matchedOrders()){
+            trades.add(new Trade(trade.buyerId(), trade.sellerId(), trade.quantity()));
+        }
+        int equilibriumPrice = zkEquilibriumPrice(sellOrders, buyOrders);
+        return ContractRun.of("zk-double-auction", inputGas, holdGas, complexity.multiplicationCount(), complexity.numberOfRounds(),
+            ZK_OPENED_BYTES, state.equilibriumPrice(), trades, equilibriumPrice, zkTrades(sellOrders, buyOrders, equilibriumPrice));
+    }
+
+    private ContractRun runOptimizedZkDoubleAuction(OrderBook sellOrders, OrderBook buyOrders) {
+        BlockchainAddress contract = blockchain.deployZkContract(holder, OPTIMIZED_ZK_DOUBLE_AUCTION_BYTES, OptimizedZkDoubleAuction.initialize());
+        blockchain.sendAction(holder, contract, OptimizedZkDoubleAuction.updatePrices((short)40, (short)58));
+
+        long inputGas = sendSecretOrders(contract, sellOrders, buyOrders);
+        long holdGas = blockchain.sendAction(holder, contract, OptimizedZkDoubleAuction.holdDoubleAuction()).getGasCost();
+        var complexity = zkNodes.getComplexityOfLastComputation();
+        OptimizedZkDoubleAuction.ContractState state =
+            OptimizedZkDoubleAuction.ContractState.deserialize(blockchain.getContractState(contract));
+        while (state.matching() != null){
+            holdGas += blockchain.sendAction(holder, contract, OptimizedZkDoubleAuction.continueMatching()).getGasCost();
+            state = OptimizedZkDoubleAuction.ContractState.deserialize(blockchain.getContractState(contract));
+        }
+
+        ReferenceClearingEngine engine = new ReferenceClearingEngine(Math.max(sellOrders.size(), buyOrders.size()), false);
+        engine.clear(sellOrders, buyOrders);
+        return ContractRun.of("optimized-zk-double-auction", inputGas, holdGas, complexity.multiplicationCount(), complexity.numberOfRounds(),
+            ComplexityTool.openedBytes(Math.max(sellOrders.size(), buyOrders.size())), state.marketClearingPriceIndex(),
+            TradeLogReader.of(state.matchedOrders()).toList(), engine.marketClearingPriceIndex(), trades(engine));
+    }
+
+    private long sendSecretOrders(BlockchainAddress contract, OrderBook sellOrders, OrderBook buyOrders) {
+        long gas = 0;
+        for (int i = 0; i < sellOrders.size(); i++){
+            gas += blockchain.sendSecretInput(contract, seller, SecretOrderInputs.encode(sellOrders, i), SecretOrderInputs.sellOrderRpc()).getGasCost();
+        }
+        for (int i = 0; i < buyOrders.size(); i++){
+            gas += blockchain.sendSecretInput(contract, buyer, SecretOrderInputs.encode(buyOrders, i), SecretOrderInputs.buyOrderRpc()).getGasCost();
+        }
+        return gas;
+    }
+
+    private static List<Trade> trades(ReferenceClearingEngine engine) {
+        List<Trade> trades = new ArrayList<>();
+        engine.forEachTrade((buyerId, sellerId, quantity) -> trades.add(new Trade(buyerId, sellerId, quantity)));
+        return trades;
+    }
+
+    /** Smallest price index where the supply exceeds the demand, or 0 if there is none, as in {@code zk-double-auction}. */
+    private static int zkEquilibriumPrice(OrderBook sellOrders, OrderBook buyOrders) {
+        for (int level = 0; level < OrderBook.PRICE_LEVELS; level++){
+            short supply = 0;
+            short demand = 0;
+            for (int order = 0; order < sellOrders.size(); order++){
+                supply = (short) (supply + sellOrders.quantity(order, level));
+            }
+            for (int order = 0; order < buyOrders.size(); order++){
+                demand = (short) (demand + buyOrders.quantity(order, level));
+            }
+            if (supply > demand){
+                return level;
+            }
+        }
+        return 0;
+    }
+
+    /** The trades of filling the buy orders from each sell order in turn, as {@code zk-double-auction} matches them. */
+    private static List<Trade> zkTrades(OrderBook sellOrders, OrderBook buyOrders, int level) {
+        int[] buyQuantities = new int[buyOrders.size()];
+        for (int order = 0; order < buyOrders.size(); order++){
+            buyQuantities[order] = buyOrders.quantity(order, level);
+        }
+        List<Trade> trades = new ArrayList<>();
+        for (int sellOrder = 0; sellOrder < sellOrders.size(); sellOrder++){
+            int sellQuantity = sellOrders.quantity(sellOrder, level);
+            for (int buyOrder = 0; buyOrder < buyOrders.size(); buyOrder++){
+                int traded = Math.min(sellQuantity, buyQuantities[buyOrder]);
+                sellQuantity -= traded;
+                buyQuantities[buyOrder] -= traded;
+                if (traded > 0){
+                    trades.add(new Trade(buyOrders.id(buyOrder), sellOrders.id(sellOrder), (short) traded));
+                }
+            }
+        }
+        return trades;
+    }
+
+    private static DoubleAuction.OrderInput orderInput(OrderBook book, int order) {
+        List<Short> quantities = new ArrayList<>();
+        for (int level = 0; level < book.priceLevels(); level++){
+            quantities.add(book.quantity(order, level));
+        }
+        return new DoubleAuction.OrderInput(book.id(order), quantities);
+    }
+
+    /** Cost and result of one contract on one market. The public contract runs no MPC and opens nothing. */
+    private record ContractRun(String contract, long inputGas, long holdGas, long multiplications, long rounds, int openedBytes,
+        int clearingIndex, int trades, int tradedQuantity, boolean matchesReference){
+
+        static ContractRun of(String contract, long inputGas, long holdGas, long multiplications, long rounds, int openedBytes,
+            Short clearingIndex, List<Trade> trades, int expectedClearingIndex, List<Trade> expectedTrades){
+            int tradedQuantity = 0;
+            for (Trade trade : trades){
+                tradedQuantity += trade.quantity();
+            }
+            boolean matchesReference = clearingIndex != null && clearingIndex == expectedClearingIndex && trades.equals(expectedTrades);
+            return new ContractRun(contract, inputGas, holdGas, multiplications, rounds, openedBytes,
+                clearingIndex == null ? -1 : clearingIndex, trades.size(), tradedQuantity, matchesReference);
+        }
+
+        long totalGas(){
+            return inputGas + holdGas;
+        }
+
+        String toCsv(){
+            return contract + "," + inputGas + "," + holdGas + "," + multiplications + "," + rounds + "," + openedBytes + ","
+                + clearingIndex + "," + trades + "," + tradedQuantity + "," + matchesReference;
+        }
+    }
+}
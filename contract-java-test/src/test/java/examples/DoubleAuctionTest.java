@@ -10,7 +10,11 @@ import com.partisiablockchain.language.junit.exceptions.ActionFailureException;
 import org.assertj.core.api.Assertions;
 
 import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Random;
 
 public final class DoubleAuctionTest extends JunitContractTest{
     private static final ContractBytes double_auction_BYTES = 
@@ -109,6 +113,7 @@ public final class DoubleAuctionTest extends JunitContractTest{
         Assertions.assertThat(state.matchedOrders().get(0)).isEqualTo(new DoubleAuction.Trade((short)5, (short)1, (short)3));
         Assertions.assertThat(state.matchedOrders().get(1)).isEqualTo(new DoubleAuction.Trade((short)6, (short)1, (short)2));
         Assertions.assertThat(state.matchedOrders().get(2)).isEqualTo(new DoubleAuction.Trade((short)6, (short)3, (short)18));
+        assertMatchesReferenceEngine(List.of(sell_order1, sell_order2, sell_order3), List.of(buy_order1, buy_order2, buy_order3), state);
     }
 
     @ContractTest(previous = "shouldSetPrices")
@@ -137,6 +142,7 @@ public final class DoubleAuctionTest extends JunitContractTest{
         Assertions.assertThat(state.marketClearingPriceIndex()).isEqualTo((short)3);
         Assertions.assertThat(state.matchedOrders().size()).isEqualTo((short)1);
         Assertions.assertThat(state.matchedOrders().get(0)).isEqualTo(new DoubleAuction.Trade((short)3, (short)1, (short)50));
+        assertMatchesReferenceEngine(List.of(sell_order1, sell_order2), List.of(buy_order1, buy_order2), state);
     }
 
     @ContractTest(previous = "shouldSetPrices")
@@ -169,6 +175,7 @@ public final class DoubleAuctionTest extends JunitContractTest{
         Assertions.assertThat(state.marketClearingPriceIndex()).isEqualTo((short)0);
         Assertions.assertThat(state.matchedOrders().size()).isEqualTo(1);
         Assertions.assertThat(state.matchedOrders().get(0)).isEqualTo(new DoubleAuction.Trade((short)4,(short)3,(short)5));
+        assertMatchesReferenceEngine(List.of(sell_order1, sell_order2, sell_order3), List.of(buy_order1, buy_order2, buy_order3), state);
     }
 
     @ContractTest(previous = "shouldSetPrices")
@@ -200,6 +207,7 @@ public final class DoubleAuctionTest extends JunitContractTest{
 
         Assertions.assertThat(state.marketClearingPriceIndex()).isEqualTo((short)1);
         Assertions.assertThat(state.matchedOrders().size()).isEqualTo((short)0);
+        assertMatchesReferenceEngine(List.of(sell_order1, sell_order2, sell_order3), List.of(buy_order1, buy_order2, buy_order3), state);
     }
 
     @ContractTest(previous = "shouldSetPrices")
@@ -325,6 +333,7 @@ public final class DoubleAuctionTest extends JunitContractTest{
         Assertions.assertThat(state.matchedOrders().size()).isEqualTo(2);
         Assertions.assertThat(state.matchedOrders().get(0)).isEqualTo(new DoubleAuction.Trade((short)3, (short)1, (short)6));
         Assertions.assertThat(state.matchedOrders().get(1)).isEqualTo(new DoubleAuction.Trade((short)4, (short)1, (short)2));
+        assertMatchesReferenceEngine(List.of(sell_order1, sell_order2), List.of(buy_order1, buy_order2, buy_order3, buy_order4), state);
     }
 
     @ContractTest(previous = "shouldSetPrices")
@@ -339,4 +348,291 @@ public final class DoubleAuctionTest extends JunitContractTest{
         .isInstanceOf(ActionFailureException.class)
         .hasMessageContaining("Only the auction holder can hold the auction!");
     }
+
+    @ContractTest(previous = "shouldSetPrices")
+    void shouldMatchAmendedOrder()
+    {
+        // Arrange
+        OrderInput sell_order1 = new OrderInput((short)1, List.of((short)0, (short)0, (short)50, (short)0, (short)0, (short)0));
+        OrderInput buy_order1 = new OrderInput((short)3, List.of((short)100, (short)0, (short)0, (short)0, (short)0, (short)0));
+        OrderInput amended_buy_order1 = new OrderInput((short)3, List.of((short)0, (short)0, (short)0, (short)100, (short)0, (short)0));
+
+        blockchain.sendAction(household1, double_auction_contract, DoubleAuction.inputSellOrder(sell_order1));
+        blockchain.sendAction(household3, double_auction_contract, DoubleAuction.inputBuyOrder(buy_order1));
+
+        // Act
+        blockchain.sendAction(household3, double_auction_contract, DoubleAuction.amendBuyOrder(amended_buy_order1));
+        blockchain.sendAction(household1, double_auction_contract, DoubleAuction.holdDoubleAuction());
+
+        // Assert
+        DoubleAuction.ContractState state =
+            DoubleAuction.ContractState.deserialize(blockchain.getContractState(double_auction_contract));
+
+        Assertions.assertThat(state.buyOrderInputs()).hasSize(1);
+        Assertions.assertThat(state.marketClearingPriceIndex()).isEqualTo((short)3);
+        Assertions.assertThat(state.matchedOrders()).containsExactly(new DoubleAuction.Trade((short)3, (short)1, (short)50));
+        assertMatchesReferenceEngine(List.of(sell_order1), List.of(amended_buy_order1), state);
+    }
+
+    @ContractTest(previous = "shouldSetPrices")
+    void shouldNotMatchCancelledOrder()
+    {
+        // Arrange
+        OrderInput sell_order1 = new OrderInput((short)1, List.of((short)0, (short)0, (short)50, (short)0, (short)0, (short)0));
+        OrderInput sell_order2 = new OrderInput((short)2, List.of((short)0, (short)0, (short)0, (short)0, (short)0, (short)500));
+        OrderInput buy_order1 = new OrderInput((short)3, List.of((short)0, (short)0, (short)0, (short)100, (short)0, (short)0));
+
+        blockchain.sendAction(household1, double_auction_contract, DoubleAuction.inputSellOrder(sell_order1));
+        blockchain.sendAction(household2, double_auction_contract, DoubleAuction.inputSellOrder(sell_order2));
+        blockchain.sendAction(household3, double_auction_contract, DoubleAuction.inputBuyOrder(buy_order1));
+
+        // Act
+        blockchain.sendAction(household2, double_auction_contract, DoubleAuction.cancelSellOrder((short)2));
+        blockchain.sendAction(household1, double_auction_contract, DoubleAuction.holdDoubleAuction());
+
+        // Assert
+        DoubleAuction.ContractState state =
+            DoubleAuction.ContractState.deserialize(blockchain.getContractState(double_auction_contract));
+
+        Assertions.assertThat(state.sellOrderInputs()).containsOnlyKeys((short)1);
+        Assertions.assertThat(state.totalSupply()).containsExactly((short)0, (short)0, (short)50, (short)50, (short)50, (short)50);
+        assertMatchesReferenceEngine(List.of(sell_order1), List.of(buy_order1), state);
+    }
+
+    @ContractTest(previous = "shouldSetPrices")
+    void shouldFailToAmendOrderPlacedByAnotherHousehold()
+    {
+        // Given
+        OrderInput buy_order1 = new OrderInput((short)3, List.of((short)100, (short)0, (short)0, (short)0, (short)0, (short)0));
+        blockchain.sendAction(household3, double_auction_contract, DoubleAuction.inputBuyOrder(buy_order1));
+
+        // When
+        byte[] amend = DoubleAuction.amendBuyOrder(new OrderInput((short)3, List.of((short)0, (short)0, (short)0, (short)0, (short)0, (short)0)));
+
+        // Then
+        Assertions.assertThatThrownBy(
+            () -> blockchain.sendAction(household4, double_auction_contract, amend))
+        .isInstanceOf(ActionFailureException.class)
+        .hasMessageContaining("Only the household that placed the order can change it!");
+    }
+
+    @ContractTest(previous = "shouldSetPrices")
+    void shouldFailToPlaceSecondOrderWithSameId()
+    {
+        // Given
+        OrderInput sell_order1 = new OrderInput((short)1, List.of((short)0, (short)0, (short)50, (short)0, (short)0, (short)0));
+        blockchain.sendAction(household1, double_auction_contract, DoubleAuction.inputSellOrder(sell_order1));
+
+        // When
+        byte[] input = DoubleAuction.inputSellOrder(sell_order1);
+
+        // Then
+        Assertions.assertThatThrownBy(
+            () -> blockchain.sendAction(household1, double_auction_contract, input))
+        .isInstanceOf(ActionFailureException.class)
+        .hasMessageContaining("A sell order with this id has already been placed!");
+    }
+
+    /**
+     * State size and gas under many amendments of the same orders. An amendment replaces the order in
+     * place, so the state keeps its size and amending an order costs the same however often it is done.
+     */
+    @ContractTest(previous = "shouldSetPrices")
+    void shouldKeepStateSizeUnderHeavyAmendTraffic()
+    {
+        // Arrange
+        int ordersPerSide = 20;
+        int amendments = 200;
+        Random rand = new Random(17);
+        List<OrderInput> sellOrders = new ArrayList<>();
+        List<OrderInput> buyOrders = new ArrayList<>();
+        for (int i = 0; i < ordersPerSide; i++) {
+            sellOrders.add(randomOrder(rand, 100 + i));
+            blockchain.sendAction(household2, double_auction_contract, DoubleAuction.inputSellOrder(sellOrders.get(i)));
+            buyOrders.add(randomOrder(rand, 200 + i));
+            blockchain.sendAction(household3, double_auction_contract, DoubleAuction.inputBuyOrder(buyOrders.get(i)));
+        }
+        int stateBytesBeforeAmendments = blockchain.getContractState(double_auction_contract).length;
+
+        // Act
+        Map<Integer, Long> firstAmendGas = new HashMap<>();
+        Map<Integer, Long> lastAmendGas = new HashMap<>();
+        for (int amendment = 0; amendment < amendments; amendment++) {
+            int order = rand.nextInt(ordersPerSide);
+            long gas;
+            if (amendment % 2 == 0) {
+                sellOrders.set(order, randomOrder(rand, 100 + order));
+                gas = blockchain.sendAction(household2, double_auction_contract, DoubleAuction.amendSellOrder(sellOrders.get(order))).getGasCost();
+            } else {
+                buyOrders.set(order, randomOrder(rand, 200 + order));
+                gas = blockchain.sendAction(household3, double_auction_contract, DoubleAuction.amendBuyOrder(buyOrders.get(order))).getGasCost();
+            }
+            int key = (amendment % 2 == 0 ? 100 : 200) + order;
+            firstAmendGas.putIfAbsent(key, gas);
+            lastAmendGas.put(key, gas);
+        }
+        int stateBytesAfterAmendments = blockchain.getContractState(double_auction_contract).length;
+        blockchain.sendAction(household1, double_auction_contract, DoubleAuction.holdDoubleAuction());
+
+        // Assert
+        DoubleAuction.ContractState state =
+            DoubleAuction.ContractState.deserialize(blockchain.getContractState(double_auction_contract));
+
+        Assertions.assertThat(stateBytesAfterAmendments).isEqualTo(stateBytesBeforeAmendments);
+        Assertions.assertThat(lastAmendGas).isEqualTo(firstAmendGas);
+        Assertions.assertThat(state.sellOrderInputs()).hasSize(ordersPerSide);
+        Assertions.assertThat(state.buyOrderInputs()).hasSize(ordersPerSide);
+        assertMatchesReferenceEngine(sellOrders, buyOrders, state);
+    }
+
+    /**
+     * The orders are aggregated into cumulative quantities and totals as they are received, so the
+     * totals are in the state before the hold, which only searches the clearing price and matches the
+     * orders.
+     */
+    @ContractTest(previous = "shouldSetPrices")
+    void shouldHoldLargeAuctionWithoutAggregatingOrders()
+    {
+        // Arrange
+        int ordersPerSide = 60;
+        Random rand = new Random(13);
+        List<OrderInput> sellOrders = new ArrayList<>();
+        List<OrderInput> buyOrders = new ArrayList<>();
+        int[] expectedSupply = new int[6];
+        int[] expectedDemand = new int[6];
+        for (int i = 0; i < ordersPerSide; i++) {
+            OrderInput sellOrder = randomOrder(rand, 100 + i);
+            blockchain.sendAction(household2, double_auction_contract, DoubleAuction.inputSellOrder(sellOrder));
+            sellOrders.add(sellOrder);
+            int supply = 0;
+            for (int level = 0; level < 6; level++) {
+                supply += sellOrder.quantityPerPrice().get(level);
+                expectedSupply[level] += supply;
+            }
+        }
+        for (int i = 0; i < ordersPerSide; i++) {
+            OrderInput buyOrder = randomOrder(rand, 200 + i);
+            blockchain.sendAction(household3, double_auction_contract, DoubleAuction.inputBuyOrder(buyOrder));
+            buyOrders.add(buyOrder);
+            int demand = 0;
+            for (int level = 5; level >= 0; level--) {
+                demand += buyOrder.quantityPerPrice().get(level);
+                expectedDemand[level] += demand;
+            }
+        }
+        DoubleAuction.ContractState inputState =
+            DoubleAuction.ContractState.deserialize(blockchain.getContractState(double_auction_contract));
+
+        // Act
+        blockchain.sendAction(household1, double_auction_contract, DoubleAuction.holdDoubleAuction());
+
+        // Assert
+        DoubleAuction.ContractState state =
+            DoubleAuction.ContractState.deserialize(blockchain.getContractState(double_auction_contract));
+
+        for (int level = 0; level < 6; level++) {
+            Assertions.assertThat(inputState.totalSupply().get(level)).isEqualTo((short)expectedSupply[level]);
+            Assertions.assertThat(inputState.totalDemand().get(level)).isEqualTo((short)expectedDemand[level]);
+        }
+        Assertions.assertThat(inputState.marketClearingPriceIndex()).isNull();
+        assertMatchesReferenceEngine(sellOrders, buyOrders, state);
+    }
+
+    /**
+     * Every step of the matching uses up at most one order of each side, so matching 200 orders per
+     * side takes more steps than fit in the hold, and the rest is matched by continuing it. Every order
+     * has a quantity at every price, so each step makes one trade and no transaction makes more than
+     * 128.
+     */
+    @ContractTest(previous = "shouldSetPrices")
+    void shouldMatchLargeAuctionOverSeveralTransactions()
+    {
+        // Arrange
+        int ordersPerSide = 200;
+        Random rand = new Random(17);
+        List<OrderInput> sellOrders = new ArrayList<>();
+        List<OrderInput> buyOrders = new ArrayList<>();
+        for (int i = 0; i < ordersPerSide; i++) {
+            OrderInput sellOrder = smallOrder(rand, 1000 + i);
+            blockchain.sendAction(household2, double_auction_contract, DoubleAuction.inputSellOrder(sellOrder));
+            sellOrders.add(sellOrder);
+        }
+        for (int i = 0; i < ordersPerSide; i++) {
+            OrderInput buyOrder = smallOrder(rand, 2000 + i);
+            blockchain.sendAction(household3, double_auction_contract, DoubleAuction.inputBuyOrder(buyOrder));
+            buyOrders.add(buyOrder);
+        }
+
+        // Act
+        blockchain.sendAction(household1, double_auction_contract, DoubleAuction.holdDoubleAuction());
+        DoubleAuction.ContractState heldState =
+            DoubleAuction.ContractState.deserialize(blockchain.getContractState(double_auction_contract));
+
+        List<Integer> tradesPerTransaction = new ArrayList<>();
+        tradesPerTransaction.add(heldState.matchedOrders().size());
+        DoubleAuction.ContractState state = heldState;
+        while (state.matching() != null) {
+            int tradesBefore = state.matchedOrders().size();
+            blockchain.sendAction(household4, double_auction_contract, DoubleAuction.continueMatching());
+            state = DoubleAuction.ContractState.deserialize(blockchain.getContractState(double_auction_contract));
+            tradesPerTransaction.add(state.matchedOrders().size() - tradesBefore);
+        }
+
+        // Assert
+        Assertions.assertThat(heldState.matching()).isNotNull();
+        Assertions.assertThat(tradesPerTransaction).hasSizeGreaterThan(1);
+        Assertions.assertThat(tradesPerTransaction.subList(0, tradesPerTransaction.size() - 1)).containsOnly(128);
+        Assertions.assertThat(tradesPerTransaction.get(tradesPerTransaction.size() - 1)).isBetween(1, 128);
+        assertMatchesReferenceEngine(sellOrders, buyOrders, state);
+    }
+
+    @ContractTest(previous = "shouldSetPrices")
+    void shouldFailToContinueMatchingWithoutMatching()
+    {
+        // Arrange
+        byte[] continueMatching = DoubleAuction.continueMatching();
+
+        // Act & Assert
+        Assertions.assertThatThrownBy(
+            () -> blockchain.sendAction(household2, double_auction_contract, continueMatching))
+        .isInstanceOf(ActionFailureException.class)
+        .hasMessageContaining("No matching is in progress!");
+    }
+
+    private static OrderInput randomOrder(Random rand, int id) {
+        List<Short> quantities = new ArrayList<>();
+        for (int i = 0; i < 6; i++) {
+            quantities.add((short)rand.nextInt(51));
+        }
+        return new OrderInput((short)id, quantities);
+    }
+
+    /** Order with quantities small enough that the totals of 200 orders per side do not overflow. */
+    private static OrderInput smallOrder(Random rand, int id) {
+        List<Short> quantities = new ArrayList<>();
+        for (int i = 0; i < 6; i++) {
+            quantities.add((short)(1 + rand.nextInt(5)));
+        }
+        return new OrderInput((short)id, quantities);
+    }
+
+    private static void assertMatchesReferenceEngine(List<OrderInput> sellOrders, List<OrderInput> buyOrders, DoubleAuction.ContractState state) {
+        ReferenceClearingEngine engine = new ReferenceClearingEngine(Math.max(sellOrders.size(), buyOrders.size()), true);
+        engine.clear(orderBook(sellOrders), orderBook(buyOrders));
+
+        List<DoubleAuction.Trade> expected = new ArrayList<>();
+        engine.forEachTrade((buyerId, sellerId, quantity) -> expected.add(new DoubleAuction.Trade(buyerId, sellerId, quantity)));
+
+        Assertions.assertThat(state.marketClearingPriceIndex()).isEqualTo((short)engine.marketClearingPriceIndex());
+        Assertions.assertThat(state.matchedOrders()).containsExactlyElementsOf(expected);
+    }
+
+    private static OrderBook orderBook(List<OrderInput> orders) {
+        OrderBook book = new OrderBook(orders.size());
+        for (OrderInput order : orders) {
+            List<Short> quantities = order.quantityPerPrice();
+            book.add(order.id(), quantities.get(0), quantities.get(1), quantities.get(2), quantities.get(3), quantities.get(4), quantities.get(5));
+        }
+        return book;
+    }
 }
\ No newline at end of file
@@ -0,0 +1,253 @@
+package examples;
+
+import com.partisiablockchain.BlockchainAddress;
+import com.partisiablockchain.language.abicodegen.DoubleAuction;
+import com.partisiablockchain.language.abicodegen.OptimizedZkDoubleAuction;
+import com.partisiablockchain.language.abicodegen.ZkDoubleAuction;
+import com.partisiablockchain.language.junit.ContractBytes;
+import com.partisiablockchain.language.junit.ContractTest;
+import com.partisiablockchain.language.junit.JunitContractTest;
+import com.partisiablockchain.language.junit.TxExecution;
+import org.assertj.core.api.Assertions;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Replays a seeded {@link OrderStream} against each of the three auction contracts on the in-memory
+ * blockchain, in place of the testnet scripts, and reports the wall-clock time, gas and MPC
+ * complexity of every phase to {@code target/load}. The stream is configured through the
+ * {@code load.*} system properties, e.g.
+ * {@code mvn test -Dtest=LoadDriverTool -Dload.orders=60 -Dload.pattern=RANDOM -Dload.seed=7}.
+ * With {@code load.slot}, the orders are drawn from {@link ProsumerOrders} for that market of the day.
+ */
+public final class LoadDriverTool extends JunitContractTest{
+
+    private static final int LOAD_ORDERS = Integer.getInteger("load.orders", 40);
+    private static final int LOAD_LARGEST_ORDER = Integer.getInteger("load.largestOrder", 50);
+    private static final long LOAD_SEED = Long.getLong("load.seed", 1L);
+    private static final OrderStream.ArrivalPattern LOAD_PATTERN =
+        OrderStream.ArrivalPattern.valueOf(System.getProperty("load.pattern", "SELLERS_FIRST"));
+    /** Market of the day to draw {@link ProsumerOrders} for, or -1 for the uniform quantities of {@link OrderStream#generate}. */
+    private static final int LOAD_SLOT = Integer.getInteger("load.slot", -1);
+    private static final Path LOAD_OUTPUT_DIRECTORY = Path.of(System.getProperty("load.output", "target/load"));
+
+    /** The zk-double-auction computation has room for 256 orders, sell and buy orders together. */
+    private static final int ZK_CAPACITY = 256;
+    private static final int OPTIMIZED_CAPACITY = 128;
+
+    private static final String CSV_HEADER = "contract,pattern,seed,sell_orders,buy_orders,phase,transactions,wall_clock_ms,gas,multiplications,rounds";
+
+    private static final ContractBytes DOUBLE_AUCTION_BYTES =
+          ContractBytes.fromPbcFile(
+          Path.of("../rust/target/wasm32-unknown-unknown/release/double_auction.pbc"),
+          Path.of("../rust/target/wasm32-unknown-unknown/release/double_auction_runner"));
+    private static final ContractBytes ZK_DOUBLE_AUCTION_BYTES =
+          ContractBytes.fromPaths(
+          Path.of("../rust/target/wasm32-unknown-unknown/release/zk_double_auction.zkwa"),
+          Path.of("../rust/target/wasm32-unknown-unknown/release/zk_double_auction.abi"),
+          Path.of("../rust/target/wasm32-unknown-unknown/release/zk_double_auction_runner"));
+    private static final ContractBytes OPTIMIZED_ZK_DOUBLE_AUCTION_BYTES =
+          ContractBytes.fromPaths(
+          Path.of("../rust/target/wasm32-unknown-unknown/release/optimized_zk_double_auction.zkwa"),
+          Path.of("../rust/target/wasm32-unknown-unknown/release/optimized_zk_double_auction.abi"),
+          Path.of("../rust/target/wasm32-unknown-unknown/release/optimized_zk_double_auction_runner"));
+
+    @ContractTest
+    void loadDoubleAuction() {
+        OrderStream stream = orderStream(LOAD_ORDERS, LOAD_ORDERS);
+        BlockchainAddress holder = blockchain.newAccount(1);
+        List<BlockchainAddress> households = newHouseholds(stream);
+        List<PhaseResult> phases = new ArrayList<>();
+
+        long start = System.nanoTime();
+        BlockchainAddress contract = blockchain.deployContract(holder, DOUBLE_AUCTION_BYTES, DoubleAuction.initialize());
+        phases.add(PhaseResult.since("deploy", 1, start, 0));
+
+        start = System.nanoTime();
+        long gas = blockchain.sendAction(holder, contract, DoubleAuction.updatePrices((short)0, (short)100)).getGasCost();
+        phases.add(PhaseResult.since("update_prices", 1, start, gas));
+
+        start = System.nanoTime();
+        gas = 0;
+        for (OrderStream.Arrival arrival : stream.arrivals()){
+            OrderBook book = arrival.selling() ? stream.sellOrders() : stream.buyOrders();
+            DoubleAuction.OrderInput order = orderInput(book, arrival.order());
+            byte[] rpc = arrival.selling() ? DoubleAuction.inputSellOrder(order) : DoubleAuction.inputBuyOrder(order);
+            gas += blockchain.sendAction(households.get(book.id(arrival.order())), contract, rpc).getGasCost();
+        }
+        phases.add(PhaseResult.since("orders", stream.arrivals().size(), start, gas));
+
+        start = System.nanoTime();
+        gas = blockchain.sendAction(holder, contract, DoubleAuction.holdDoubleAuction()).getGasCost();
+        phases.add(PhaseResult.since("hold", 1, start, gas));
+
+        start = System.nanoTime();
+        gas = 0;
+        int continuations = 0;
+        DoubleAuction.ContractState state = DoubleAuction.ContractState.deserialize(blockchain.getContractState(contract));
+        while (state.matching() != null){
+            gas += blockchain.sendAction(holder, contract, DoubleAuction.continueMatching()).getGasCost();
+            continuations++;
+            state = DoubleAuction.ContractState.deserialize(blockchain.getContractState(contract));
+        }
+        phases.add(PhaseResult.since("continue_matching", continuations, start, gas));
+
+        Assertions.assertThat(state.marketClearingPriceIndex()).isEqualTo((short)referenceClearingPriceIndex(stream, true));
+        report("double-auction", stream, phases);
+    }
+
+    @ContractTest
+    void loadZkDoubleAuction() {
+        int sellOrders = Math.min(LOAD_ORDERS, ZK_CAPACITY / 2);
+        int buyOrders = Math.min(LOAD_ORDERS, ZK_CAPACITY / 2);
+        OrderStream stream = orderStream(sellOrders, buyOrders);
+        BlockchainAddress holder = blockchain.newAccount(1);
+        List<BlockchainAddress> households = newHouseholds(stream);
+        List<PhaseResult> phases = new ArrayList<>();
+
+        long start = System.nanoTime();
+        BlockchainAddress contract = blockchain.deployZkContract(holder, ZK_DOUBLE_AUCTION_BYTES, ZkDoubleAuction.initialize());
+        phases.add(PhaseResult.since("deploy", 1, start, 0));
+
+        start = System.nanoTime();
+        long gas = blockchain.sendAction(holder, contract, ZkDoubleAuction.updatePrices((short)0, (short)100)).getGasCost();
+        phases.add(PhaseResult.since("update_prices", 1, start, gas));
+
+        // Both ZK contracts take the same SecretOrderInput layout and shortnames for single orders.
+        phases.add(sendSecretOrders(stream, households, contract));
+
+        start = System.nanoTime();
+        gas = blockchain.sendAction(holder, contract, ZkDoubleAuction.holdDoubleAuction()).getGasCost();
+        phases.add(PhaseResult.since("hold", 1, start, gas).withComplexity(
+            zkNodes.getComplexityOfLastComputation().multiplicationCount(),
+            zkNodes.getComplexityOfLastComputation().numberOfRounds()));
+
+        ZkDoubleAuction.ContractState state = ZkDoubleAuction.ContractState.deserialize(blockchain.getContractState(contract));
+        Assertions.assertThat(state.equilibriumPrice()).isNotNull();
+        report("zk-double-auction", stream, phases);
+    }
+
+    @ContractTest
+    void loadOptimizedZkDoubleAuction() {
+        int orders = Math.min(LOAD_ORDERS, OPTIMIZED_CAPACITY);
+        OrderStream stream = orderStream(orders, orders);
+        BlockchainAddress holder = blockchain.newAccount(1);
+        List<BlockchainAddress> households = newHouseholds(stream);
+        List<PhaseResult> phases = new ArrayList<>();
+
+        long start = System.nanoTime();
+        BlockchainAddress contract = blockchain.deployZkContract(holder, OPTIMIZED_ZK_DOUBLE_AUCTION_BYTES, OptimizedZkDoubleAuction.initialize());
+        phases.add(PhaseResult.since("deploy", 1, start, 0));
+
+        start = System.nanoTime();
+        long gas = blockchain.sendAction(holder, contract, OptimizedZkDoubleAuction.updatePrices((short)0, (short)100)).getGasCost();
+        phases.add(PhaseResult.since("update_prices", 1, start, gas));
+
+        phases.add(sendSecretOrders(stream, households, contract));
+
+        start = System.nanoTime();
+        TxExecution hold = blockchain.sendAction(holder, contract, OptimizedZkDoubleAuction.holdDoubleAuction());
+        phases.add(PhaseResult.since("hold", 1, start, hold.getGasCost()).withComplexity(
+            zkNodes.getComplexityOfLastComputation().multiplicationCount(),
+            zkNodes.getComplexityOfLastComputation().numberOfRounds()));
+
+        start = System.nanoTime();
+        gas = 0;
+        int continuations = 0;
+        OptimizedZkDoubleAuction.ContractState state =
+            OptimizedZkDoubleAuction.ContractState.deserialize(blockchain.getContractState(contract));
+        while (state.matching() != null){
+            gas += blockchain.sendAction(holder, contract, OptimizedZkDoubleAuction.continueMatching()).getGasCost();
+            continuations++;
+            state = OptimizedZkDoubleAuction.ContractState.deserialize(blockchain.getContractState(contract));
+        }
+        phases.add(PhaseResult.since("continue_matching", continuations, start, gas));
+
+        Assertions.assertThat(state.marketClearingPriceIndex()).isEqualTo((short)referenceClearingPriceIndex(stream, false));
+        report("optimized-zk-double-auction", stream, phases);
+    }
+
+    private PhaseResult sendSecretOrders(OrderStream stream, List<BlockchainAddress> households, BlockchainAddress contract) {
+        long start = System.nanoTime();
+        long gas = 0;
+        for (OrderStream.Arrival arrival : stream.arrivals()){
+            OrderBook book = arrival.selling() ? stream.sellOrders() : stream.buyOrders();
+            byte[] rpc = arrival.selling() ? SecretOrderInputs.sellOrderRpc() : SecretOrderInputs.buyOrderRpc();
+            gas += blockchain.sendSecretInput(contract, households.get(book.id(arrival.order())), SecretOrderInputs.encode(book, arrival.order()), rpc).getGasCost();
+        }
+        return PhaseResult.since("orders", stream.arrivals().size(), start, gas);
+    }
+
+    private static OrderStream orderStream(int sellOrders, int buyOrders) {
+        return LOAD_SLOT < 0
+            ? OrderStream.generate(LOAD_SEED, sellOrders, buyOrders, LOAD_LARGEST_ORDER, LOAD_PATTERN)
+            : OrderStream.fromProsumers(LOAD_SEED, sellOrders, buyOrders, LOAD_SLOT, LOAD_LARGEST_ORDER, LOAD_PATTERN);
+    }
+
+    /** One account per order id, so households.get(id) placed order {@code id}. */
+    private List<BlockchainAddress> newHouseholds(OrderStream stream) {
+        List<BlockchainAddress> households = new ArrayList<>();
+        for (int i = 0; i < stream.sellOrders().size() + stream.buyOrders().size(); i++){
+            households.add(blockchain.newAccount(i + 2));
+        }
+        return households;
+    }
+
+    private static int referenceClearingPriceIndex(OrderStream stream, boolean aggregateOrders) {
+        ReferenceClearingEngine engine = new ReferenceClearingEngine(
+            Math.max(stream.sellOrders().size(), stream.buyOrders().size()), aggregateOrders);
+        engine.clear(stream.sellOrders(), stream.buyOrders());
+        return engine.marketClearingPriceIndex();
+    }
+
+    private static DoubleAuction.OrderInput orderInput(OrderBook book, int order) {
+        List<Short> quantities = new ArrayList<>();
+        for (int level = 0; level < book.priceLevels(); level++){
+            quantities.add(book.quantity(order, level));
+        }
+        return new DoubleAuction.OrderInput(book.id(order), quantities);
+    }
+
+    private static void report(String contract, OrderStream stream, List<PhaseResult> phases) {
+        List<String> lines = new ArrayList<>();
+        lines.add(CSV_HEADER);
+        for (PhaseResult phase : phases){
+            String line = contract + "," + LOAD_PATTERN + "," + LOAD_SEED + "," + stream.sellOrders().size() + ","
+                + stream.buyOrders().size() + "," + phase.toCsv();
+            System.out.println(line);
+            lines.add(line);
+        }
+
+        Path output = LOAD_OUTPUT_DIRECTORY.resolve("load-" + contract + ".csv");
+        try {
+            Files.createDirectories(output.getParent());
+            Files.write(output, lines);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        System.out.println("load report written to " + output.toAbsolutePath());
+    }
+
+    /** Cost of one phase of the replay. Contracts without MPC report no multiplications or rounds. */
+    private record PhaseResult(String phase, int transactions, double wallClockMillis, long gas, long multiplications, long rounds){
+
+        static PhaseResult since(String phase, int transactions, long startNanos, long gas){
+            return new PhaseResult(phase, transactions, (System.nanoTime() - startNanos) / 1e6, gas, 0, 0);
+        }
+
+        PhaseResult withComplexity(long multiplications, long rounds){
+            return new PhaseResult(phase, transactions, wallClockMillis, gas, multiplications, rounds);
+        }
+
+        String toCsv(){
+            return phase + "," + transactions + "," + String.format(Locale.ROOT, "%.3f", wallClockMillis) + ","
+                + gas + "," + multiplications + "," + rounds;
+        }
+    }
+}
@@ -2,17 +2,20 @@ package examples;
 
 import com.partisiablockchain.BlockchainAddress;
 import com.partisiablockchain.language.abicodegen.OptimizedZkDoubleAuction;
-import com.partisiablockchain.language.abicodegen.OptimizedZkDoubleAuction.Trade;
 import com.partisiablockchain.language.junit.ContractBytes;
 import com.partisiablockchain.language.junit.ContractTest;
 import com.partisiablockchain.language.junit.JunitContractTest;
 import com.partisiablockchain.language.junit.exceptions.ActionFailureException;
+import com.partisiablockchain.language.testenvironment.zk.node.task.PendingInputId;
 import com.secata.stream.CompactBitArray;
 import com.secata.stream.BitOutput;
+import examples.TradeLogReader.Trade;
 import org.assertj.core.api.Assertions;
 
 import java.nio.file.Path;
+import java.util.ArrayList;
 import java.util.List;
+import java.util.Random;
 
 public final class OptimizedZkDoubleAuctionTest extends JunitContractTest{
     private static final ContractBytes ZK_DOUBLE_AUCTION_BYTES = 
@@ -50,7 +53,7 @@ public final class OptimizedZkDoubleAuctionTest extends JunitContractTest{
 
         Assertions.assertThat(state).isNotNull();
         Assertions.assertThat(state.marketClearingPriceIndex()).isNull();
-        Assertions.assertThat(state.matchedOrders()).isEmpty();
+        Assertions.assertThat(matchedOrders(state)).isEmpty();
         Assertions.assertThat(state.prices().size()).isEqualTo(6);
         Assertions.assertThat(state.prices().get(0)).isEqualTo((short)0);
     }
@@ -106,10 +109,11 @@ public final class OptimizedZkDoubleAuctionTest extends JunitContractTest{
             OptimizedZkDoubleAuction.ContractState.deserialize(blockchain.getContractState(double_auction_contract));
 
         Assertions.assertThat(state.marketClearingPriceIndex()).isEqualTo((short)2);
-        Assertions.assertThat(state.matchedOrders().size()).isEqualTo((short)3);
-        Assertions.assertThat(state.matchedOrders().get(0)).isEqualTo(new OptimizedZkDoubleAuction.Trade((short)5, (short)1, (short)3));
-        Assertions.assertThat(state.matchedOrders().get(1)).isEqualTo(new OptimizedZkDoubleAuction.Trade((short)6, (short)1, (short)2));
-        Assertions.assertThat(state.matchedOrders().get(2)).isEqualTo(new OptimizedZkDoubleAuction.Trade((short)6, (short)3, (short)6));
+        Assertions.assertThat(state.matchedOrders().tradeCount()).isEqualTo((short)3);
+        Assertions.assertThat(matchedOrders(state).get(0)).isEqualTo(new Trade((short)5, (short)1, (short)3));
+        Assertions.assertThat(matchedOrders(state).get(1)).isEqualTo(new Trade((short)6, (short)1, (short)2));
+        Assertions.assertThat(matchedOrders(state).get(2)).isEqualTo(new Trade((short)6, (short)3, (short)6));
+        assertMatchesReferenceEngine(List.of(sell_order1, sell_order2, sell_order3), List.of(buy_order1, buy_order2, buy_order3), state);
     }
 
     @ContractTest(previous = "shouldSetPrices")
@@ -136,7 +140,8 @@ public final class OptimizedZkDoubleAuctionTest extends JunitContractTest{
             OptimizedZkDoubleAuction.ContractState.deserialize(blockchain.getContractState(double_auction_contract));
 
         Assertions.assertThat(state.marketClearingPriceIndex()).isEqualTo((short)4);
-        Assertions.assertThat(state.matchedOrders().size()).isEqualTo((short)0);
+        Assertions.assertThat(state.matchedOrders().tradeCount()).isEqualTo((short)0);
+        assertMatchesReferenceEngine(List.of(sell_order1, sell_order2), List.of(buy_order1, buy_order2), state);
     }
 
     @ContractTest(previous = "shouldSetPrices")
@@ -167,8 +172,9 @@ public final class OptimizedZkDoubleAuctionTest extends JunitContractTest{
             OptimizedZkDoubleAuction.ContractState.deserialize(blockchain.getContractState(double_auction_contract));
 
         Assertions.assertThat(state.marketClearingPriceIndex()).isEqualTo((short)0);
-        Assertions.assertThat(state.matchedOrders().size()).isEqualTo(1);
-        Assertions.assertThat(state.matchedOrders().get(0)).isEqualTo(new OptimizedZkDoubleAuction.Trade((short)4, (short)3, (short)5));
+        Assertions.assertThat(state.matchedOrders().tradeCount()).isEqualTo(1);
+        Assertions.assertThat(matchedOrders(state).get(0)).isEqualTo(new Trade((short)4, (short)3, (short)5));
+        assertMatchesReferenceEngine(List.of(sell_order1, sell_order2, sell_order3), List.of(buy_order1, buy_order2, buy_order3), state);
     }
 
     @ContractTest(previous = "shouldSetPrices")
@@ -199,7 +205,8 @@ public final class OptimizedZkDoubleAuctionTest extends JunitContractTest{
             OptimizedZkDoubleAuction.ContractState.deserialize(blockchain.getContractState(double_auction_contract));
 
         Assertions.assertThat(state.marketClearingPriceIndex()).isEqualTo((short)1);
-        Assertions.assertThat(state.matchedOrders().size()).isEqualTo((short)0);
+        Assertions.assertThat(state.matchedOrders().tradeCount()).isEqualTo((short)0);
+        assertMatchesReferenceEngine(List.of(sell_order1, sell_order2, sell_order3), List.of(buy_order1, buy_order2, buy_order3), state);
     }
 
     @ContractTest(previous = "shouldSetPrices")
@@ -253,7 +260,7 @@ public final class OptimizedZkDoubleAuctionTest extends JunitContractTest{
             OptimizedZkDoubleAuction.ContractState.deserialize(blockchain.getContractState(double_auction_contract));
 
         Assertions.assertThat(state.marketClearingPriceIndex()).isNull();
-        Assertions.assertThat(state.matchedOrders()).isEmpty();
+        Assertions.assertThat(matchedOrders(state)).isEmpty();
         Assertions.assertThat(state.prices().size()).isEqualTo(6);
         Assertions.assertThat(state.prices().get(0)).isEqualTo((short)0);
     }
@@ -322,9 +329,650 @@ public final class OptimizedZkDoubleAuctionTest extends JunitContractTest{
             OptimizedZkDoubleAuction.ContractState.deserialize(blockchain.getContractState(double_auction_contract));
 
         Assertions.assertThat(state.marketClearingPriceIndex()).isEqualTo((short)3);
-        Assertions.assertThat(state.matchedOrders().size()).isEqualTo(2);
-        Assertions.assertThat(state.matchedOrders().get(0)).isEqualTo(new Trade((short)3, (short)1, (short)4));
-        Assertions.assertThat(state.matchedOrders().get(1)).isEqualTo(new Trade((short)4, (short)1, (short)2));
+        Assertions.assertThat(state.matchedOrders().tradeCount()).isEqualTo(2);
+        Assertions.assertThat(matchedOrders(state).get(0)).isEqualTo(new Trade((short)3, (short)1, (short)4));
+        Assertions.assertThat(matchedOrders(state).get(1)).isEqualTo(new Trade((short)4, (short)1, (short)2));
+        assertMatchesReferenceEngine(List.of(sell_order1, sell_order2), List.of(buy_order1, buy_order2, buy_order3, buy_order4), state);
+    }
+
+    @ContractTest(previous = "shouldSetPrices")
+    void shouldClearAuctionLargerThanSmallestCapacityTier(){
+        // Arrange
+        List<Order> sell_orders = new ArrayList<>();
+        List<Order> buy_orders = new ArrayList<>();
+        for (int i = 0; i < 10; i++){
+            sell_orders.add(new Order(i + 1, List.of(0, i % 3, 2, 4, 6 + i, 8 + i)));
+            buy_orders.add(new Order(i + 11, List.of(9 + i, 7, 5, 3 + i % 2, 1, 0)));
+        }
+        for (Order sell_order : sell_orders){
+            blockchain.sendSecretInput(double_auction_contract, household1, createSecretInput(sell_order), secretInputSellingRpc());
+        }
+        for (Order buy_order : buy_orders){
+            blockchain.sendSecretInput(double_auction_contract, household2, createSecretInput(buy_order), secretInputBuyingRpc());
+        }
+
+        byte[] holdDoubleAuction = OptimizedZkDoubleAuction.holdDoubleAuction();
+
+        // Act
+        blockchain.sendAction(household1, double_auction_contract, holdDoubleAuction);
+
+        // Assert
+        OptimizedZkDoubleAuction.ContractState state = 
+            OptimizedZkDoubleAuction.ContractState.deserialize(blockchain.getContractState(double_auction_contract));
+
+        Assertions.assertThat(matchedOrders(state)).isNotEmpty();
+        assertMatchesReferenceEngine(sell_orders, buy_orders, state);
+    }
+
+    @ContractTest(previous = "shouldSetPrices")
+    void shouldClearBatchedOrdersLikeSingleOrders(){
+        // Arrange
+        OrderBook sell_orders = new OrderBook(10);
+        OrderBook buy_orders = new OrderBook(10);
+        for (int i = 0; i < 10; i++){
+            sell_orders.add(i + 1, 0, i % 3, 2, 4, 6 + i, 8 + i);
+            buy_orders.add(i + 11, 9 + i, 7, 5, 3 + i % 2, 1, 0);
+        }
+
+        blockchain.sendSecretInput(double_auction_contract, household1, SecretOrderInputs.encodeBatch(sell_orders, 0, 8), SecretOrderInputs.sellOrderBatchRpc());
+        blockchain.sendSecretInput(double_auction_contract, household1, SecretOrderInputs.encodeBatch(sell_orders, 8, 2), SecretOrderInputs.sellOrderBatchRpc());
+        blockchain.sendSecretInput(double_auction_contract, household2, SecretOrderInputs.encodeBatch(buy_orders, 0, 8), SecretOrderInputs.buyOrderBatchRpc());
+        blockchain.sendSecretInput(double_auction_contract, household3, SecretOrderInputs.encode(buy_orders, 8), SecretOrderInputs.buyOrderRpc());
+        blockchain.sendSecretInput(double_auction_contract, household4, SecretOrderInputs.encode(buy_orders, 9), SecretOrderInputs.buyOrderRpc());
+
+        byte[] holdDoubleAuction = OptimizedZkDoubleAuction.holdDoubleAuction();
+
+        // Act
+        blockchain.sendAction(household1, double_auction_contract, holdDoubleAuction);
+
+        // Assert
+        OptimizedZkDoubleAuction.ContractState state = 
+            OptimizedZkDoubleAuction.ContractState.deserialize(blockchain.getContractState(double_auction_contract));
+
+        ReferenceClearingEngine engine = new ReferenceClearingEngine(10, false);
+        engine.clear(sell_orders, buy_orders);
+        List<Trade> expected = new ArrayList<>();
+        engine.forEachTrade((buyerId, sellerId, quantity) -> expected.add(new Trade(buyerId, sellerId, quantity)));
+
+        Assertions.assertThat(state.marketClearingPriceIndex()).isEqualTo((short)engine.marketClearingPriceIndex());
+        Assertions.assertThat(matchedOrders(state)).containsExactlyElementsOf(expected);
+    }
+
+    @ContractTest(previous = "shouldSetPrices")
+    void shouldClearAuctionWithTreeAggregation(){
+        // Arrange
+        OrderBook sell_orders = new OrderBook(11);
+        OrderBook buy_orders = new OrderBook(11);
+        for (int i = 0; i < 11; i++){
+            sell_orders.add(i + 1, 0, i % 3, 2, 4, 6 + i, 8 + i);
+            buy_orders.add(i + 12, 9 + i, 7, 5, 3 + i % 2, 1, 0);
+            blockchain.sendSecretInput(double_auction_contract, household1, SecretOrderInputs.encode(sell_orders, i), SecretOrderInputs.sellOrderRpc());
+            blockchain.sendSecretInput(double_auction_contract, household2, SecretOrderInputs.encode(buy_orders, i), SecretOrderInputs.buyOrderRpc());
+        }
+        blockchain.sendAction(household1, double_auction_contract,
+            OptimizedZkDoubleAuction.updateComputeOptions(new OptimizedZkDoubleAuction.ComputeOptions(true, false, false, false, false)));
+
+        byte[] holdDoubleAuction = OptimizedZkDoubleAuction.holdDoubleAuction();
+
+        // Act
+        blockchain.sendAction(household1, double_auction_contract, holdDoubleAuction);
+
+        // Assert
+        OptimizedZkDoubleAuction.ContractState state = 
+            OptimizedZkDoubleAuction.ContractState.deserialize(blockchain.getContractState(double_auction_contract));
+
+        ReferenceClearingEngine engine = new ReferenceClearingEngine(11, false);
+        engine.clear(sell_orders, buy_orders);
+        List<Trade> expected = new ArrayList<>();
+        engine.forEachTrade((buyerId, sellerId, quantity) -> expected.add(new Trade(buyerId, sellerId, quantity)));
+
+        Assertions.assertThat(state.computeOptions().treeAggregation()).isTrue();
+        Assertions.assertThat(state.marketClearingPriceIndex()).isEqualTo((short)engine.marketClearingPriceIndex());
+        Assertions.assertThat(matchedOrders(state)).containsExactlyElementsOf(expected);
+    }
+
+    @ContractTest(previous = "shouldSetPrices")
+    void shouldClearAuctionWithCompactedOutputs(){
+        // Arrange
+        blockchain.sendAction(household1, double_auction_contract,
+            OptimizedZkDoubleAuction.updateComputeOptions(new OptimizedZkDoubleAuction.ComputeOptions(false, false, false, true, false)));
+
+        OrderBook sell_orders = new OrderBook(20);
+        OrderBook buy_orders = new OrderBook(20);
+        for (int i = 0; i < 20; i++){
+            sell_orders.add(i + 1, 0, 0, i % 2 == 0 ? 0 : 4, 4 + i % 3, 6 + i, 8 + i);
+            buy_orders.add(i + 21, 9 + i, 7, i % 3 == 0 ? 0 : 5, 3, 1, 0);
+            blockchain.sendSecretInput(double_auction_contract, household1, SecretOrderInputs.encode(sell_orders, i), SecretOrderInputs.sellOrderRpc());
+            blockchain.sendSecretInput(double_auction_contract, household2, SecretOrderInputs.encode(buy_orders, i), SecretOrderInputs.buyOrderRpc());
+        }
+
+        byte[] holdDoubleAuction = OptimizedZkDoubleAuction.holdDoubleAuction();
+
+        // Act
+        blockchain.sendAction(household1, double_auction_contract, holdDoubleAuction);
+
+        // Assert
+        OptimizedZkDoubleAuction.ContractState state = 
+            OptimizedZkDoubleAuction.ContractState.deserialize(blockchain.getContractState(double_auction_contract));
+
+        ReferenceClearingEngine engine = new ReferenceClearingEngine(20, false);
+        engine.clear(sell_orders, buy_orders);
+        List<Trade> expected = new ArrayList<>();
+        engine.forEachTrade((buyerId, sellerId, quantity) -> expected.add(new Trade(buyerId, sellerId, quantity)));
+
+        Assertions.assertThat(state.computeOptions().compactOutputs()).isTrue();
+        Assertions.assertThat(state.compactedClearing()).isNull();
+        Assertions.assertThat(state.clearingRound()).isNull();
+        Assertions.assertThat(state.marketClearingPriceIndex()).isEqualTo((short)engine.marketClearingPriceIndex());
+        Assertions.assertThat(matchedOrders(state)).containsExactlyElementsOf(expected);
+    }
+
+    @ContractTest(previous = "shouldSetPrices")
+    void shouldClearCompactedAuctionWithoutTradingOrders(){
+        // Arrange
+        blockchain.sendAction(household1, double_auction_contract,
+            OptimizedZkDoubleAuction.updateComputeOptions(new OptimizedZkDoubleAuction.ComputeOptions(false, false, false, true, false)));
+
+        OrderBook sell_orders = new OrderBook(1);
+        OrderBook buy_orders = new OrderBook(1);
+        sell_orders.add(1, 0, 0, 0, 0, 0, 0);
+        buy_orders.add(2, 5, 5, 5, 5, 5, 5);
+        blockchain.sendSecretInput(double_auction_contract, household1, SecretOrderInputs.encode(sell_orders, 0), SecretOrderInputs.sellOrderRpc());
+        blockchain.sendSecretInput(double_auction_contract, household2, SecretOrderInputs.encode(buy_orders, 0), SecretOrderInputs.buyOrderRpc());
+
+        // Act
+        blockchain.sendAction(household1, double_auction_contract, OptimizedZkDoubleAuction.holdDoubleAuction());
+
+        // Assert
+        OptimizedZkDoubleAuction.ContractState state = 
+            OptimizedZkDoubleAuction.ContractState.deserialize(blockchain.getContractState(double_auction_contract));
+
+        ReferenceClearingEngine engine = new ReferenceClearingEngine(1, false);
+        engine.clear(sell_orders, buy_orders);
+
+        Assertions.assertThat(state.clearingRound()).isNull();
+        Assertions.assertThat(state.marketClearingPriceIndex()).isEqualTo((short)engine.marketClearingPriceIndex());
+        Assertions.assertThat(state.matchedOrders().tradeCount()).isZero();
+    }
+
+    @ContractTest(previous = "shouldSetPrices")
+    void shouldClearAuctionInTwoPhases(){
+        // Arrange
+        blockchain.sendAction(household1, double_auction_contract,
+            OptimizedZkDoubleAuction.updateComputeOptions(new OptimizedZkDoubleAuction.ComputeOptions(false, false, false, false, true)));
+
+        OrderBook sell_orders = new OrderBook(20);
+        OrderBook buy_orders = new OrderBook(20);
+        for (int i = 0; i < 20; i++){
+            sell_orders.add(i + 1, 0, 0, i % 2 == 0 ? 0 : 4, 4 + i % 3, 6 + i, 8 + i);
+            buy_orders.add(i + 21, 9 + i, 7, i % 3 == 0 ? 0 : 5, 3, 1, 0);
+            blockchain.sendSecretInput(double_auction_contract, household1, SecretOrderInputs.encode(sell_orders, i), SecretOrderInputs.sellOrderRpc());
+            blockchain.sendSecretInput(double_auction_contract, household2, SecretOrderInputs.encode(buy_orders, i), SecretOrderInputs.buyOrderRpc());
+        }
+
+        byte[] holdDoubleAuction = OptimizedZkDoubleAuction.holdDoubleAuction();
+
+        // Act
+        blockchain.sendAction(household1, double_auction_contract, holdDoubleAuction);
+
+        // Assert
+        OptimizedZkDoubleAuction.ContractState state = 
+            OptimizedZkDoubleAuction.ContractState.deserialize(blockchain.getContractState(double_auction_contract));
+
+        ReferenceClearingEngine engine = new ReferenceClearingEngine(20, false);
+        engine.clear(sell_orders, buy_orders);
+        List<Trade> expected = new ArrayList<>();
+        engine.forEachTrade((buyerId, sellerId, quantity) -> expected.add(new Trade(buyerId, sellerId, quantity)));
+
+        Assertions.assertThat(state.computeOptions().twoPhase()).isTrue();
+        Assertions.assertThat(state.compactedClearing()).isNull();
+        Assertions.assertThat(state.clearingRound()).isNull();
+        Assertions.assertThat(state.marketClearingPriceIndex()).isEqualTo((short)engine.marketClearingPriceIndex());
+        Assertions.assertThat(matchedOrders(state)).containsExactlyElementsOf(expected);
+        Assertions.assertThat(zkNodes.getComplexityOfLastComputation().multiplicationCount()).isZero();
+    }
+
+    @ContractTest(previous = "shouldSetPrices")
+    void shouldClearTwoPhaseAuctionWithoutBuyOrders(){
+        // Arrange
+        blockchain.sendAction(household1, double_auction_contract,
+            OptimizedZkDoubleAuction.updateComputeOptions(new OptimizedZkDoubleAuction.ComputeOptions(false, false, false, false, true)));
+
+        OrderBook sell_orders = new OrderBook(1);
+        sell_orders.add(1, 0, 2, 4, 6, 8, 10);
+        blockchain.sendSecretInput(double_auction_contract, household1, SecretOrderInputs.encode(sell_orders, 0), SecretOrderInputs.sellOrderRpc());
+
+        // Act
+        blockchain.sendAction(household1, double_auction_contract, OptimizedZkDoubleAuction.holdDoubleAuction());
+
+        // Assert
+        OptimizedZkDoubleAuction.ContractState state = 
+            OptimizedZkDoubleAuction.ContractState.deserialize(blockchain.getContractState(double_auction_contract));
+
+        Assertions.assertThat(state.clearingRound()).isNull();
+        Assertions.assertThat(state.compactedClearing()).isNull();
+        Assertions.assertThat(state.marketClearingPriceIndex()).isNotNull();
+        Assertions.assertThat(state.matchedOrders().tradeCount()).isZero();
+    }
+
+    @ContractTest(previous = "shouldSetPrices")
+    void shouldKeepAuctionCostOverRepeatedRounds(){
+        // Arrange
+        OrderBook sell_orders = new OrderBook(6);
+        OrderBook buy_orders = new OrderBook(6);
+        for (int i = 0; i < 6; i++){
+            sell_orders.add(i + 1, 0, i % 2, 2, 4, 6 + i, 8 + i);
+            buy_orders.add(i + 7, 9 + i, 7, 5, 3 + i % 3, 1, 0);
+        }
+        ReferenceClearingEngine engine = new ReferenceClearingEngine(6, false);
+        engine.clear(sell_orders, buy_orders);
+        List<Trade> expected = new ArrayList<>();
+        engine.forEachTrade((buyerId, sellerId, quantity) -> expected.add(new Trade(buyerId, sellerId, quantity)));
+
+        List<Long> multiplications = new ArrayList<>();
+        List<Long> rounds = new ArrayList<>();
+
+        // Act
+        for (int round = 0; round < 4; round++){
+            for (int i = 0; i < 6; i++){
+                blockchain.sendSecretInput(double_auction_contract, household1, SecretOrderInputs.encode(sell_orders, i), SecretOrderInputs.sellOrderRpc());
+                blockchain.sendSecretInput(double_auction_contract, household2, SecretOrderInputs.encode(buy_orders, i), SecretOrderInputs.buyOrderRpc());
+            }
+            blockchain.sendAction(household1, double_auction_contract, OptimizedZkDoubleAuction.holdDoubleAuction());
+            multiplications.add(zkNodes.getComplexityOfLastComputation().multiplicationCount());
+            rounds.add(zkNodes.getComplexityOfLastComputation().numberOfRounds());
+
+            OptimizedZkDoubleAuction.ContractState state = 
+                OptimizedZkDoubleAuction.ContractState.deserialize(blockchain.getContractState(double_auction_contract));
+            Assertions.assertThat(matchedOrders(state)).containsExactlyElementsOf(expected);
+        }
+
+        // Assert
+        OptimizedZkDoubleAuction.ContractState state = 
+            OptimizedZkDoubleAuction.ContractState.deserialize(blockchain.getContractState(double_auction_contract));
+
+        Assertions.assertThat(state.roundResults()).hasSize(3);
+        Assertions.assertThat(multiplications).containsOnly(multiplications.get(0));
+        Assertions.assertThat(rounds).containsOnly(rounds.get(0));
+    }
+
+    @ContractTest(previous = "shouldSetPrices")
+    void shouldMatchLargeAuctionOverSeveralTransactions(){
+        // Arrange
+        int orders = 128;
+        OrderBook sell_orders = new OrderBook(orders);
+        OrderBook buy_orders = new OrderBook(orders);
+        for (int i = 0; i < orders; i++){
+            sell_orders.add(i + 1, 1 + i % 3, 2 + i % 5, 3 + i % 7, 4 + i % 11, 5 + i % 13, 6 + i % 17);
+            buy_orders.add(i + 1 + orders, 6 + i % 17, 5 + i % 13, 4 + i % 11, 3 + i % 7, 2 + i % 5, 1 + i % 3);
+        }
+        for (int from = 0; from < orders; from += SecretOrderInputs.ORDER_BATCH_SIZE){
+            blockchain.sendSecretInput(double_auction_contract, household1, SecretOrderInputs.encodeBatch(sell_orders, from, SecretOrderInputs.ORDER_BATCH_SIZE), SecretOrderInputs.sellOrderBatchRpc());
+            blockchain.sendSecretInput(double_auction_contract, household2, SecretOrderInputs.encodeBatch(buy_orders, from, SecretOrderInputs.ORDER_BATCH_SIZE), SecretOrderInputs.buyOrderBatchRpc());
+        }
+        ReferenceClearingEngine engine = new ReferenceClearingEngine(orders, false);
+        engine.clear(sell_orders, buy_orders);
+        List<Trade> expected = new ArrayList<>();
+        engine.forEachTrade((buyerId, sellerId, quantity) -> expected.add(new Trade(buyerId, sellerId, quantity)));
+        int steps = matchingSteps(sell_orders, buy_orders, engine.marketClearingPriceIndex());
+
+        // Act
+        blockchain.sendAction(household1, double_auction_contract, OptimizedZkDoubleAuction.holdDoubleAuction());
+        OptimizedZkDoubleAuction.ContractState heldState = 
+            OptimizedZkDoubleAuction.ContractState.deserialize(blockchain.getContractState(double_auction_contract));
+
+        List<Integer> tradesPerTransaction = new ArrayList<>();
+        tradesPerTransaction.add(heldState.matching().trades().tradeCount());
+        OptimizedZkDoubleAuction.ContractState state = heldState;
+        while (state.matching() != null){
+            int tradesBefore = state.matching().trades().tradeCount();
+            blockchain.sendAction(household3, double_auction_contract, OptimizedZkDoubleAuction.continueMatching());
+            state = OptimizedZkDoubleAuction.ContractState.deserialize(blockchain.getContractState(double_auction_contract));
+            int tradesAfter = state.matching() != null ? state.matching().trades().tradeCount() : state.matchedOrders().tradeCount();
+            tradesPerTransaction.add(tradesAfter - tradesBefore);
+        }
+
+        // Assert
+        Assertions.assertThat(heldState.matching()).isNotNull();
+        Assertions.assertThat(heldState.clearedRound()).isNull();
+        Assertions.assertThat(heldState.clearingRound()).isNotNull();
+        Assertions.assertThat(tradesPerTransaction).hasSize((steps + 127) / 128);
+        Assertions.assertThat(tradesPerTransaction.subList(0, tradesPerTransaction.size() - 1)).containsOnly(128);
+        Assertions.assertThat(tradesPerTransaction.get(tradesPerTransaction.size() - 1)).isBetween(1, 128);
+        Assertions.assertThat(state.clearingRound()).isNull();
+        Assertions.assertThat(state.marketClearingPriceIndex()).isEqualTo((short)engine.marketClearingPriceIndex());
+        Assertions.assertThat(matchedOrders(state)).containsExactlyElementsOf(expected);
+    }
+
+    @ContractTest(previous = "shouldSetPrices")
+    void shouldFailToContinueMatchingWithoutMatching()
+    {
+        // Given
+        byte[] continueMatching = OptimizedZkDoubleAuction.continueMatching();
+
+        // When
+        Assertions.assertThatThrownBy(
+            () -> blockchain.sendAction(household2, double_auction_contract, continueMatching))
+        .isInstanceOf(ActionFailureException.class)
+        .hasMessageContaining("No matching is in progress!");
+    }
+
+    @ContractTest(previous = "shouldSetPrices")
+    void shouldFailToInputMoreOrdersThanLargestCapacityTier()
+    {
+        // Given
+        OrderBook sell_orders = new OrderBook(129);
+        for (int i = 0; i < 129; i++){
+            sell_orders.add(i + 1, 0, 1, 2, 3, 4, 5);
+        }
+        for (int from = 0; from < 128; from += SecretOrderInputs.ORDER_BATCH_SIZE){
+            blockchain.sendSecretInput(double_auction_contract, household1, SecretOrderInputs.encodeBatch(sell_orders, from, SecretOrderInputs.ORDER_BATCH_SIZE), SecretOrderInputs.sellOrderBatchRpc());
+        }
+
+        // When
+        Assertions.assertThatThrownBy(
+            () -> blockchain.sendSecretInput(double_auction_contract, household2, SecretOrderInputs.encode(sell_orders, 128), SecretOrderInputs.sellOrderRpc()))
+        .isInstanceOf(ActionFailureException.class)
+        .hasMessageContaining("Too many orders for a single auction!");
+    }
+
+    @ContractTest(previous = "shouldSetPrices")
+    void shouldClearAuctionWithIncrementalTotals(){
+        // Arrange
+        blockchain.sendAction(household1, double_auction_contract,
+            OptimizedZkDoubleAuction.updateComputeOptions(new OptimizedZkDoubleAuction.ComputeOptions(false, true, false, false, false)));
+
+        OrderBook sell_orders = new OrderBook(12);
+        OrderBook buy_orders = new OrderBook(12);
+        for (int i = 0; i < 12; i++){
+            sell_orders.add(i + 1, 0, i % 3, 2, 4, 6 + i, 8 + i);
+            buy_orders.add(i + 13, 9 + i, 7, 5, 3 + i % 2, 1, 0);
+        }
+        blockchain.sendSecretInput(double_auction_contract, household1, SecretOrderInputs.encodeBatch(sell_orders, 0, 8), SecretOrderInputs.sellOrderBatchRpc());
+        for (int i = 0; i < 12; i++){
+            if (i >= 8){
+                blockchain.sendSecretInput(double_auction_contract, household1, SecretOrderInputs.encode(sell_orders, i), SecretOrderInputs.sellOrderRpc());
+            }
+            blockchain.sendSecretInput(double_auction_contract, household2, SecretOrderInputs.encode(buy_orders, i), SecretOrderInputs.buyOrderRpc());
+        }
+
+        OptimizedZkDoubleAuction.ContractState foldedState = 
+            OptimizedZkDoubleAuction.ContractState.deserialize(blockchain.getContractState(double_auction_contract));
+
+        byte[] holdDoubleAuction = OptimizedZkDoubleAuction.holdDoubleAuction();
+
+        // Act
+        blockchain.sendAction(household1, double_auction_contract, holdDoubleAuction);
+
+        // Assert
+        OptimizedZkDoubleAuction.ContractState state = 
+            OptimizedZkDoubleAuction.ContractState.deserialize(blockchain.getContractState(double_auction_contract));
+
+        ReferenceClearingEngine engine = new ReferenceClearingEngine(12, false);
+        engine.clear(sell_orders, buy_orders);
+        List<Trade> expected = new ArrayList<>();
+        engine.forEachTrade((buyerId, sellerId, quantity) -> expected.add(new Trade(buyerId, sellerId, quantity)));
+
+        Assertions.assertThat(foldedState.foldedThrough()).isPositive();
+        Assertions.assertThat(foldedState.folding()).isNull();
+        Assertions.assertThat(state.marketClearingPriceIndex()).isEqualTo((short)engine.marketClearingPriceIndex());
+        Assertions.assertThat(matchedOrders(state)).containsExactlyElementsOf(expected);
+    }
+
+    /**
+     * The largest sell order is sent first but confirmed last, after a fold of the later orders has
+     * started. It must still be part of the totals that the clearing price is found from.
+     */
+    @ContractTest(previous = "shouldSetPrices")
+    void shouldFoldOrdersConfirmedOutOfOrder(){
+        // Arrange
+        blockchain.sendAction(household1, double_auction_contract,
+            OptimizedZkDoubleAuction.updateComputeOptions(new OptimizedZkDoubleAuction.ComputeOptions(false, true, false, false, false)));
+
+        OrderBook sell_orders = new OrderBook(3);
+        OrderBook buy_orders = new OrderBook(3);
+        sell_orders.add(1, 20, 30, 40, 50, 60, 70);
+        sell_orders.add(2, 0, 1, 2, 3, 4, 5);
+        sell_orders.add(3, 0, 0, 1, 2, 3, 4);
+        buy_orders.add(4, 30, 25, 20, 15, 10, 5);
+        buy_orders.add(5, 12, 10, 8, 6, 4, 2);
+        buy_orders.add(6, 9, 8, 7, 6, 5, 4);
+
+        zkNodes.stop();
+        for (int i = 0; i < 3; i++){
+            blockchain.sendSecretInput(double_auction_contract, household1, SecretOrderInputs.encode(sell_orders, i), SecretOrderInputs.sellOrderRpc());
+            blockchain.sendSecretInput(double_auction_contract, household2, SecretOrderInputs.encode(buy_orders, i), SecretOrderInputs.buyOrderRpc());
+        }
+        List<PendingInputId> pendingInputs = zkNodes.getPendingInputs(double_auction_contract);
+
+        // Act
+        for (int i = pendingInputs.size() - 1; i >= 0; i--){
+            zkNodes.confirmInput(pendingInputs.get(i));
+        }
+        zkNodes.finishTasks();
+        blockchain.sendAction(household1, double_auction_contract, OptimizedZkDoubleAuction.holdDoubleAuction());
+        zkNodes.finishTasks();
+
+        // Assert
+        OptimizedZkDoubleAuction.ContractState state = 
+            OptimizedZkDoubleAuction.ContractState.deserialize(blockchain.getContractState(double_auction_contract));
+
+        ReferenceClearingEngine engine = new ReferenceClearingEngine(3, false);
+        engine.clear(sell_orders, buy_orders);
+        List<Trade> expected = new ArrayList<>();
+        engine.forEachTrade((buyerId, sellerId, quantity) -> expected.add(new Trade(buyerId, sellerId, quantity)));
+
+        Assertions.assertThat(state.marketClearingPriceIndex()).isEqualTo((short)engine.marketClearingPriceIndex());
+        Assertions.assertThat(matchedOrders(state)).containsExactlyElementsOf(expected);
+    }
+
+    @ContractTest(previous = "shouldSetPrices")
+    void shouldClearOverlappingRoundsWithoutReset(){
+        // Arrange
+        int rounds = 24;
+        int ordersPerSide = 6;
+        Random rand = new Random(15);
+        blockchain.sendAction(household1, double_auction_contract,
+            OptimizedZkDoubleAuction.updateComputeOptions(new OptimizedZkDoubleAuction.ComputeOptions(false, true, false, false, false)));
+
+        List<Short> expectedIndices = new ArrayList<>();
+        List<List<Trade>> expectedTrades = new ArrayList<>();
+        ReferenceClearingEngine engine = new ReferenceClearingEngine(ordersPerSide, false);
+        OrderBook sell_orders = new OrderBook(ordersPerSide);
+        OrderBook buy_orders = new OrderBook(ordersPerSide);
+
+        // Act
+        for (int round = 0; round < rounds; round++){
+            sell_orders.clear();
+            buy_orders.clear();
+            for (int i = 0; i < ordersPerSide; i++){
+                sell_orders.add(i + 1, 0, rand.nextInt(5), rand.nextInt(10), rand.nextInt(15), rand.nextInt(20), rand.nextInt(25));
+                buy_orders.add(i + 1 + ordersPerSide, rand.nextInt(25), rand.nextInt(20), rand.nextInt(15), rand.nextInt(10), rand.nextInt(5), 0);
+                blockchain.sendSecretInput(double_auction_contract, household2, SecretOrderInputs.encode(sell_orders, i), SecretOrderInputs.sellOrderRpc());
+                blockchain.sendSecretInput(double_auction_contract, household3, SecretOrderInputs.encode(buy_orders, i), SecretOrderInputs.buyOrderRpc());
+            }
+            blockchain.sendAction(household1, double_auction_contract, OptimizedZkDoubleAuction.holdDoubleAuction());
+
+            engine.clear(sell_orders, buy_orders);
+            List<Trade> trades = new ArrayList<>();
+            engine.forEachTrade((buyerId, sellerId, quantity) -> trades.add(new Trade(buyerId, sellerId, quantity)));
+            expectedIndices.add((short)engine.marketClearingPriceIndex());
+            expectedTrades.add(trades);
+        }
+
+        // Assert
+        OptimizedZkDoubleAuction.ContractState state = 
+            OptimizedZkDoubleAuction.ContractState.deserialize(blockchain.getContractState(double_auction_contract));
+
+        Assertions.assertThat(state.currentRound()).isEqualTo(rounds + 1);
+        Assertions.assertThat(state.closedRounds()).isEmpty();
+        Assertions.assertThat(state.clearingRound()).isNull();
+        Assertions.assertThat(state.clearedRound()).isEqualTo(rounds);
+        Assertions.assertThat(state.marketClearingPriceIndex()).isEqualTo(expectedIndices.get(rounds - 1));
+        Assertions.assertThat(matchedOrders(state)).containsExactlyElementsOf(expectedTrades.get(rounds - 1));
+
+        Assertions.assertThat(state.roundResults()).hasSize(rounds - 1);
+        for (int round = 0; round < rounds - 1; round++){
+            OptimizedZkDoubleAuction.RoundResult result = state.roundResults().get(round);
+            Assertions.assertThat(result.round()).isEqualTo(round + 1);
+            Assertions.assertThat(result.marketClearingPriceIndex()).isEqualTo(expectedIndices.get(round));
+            Assertions.assertThat(matchedOrders(result)).containsExactlyElementsOf(expectedTrades.get(round));
+        }
+    }
+
+    @ContractTest(previous = "shouldSetPrices")
+    void shouldKeepPricesOfRoundsClearedAfterPriceUpdate(){
+        // Arrange
+        OrderBook sell_orders = new OrderBook(1);
+        OrderBook buy_orders = new OrderBook(1);
+        sell_orders.add(1, 0, 2, 4, 6, 8, 10);
+        buy_orders.add(2, 10, 8, 6, 4, 2, 0);
+        List<Short> firstPrices = List.of((short)40, (short)43, (short)46, (short)49, (short)52, (short)55);
+        List<Short> secondPrices = List.of((short)60, (short)65, (short)70, (short)75, (short)80, (short)85);
+
+        // Act
+        zkNodes.stop();
+        blockchain.sendSecretInput(double_auction_contract, household1, SecretOrderInputs.encode(sell_orders, 0), SecretOrderInputs.sellOrderRpc());
+        blockchain.sendSecretInput(double_auction_contract, household2, SecretOrderInputs.encode(buy_orders, 0), SecretOrderInputs.buyOrderRpc());
+        zkNodes.finishTasks();
+        blockchain.sendAction(household1, double_auction_contract, OptimizedZkDoubleAuction.holdDoubleAuction());
+        blockchain.sendAction(household1, double_auction_contract, OptimizedZkDoubleAuction.updatePrices((short)60, (short)85));
+        zkNodes.finishTasks();
+        OptimizedZkDoubleAuction.ContractState firstState = 
+            OptimizedZkDoubleAuction.ContractState.deserialize(blockchain.getContractState(double_auction_contract));
+
+        blockchain.sendSecretInput(double_auction_contract, household1, SecretOrderInputs.encode(sell_orders, 0), SecretOrderInputs.sellOrderRpc());
+        blockchain.sendSecretInput(double_auction_contract, household2, SecretOrderInputs.encode(buy_orders, 0), SecretOrderInputs.buyOrderRpc());
+        zkNodes.finishTasks();
+        blockchain.sendAction(household1, double_auction_contract, OptimizedZkDoubleAuction.holdDoubleAuction());
+        zkNodes.finishTasks();
+
+        // Assert
+        OptimizedZkDoubleAuction.ContractState state = 
+            OptimizedZkDoubleAuction.ContractState.deserialize(blockchain.getContractState(double_auction_contract));
+
+        Assertions.assertThat(firstState.clearedRound()).isEqualTo(1);
+        Assertions.assertThat(firstState.prices()).containsExactlyElementsOf(secondPrices);
+        Assertions.assertThat(firstState.clearedPrices()).containsExactlyElementsOf(firstPrices);
+        Assertions.assertThat(state.clearedRound()).isEqualTo(2);
+        Assertions.assertThat(state.clearedPrices()).containsExactlyElementsOf(secondPrices);
+        Assertions.assertThat(state.roundResults()).hasSize(1);
+        Assertions.assertThat(state.roundResults().get(0).prices()).containsExactlyElementsOf(firstPrices);
+    }
+
+    @ContractTest(previous = "shouldSetPrices")
+    void shouldClearPriceLadderOfSixteenLevels(){
+        // Arrange
+        int levels = 16;
+        blockchain.sendAction(household1, double_auction_contract, OptimizedZkDoubleAuction.updatePriceLevels(levels));
+        blockchain.sendAction(household1, double_auction_contract, OptimizedZkDoubleAuction.updatePrices((short)40, (short)70));
+
+        OrderBook sell_orders = new OrderBook(5, levels);
+        OrderBook buy_orders = new OrderBook(5, levels);
+        for (int i = 0; i < 5; i++){
+            int[] selling = new int[levels];
+            int[] buying = new int[levels];
+            for (int level = 0; level < levels; level++){
+                selling[level] = (i + 1) * level;
+                buying[levels - 1 - level] = (5 - i) * level;
+            }
+            sell_orders.add(i + 1, selling);
+            buy_orders.add(i + 6, buying);
+            blockchain.sendSecretInput(double_auction_contract, household1, SecretOrderInputs.encodeLadder(sell_orders, i), SecretOrderInputs.sellLadderOrderRpc());
+            blockchain.sendSecretInput(double_auction_contract, household2, SecretOrderInputs.encodeLadder(buy_orders, i), SecretOrderInputs.buyLadderOrderRpc());
+        }
+
+        byte[] holdDoubleAuction = OptimizedZkDoubleAuction.holdDoubleAuction();
+
+        // Act
+        blockchain.sendAction(household1, double_auction_contract, holdDoubleAuction);
+
+        // Assert
+        OptimizedZkDoubleAuction.ContractState state = 
+            OptimizedZkDoubleAuction.ContractState.deserialize(blockchain.getContractState(double_auction_contract));
+
+        ReferenceClearingEngine engine = ReferenceClearingEngine.forPriceLadder(5, levels);
+        engine.clear(sell_orders, buy_orders);
+        List<Trade> expected = new ArrayList<>();
+        engine.forEachTrade((buyerId, sellerId, quantity) -> expected.add(new Trade(buyerId, sellerId, quantity)));
+
+        Assertions.assertThat(state.priceLevels()).isEqualTo(levels);
+        Assertions.assertThat(state.prices()).hasSize(levels);
+        Assertions.assertThat(state.prices().get(15)).isEqualTo((short)70);
+        Assertions.assertThat(state.marketClearingPriceIndex()).isEqualTo((short)engine.marketClearingPriceIndex());
+        Assertions.assertThat(matchedOrders(state)).containsExactlyElementsOf(expected);
+    }
+
+    @ContractTest(previous = "shouldSetPrices")
+    void shouldFailToUpdatePriceLevelsBeyondLadderSize()
+    {
+        // Given
+        byte[] updatePriceLevels = OptimizedZkDoubleAuction.updatePriceLevels(SecretOrderInputs.MAX_PRICE_LEVELS + 1);
+
+        // When
+        Assertions.assertThatThrownBy(
+            () -> blockchain.sendAction(household1, double_auction_contract, updatePriceLevels))
+        .isInstanceOf(ActionFailureException.class)
+        .hasMessageContaining("A price ladder must have between 2 and 64 levels!");
+    }
+
+    @ContractTest(previous = "shouldSetPrices")
+    void shouldFailToInputLadderOrderOnDefaultPriceLadder()
+    {
+        // Given
+        OrderBook sell_orders = new OrderBook(1);
+        sell_orders.add(1, 0, 1, 2, 3, 4, 5);
+
+        // When
+        Assertions.assertThatThrownBy(
+            () -> blockchain.sendSecretInput(double_auction_contract, household1, SecretOrderInputs.encodeLadder(sell_orders, 0), SecretOrderInputs.sellLadderOrderRpc()))
+        .isInstanceOf(ActionFailureException.class)
+        .hasMessageContaining("Orders on this price ladder must not be ladder orders!");
+    }
+
+    @ContractTest(previous = "shouldSetPrices")
+    void shouldFindClearingPriceInFewerRoundsWithTournamentSearch(){
+        // Arrange
+        OrderBook sell_orders = new OrderBook(4);
+        OrderBook buy_orders = new OrderBook(4);
+        for (int i = 0; i < 4; i++){
+            sell_orders.add(i + 1, 0, 3, 3, 6, 6 + i, 9);
+            buy_orders.add(i + 5, 9, 6 + i, 6, 3, 3, 0);
+        }
+
+        // Act
+        long sequentialRounds = holdAndCountRounds(sell_orders, buy_orders, new OptimizedZkDoubleAuction.ComputeOptions(false, false, true, false, false));
+        OptimizedZkDoubleAuction.ContractState sequentialState = 
+            OptimizedZkDoubleAuction.ContractState.deserialize(blockchain.getContractState(double_auction_contract));
+
+        blockchain.sendAction(household1, double_auction_contract, OptimizedZkDoubleAuction.resetContract());
+        blockchain.sendAction(household1, double_auction_contract, OptimizedZkDoubleAuction.updatePrices((short)40, (short)58));
+
+        long tournamentRounds = holdAndCountRounds(sell_orders, buy_orders, new OptimizedZkDoubleAuction.ComputeOptions(false, false, false, false, false));
+        OptimizedZkDoubleAuction.ContractState tournamentState = 
+            OptimizedZkDoubleAuction.ContractState.deserialize(blockchain.getContractState(double_auction_contract));
+
+        // Assert
+        ReferenceClearingEngine engine = new ReferenceClearingEngine(4, false);
+        engine.clear(sell_orders, buy_orders);
+
+        Assertions.assertThat(tournamentState.marketClearingPriceIndex()).isEqualTo((short)engine.marketClearingPriceIndex());
+        Assertions.assertThat(tournamentState.marketClearingPriceIndex()).isEqualTo(sequentialState.marketClearingPriceIndex());
+        Assertions.assertThat(matchedOrders(tournamentState)).containsExactlyElementsOf(matchedOrders(sequentialState));
+        Assertions.assertThat(tournamentRounds).isLessThan(sequentialRounds);
+    }
+
+    @ContractTest(previous = "shouldSetPrices")
+    void shouldFailToUpdateComputeOptionsWhenNotContractOwner()
+    {
+        // Given
+        byte[] updateComputeOptions = OptimizedZkDoubleAuction.updateComputeOptions(new OptimizedZkDoubleAuction.ComputeOptions(true, false, false, false, false));
+
+        // When
+        Assertions.assertThatThrownBy(
+            () -> blockchain.sendAction(household2, double_auction_contract, updateComputeOptions))
+        .isInstanceOf(ActionFailureException.class)
+        .hasMessageContaining("Only the auction holder can update the compute options!");
     }
 
     @ContractTest(previous = "shouldSetPrices")
@@ -340,6 +988,93 @@ public final class OptimizedZkDoubleAuctionTest extends JunitContractTest{
         .hasMessageContaining("Only the auction holder can hold the auction!");
     }
 
+    @ContractTest(previous = "shouldSetPrices")
+    void shouldFailToProfileStageWhenNotContractOwner()
+    {
+        // Given
+        byte[] profileStage = OptimizedZkDoubleAuction.profileStage((byte)1);
+
+        // When
+        Assertions.assertThatThrownBy(
+            () -> blockchain.sendAction(household2, double_auction_contract, profileStage))
+        .isInstanceOf(ActionFailureException.class)
+        .hasMessageContaining("Only the auction holder can profile the auction!");
+    }
+
+    private long holdAndCountRounds(OrderBook sellOrders, OrderBook buyOrders, OptimizedZkDoubleAuction.ComputeOptions options) {
+        blockchain.sendAction(household1, double_auction_contract, OptimizedZkDoubleAuction.updateComputeOptions(options));
+        for (int i = 0; i < sellOrders.size(); i++){
+            blockchain.sendSecretInput(double_auction_contract, household2, SecretOrderInputs.encode(sellOrders, i), SecretOrderInputs.sellOrderRpc());
+        }
+        for (int i = 0; i < buyOrders.size(); i++){
+            blockchain.sendSecretInput(double_auction_contract, household3, SecretOrderInputs.encode(buyOrders, i), SecretOrderInputs.buyOrderRpc());
+        }
+        blockchain.sendAction(household1, double_auction_contract, OptimizedZkDoubleAuction.holdDoubleAuction());
+        return zkNodes.getComplexityOfLastComputation().numberOfRounds();
+    }
+
+    /**
+     * Number of steps the contract takes to match the orders at the clearing price: one per visited
+     * pair of orders, skipping orders without a quantity at that price.
+     */
+    private static int matchingSteps(OrderBook sellOrders, OrderBook buyOrders, int level) {
+        int sellIndex = nextOrder(sellOrders, 0, level);
+        int buyIndex = nextOrder(buyOrders, 0, level);
+        int sellRemaining = sellIndex < sellOrders.size() ? sellOrders.quantity(sellIndex, level) : 0;
+        int buyRemaining = buyIndex < buyOrders.size() ? buyOrders.quantity(buyIndex, level) : 0;
+        int steps = 0;
+        while (sellIndex < sellOrders.size() && buyIndex < buyOrders.size()){
+            int quantity = Math.min(sellRemaining, buyRemaining);
+            sellRemaining -= quantity;
+            buyRemaining -= quantity;
+            if (sellRemaining == 0){
+                sellIndex = nextOrder(sellOrders, sellIndex + 1, level);
+                sellRemaining = sellIndex < sellOrders.size() ? sellOrders.quantity(sellIndex, level) : 0;
+            }
+            if (buyRemaining == 0){
+                buyIndex = nextOrder(buyOrders, buyIndex + 1, level);
+                buyRemaining = buyIndex < buyOrders.size() ? buyOrders.quantity(buyIndex, level) : 0;
+            }
+            steps++;
+        }
+        return steps;
+    }
+
+    private static int nextOrder(OrderBook book, int from, int level) {
+        int order = from;
+        while (order < book.size() && book.quantity(order, level) == 0){
+            order++;
+        }
+        return order;
+    }
+
+    private static void assertMatchesReferenceEngine(List<Order> sellOrders, List<Order> buyOrders, OptimizedZkDoubleAuction.ContractState state) {
+        ReferenceClearingEngine engine = new ReferenceClearingEngine(Math.max(sellOrders.size(), buyOrders.size()), false);
+        engine.clear(orderBook(sellOrders), orderBook(buyOrders));
+
+        List<Trade> expected = new ArrayList<>();
+        engine.forEachTrade((buyerId, sellerId, quantity) -> expected.add(new Trade(buyerId, sellerId, quantity)));
+
+        Assertions.assertThat(state.marketClearingPriceIndex()).isEqualTo((short)engine.marketClearingPriceIndex());
+        Assertions.assertThat(matchedOrders(state)).containsExactlyElementsOf(expected);
+    }
+
+    private static List<Trade> matchedOrders(OptimizedZkDoubleAuction.ContractState state) {
+        return TradeLogReader.of(state.matchedOrders()).toList();
+    }
+
+    private static List<Trade> matchedOrders(OptimizedZkDoubleAuction.RoundResult result) {
+        return TradeLogReader.of(result.matchedOrders()).toList();
+    }
+
+    private static OrderBook orderBook(List<Order> orders) {
+        OrderBook book = new OrderBook(orders.size());
+        for (Order order : orders) {
+            book.add(order.houseId, order.prices.get(0), order.prices.get(1), order.prices.get(2), order.prices.get(3), order.prices.get(4), order.prices.get(5));
+        }
+        return book;
+    }
+
     private record Order(int houseId, List<Integer> prices){ }
 
     private CompactBitArray createSecretInput(Order order) {
@@ -0,0 +1,96 @@
+package examples;
+
+import java.util.Arrays;
+
+/**
+ * One side of a double auction, stored as flat primitive arrays so that large books can be built and
+ * reused without allocating per order. Order {@code i} has id {@code ids[i]} and quantity
+ * {@code quantities[i * priceLevels + level]} at each price level.
+ */
+public final class OrderBook {
+
+    /** Price levels of {@code SecretOrderInput} orders. */
+    public static final int PRICE_LEVELS = 6;
+
+    private final int priceLevels;
+    private final short[] ids;
+    private final short[] quantities;
+    private int size;
+
+    public OrderBook(int capacity) {
+        this(capacity, PRICE_LEVELS);
+    }
+
+    /** Creates a book for a price ladder of {@code priceLevels} levels. */
+    public OrderBook(int capacity, int priceLevels) {
+        this.priceLevels = priceLevels;
+        this.ids = new short[capacity];
+        this.quantities = new short[capacity * priceLevels];
+    }
+
+    /** Adds an order with one quantity per price level, in the same layout as {@code SecretOrderInput}. */
+    public OrderBook add(int id, int... quantityPerPrice) {
+        if (quantityPerPrice.length != priceLevels) {
+            throw new IllegalArgumentException("Expected " + priceLevels + " quantities, got " + quantityPerPrice.length);
+        }
+        int offset = reserve(id);
+        for (int level = 0; level < priceLevels; level++) {
+            quantities[offset + level] = (short) quantityPerPrice[level];
+        }
+        return this;
+    }
+
+    /** Adds an order copying {@link #priceLevels()} quantities from {@code source} starting at {@code from}. */
+    public OrderBook add(short id, short[] source, int from) {
+        int offset = reserve(id);
+        System.arraycopy(source, from, quantities, offset, priceLevels);
+        return this;
+    }
+
+    private int reserve(int id) {
+        if (size == ids.length) {
+            throw new IllegalStateException("Order book is full (capacity " + ids.length + ")");
+        }
+        ids[size] = (short) id;
+        return size++ * priceLevels;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public int capacity() {
+        return ids.length;
+    }
+
+    public int priceLevels() {
+        return priceLevels;
+    }
+
+    public short id(int order) {
+        return ids[order];
+    }
+
+    public short quantity(int order, int level) {
+        return quantities[order * priceLevels + level];
+    }
+
+    /** Empties the book, keeping its arrays for reuse. */
+    public void clear() {
+        size = 0;
+    }
+
+    short[] rawQuantities() {
+        return quantities;
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder builder = new StringBuilder("OrderBook[");
+        for (int i = 0; i < size; i++) {
+            builder.append(i == 0 ? "" : ", ").append(ids[i]).append('=')
+                .append(Arrays.toString(Arrays.copyOfRange(quantities, i * priceLevels, (i + 1) * priceLevels)));
+        }
+        return builder.append(']').toString();
+    }
+}
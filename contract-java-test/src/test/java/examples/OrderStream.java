@@ -0,0 +1,143 @@
+package examples;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * A seeded stream of sell and buy orders in arrival order. Sellers have ids {@code 0..sellOrders-1}
+ * and buyers the ids after them. As in the testnet scripts, sell quantities increase with price and
+ * buy quantities decrease with it. The same seed and shape always give the same stream.
+ *
+ * <p>Streams made with {@link #fromProsumers} take their orders from {@link ProsumerOrders} instead,
+ * numbered the same way.
+ */
+public final class OrderStream {
+
+    /** Order in which sell and buy orders arrive. */
+    public enum ArrivalPattern {
+        /** Every sell order, then every buy order, as sent by the testnet scripts. */
+        SELLERS_FIRST,
+        /** Sell and buy orders alternate while both sides have orders left. */
+        INTERLEAVED,
+        /** A seeded random interleaving of the two sides. */
+        RANDOM
+    }
+
+    private final List<Arrival> arrivals;
+    private final OrderBook sellOrders;
+    private final OrderBook buyOrders;
+
+    private OrderStream(List<Arrival> arrivals, OrderBook sellOrders, OrderBook buyOrders) {
+        this.arrivals = arrivals;
+        this.sellOrders = sellOrders;
+        this.buyOrders = buyOrders;
+    }
+
+    /** Draws {@code sellOrders} and {@code buyOrders} orders with quantities up to {@code largestOrder}. */
+    public static OrderStream generate(long seed, int sellOrders, int buyOrders, int largestOrder, ArrivalPattern pattern) {
+        Random rand = new Random(seed);
+        OrderBook sells = new OrderBook(sellOrders);
+        OrderBook buys = new OrderBook(buyOrders);
+        for (int i = 0; i < sellOrders; i++) {
+            sells.add(i, sortedQuantities(rand, largestOrder, true));
+        }
+        for (int i = 0; i < buyOrders; i++) {
+            buys.add(sellOrders + i, sortedQuantities(rand, largestOrder, false));
+        }
+        return new OrderStream(arrivals(rand, sellOrders, buyOrders, pattern), sells, buys);
+    }
+
+    /**
+     * Takes the first {@code sellOrders} sell and {@code buyOrders} buy orders of the households of
+     * {@link ProsumerOrders#generate(long, int, int, int)} in market {@code slot}, skipping the
+     * households of a side that is already full.
+     */
+    public static OrderStream fromProsumers(long seed, int sellOrders, int buyOrders, int slot, int largestOrder, ArrivalPattern pattern) {
+        ProsumerOrders households = ProsumerOrders.generate(seed, Short.MAX_VALUE + 1, slot, largestOrder);
+        OrderBook sells = new OrderBook(sellOrders);
+        OrderBook buys = new OrderBook(buyOrders);
+        short[] record = new short[households.recordLength()];
+        while (sells.size() < sellOrders || buys.size() < buyOrders) {
+            if (!households.hasNext()) {
+                throw new IllegalArgumentException("Market " + slot + " does not have " + sellOrders + " sellers and " + buyOrders + " buyers");
+            }
+            households.next(record);
+            if (record[ProsumerOrders.SIDE] == ProsumerOrders.SELL && sells.size() < sellOrders) {
+                sells.add((short) sells.size(), record, ProsumerOrders.QUANTITIES);
+            } else if (record[ProsumerOrders.SIDE] == ProsumerOrders.BUY && buys.size() < buyOrders) {
+                buys.add((short) (sellOrders + buys.size()), record, ProsumerOrders.QUANTITIES);
+            }
+        }
+        return new OrderStream(arrivals(new Random(seed), sellOrders, buyOrders, pattern), sells, buys);
+    }
+
+    private static List<Arrival> arrivals(Random rand, int sellOrders, int buyOrders, ArrivalPattern pattern) {
+        List<Arrival> arrivals = new ArrayList<>(sellOrders + buyOrders);
+        switch (pattern) {
+            case SELLERS_FIRST -> {
+                for (int i = 0; i < sellOrders; i++) {
+                    arrivals.add(new Arrival(true, i));
+                }
+                for (int i = 0; i < buyOrders; i++) {
+                    arrivals.add(new Arrival(false, i));
+                }
+            }
+            case INTERLEAVED -> {
+                for (int i = 0; i < Math.max(sellOrders, buyOrders); i++) {
+                    if (i < sellOrders) {
+                        arrivals.add(new Arrival(true, i));
+                    }
+                    if (i < buyOrders) {
+                        arrivals.add(new Arrival(false, i));
+                    }
+                }
+            }
+            case RANDOM -> {
+                List<Boolean> sides = new ArrayList<>(sellOrders + buyOrders);
+                sides.addAll(Collections.nCopies(sellOrders, true));
+                sides.addAll(Collections.nCopies(buyOrders, false));
+                Collections.shuffle(sides, rand);
+                int nextSell = 0;
+                int nextBuy = 0;
+                for (boolean selling : sides) {
+                    arrivals.add(new Arrival(selling, selling ? nextSell++ : nextBuy++));
+                }
+            }
+        }
+        return List.copyOf(arrivals);
+    }
+
+    private static int[] sortedQuantities(Random rand, int largestOrder, boolean selling) {
+        int[] quantities = new int[OrderBook.PRICE_LEVELS];
+        for (int i = 0; i < quantities.length; i++) {
+            quantities[i] = rand.nextInt(largestOrder + 1);
+        }
+        Arrays.sort(quantities);
+        if (!selling) {
+            for (int i = 0; i < quantities.length / 2; i++) {
+                int swap = quantities[i];
+                quantities[i] = quantities[quantities.length - 1 - i];
+                quantities[quantities.length - 1 - i] = swap;
+            }
+        }
+        return quantities;
+    }
+
+    public List<Arrival> arrivals() {
+        return arrivals;
+    }
+
+    public OrderBook sellOrders() {
+        return sellOrders;
+    }
+
+    public OrderBook buyOrders() {
+        return buyOrders;
+    }
+
+    /** One order arriving: order {@code order} of the sell or buy side. */
+    public record Arrival(boolean selling, int order) { }
+}
@@ -0,0 +1,68 @@
+package examples;
+
+import org.assertj.core.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+public final class OrderStreamTest {
+
+    @Test
+    void shouldReplaySameStreamForSameSeed() {
+        // Arrange
+        OrderStream first = OrderStream.generate(7, 5, 9, 100, OrderStream.ArrivalPattern.RANDOM);
+
+        // Act
+        OrderStream second = OrderStream.generate(7, 5, 9, 100, OrderStream.ArrivalPattern.RANDOM);
+
+        // Assert
+        Assertions.assertThat(second.arrivals()).isEqualTo(first.arrivals());
+        Assertions.assertThat(second.sellOrders().toString()).isEqualTo(first.sellOrders().toString());
+        Assertions.assertThat(second.buyOrders().toString()).isEqualTo(first.buyOrders().toString());
+    }
+
+    @Test
+    void shouldInterleaveSidesUntilOneRunsOut() {
+        // Act
+        OrderStream stream = OrderStream.generate(1, 2, 3, 100, OrderStream.ArrivalPattern.INTERLEAVED);
+
+        // Assert
+        Assertions.assertThat(stream.arrivals()).containsExactly(
+            new OrderStream.Arrival(true, 0),
+            new OrderStream.Arrival(false, 0),
+            new OrderStream.Arrival(true, 1),
+            new OrderStream.Arrival(false, 1),
+            new OrderStream.Arrival(false, 2));
+        Assertions.assertThat(stream.buyOrders().id(0)).isEqualTo((short)2);
+    }
+
+    @Test
+    void shouldSendEveryOrderOnceInSideOrder() {
+        // Act
+        OrderStream stream = OrderStream.generate(3, 40, 40, 50, OrderStream.ArrivalPattern.RANDOM);
+
+        // Assert
+        int nextSell = 0;
+        int nextBuy = 0;
+        for (OrderStream.Arrival arrival : stream.arrivals()) {
+            Assertions.assertThat(arrival.order()).isEqualTo(arrival.selling() ? nextSell++ : nextBuy++);
+        }
+        Assertions.assertThat(nextSell).isEqualTo(40);
+        Assertions.assertThat(nextBuy).isEqualTo(40);
+        for (int level = 1; level < OrderBook.PRICE_LEVELS; level++) {
+            Assertions.assertThat(stream.sellOrders().quantity(0, level)).isGreaterThanOrEqualTo(stream.sellOrders().quantity(0, level - 1));
+            Assertions.assertThat(stream.buyOrders().quantity(0, level)).isLessThanOrEqualTo(stream.buyOrders().quantity(0, level - 1));
+        }
+    }
+
+    @Test
+    void shouldNumberProsumerOrdersLikeGeneratedOrders() {
+        // Act
+        OrderStream stream = OrderStream.fromProsumers(9, 30, 50, 48, 50, OrderStream.ArrivalPattern.SELLERS_FIRST);
+
+        // Assert
+        Assertions.assertThat(stream.sellOrders().size()).isEqualTo(30);
+        Assertions.assertThat(stream.buyOrders().size()).isEqualTo(50);
+        Assertions.assertThat(stream.sellOrders().id(29)).isEqualTo((short)29);
+        Assertions.assertThat(stream.buyOrders().id(0)).isEqualTo((short)30);
+        Assertions.assertThat(stream.arrivals()).hasSize(80);
+    }
+}
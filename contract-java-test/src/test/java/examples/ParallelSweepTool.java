@@ -0,0 +1,74 @@
+package examples;
+
+import org.assertj.core.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.junit.platform.launcher.Launcher;
+import org.junit.platform.launcher.LauncherDiscoveryRequest;
+import org.junit.platform.launcher.core.LauncherFactory;
+import org.junit.platform.launcher.listeners.SummaryGeneratingListener;
+import org.junit.platform.launcher.listeners.TestExecutionSummary;
+
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+
+import static org.junit.platform.engine.discovery.DiscoverySelectors.selectMethod;
+import static org.junit.platform.launcher.core.LauncherDiscoveryRequestBuilder.request;
+
+/**
+ * Runs {@link ComplexityTool#runComplexitySweep} on a fork-join pool. Every worker runs one
+ * {@link SweepShard} of the points through its own JUnit launcher, and so against its own test
+ * blockchain and deployment. The results are merged into the same report as a single-threaded
+ * sweep, with the rows in the same order. The sweep takes the {@code complexity.*} properties of
+ * {@link ComplexityTool}, and {@code complexity.parallelism} sets the number of workers, e.g.
+ * {@code mvn test -Dtest=ParallelSweepTool -Dcomplexity.maxOrders=85 -Dcomplexity.seeds=10}.
+ */
+public final class ParallelSweepTool {
+
+    private static final int PARALLELISM = Integer.getInteger("complexity.parallelism", Runtime.getRuntime().availableProcessors());
+
+    @Test
+    void runParallelComplexitySweep() {
+        ConcurrentSkipListMap<Integer, ComplexityTool.SweepPoint> results = new ConcurrentSkipListMap<>();
+        LauncherDiscoveryRequest sweep = request()
+            .selectors(selectMethod(ComplexityTool.class, "runComplexitySweep"))
+            .build();
+
+        ForkJoinPool pool = new ForkJoinPool(PARALLELISM);
+        List<String> failures = new ArrayList<>();
+        try {
+            List<ForkJoinTask<TestExecutionSummary>> shards = new ArrayList<>();
+            for (int index = 0; index < PARALLELISM; index++) {
+                SweepShard shard = new SweepShard(index, PARALLELISM, results);
+                shards.add(pool.submit(() -> runShard(shard, sweep)));
+            }
+            for (ForkJoinTask<TestExecutionSummary> shard : shards) {
+                TestExecutionSummary summary = shard.join();
+                if (summary.getTotalFailureCount() > 0) {
+                    StringWriter report = new StringWriter();
+                    summary.printFailuresTo(new PrintWriter(report), 20);
+                    failures.add(report.toString());
+                }
+            }
+        } finally {
+            pool.shutdown();
+        }
+
+        Assertions.assertThat(failures).isEmpty();
+        Path output = ComplexityTool.writeSweep(new ArrayList<>(results.values()));
+        System.out.println(results.size() + " sweep points on " + PARALLELISM + " workers written to " + output.toAbsolutePath());
+        Assertions.assertThat(results).isNotEmpty();
+    }
+
+    private static TestExecutionSummary runShard(SweepShard shard, LauncherDiscoveryRequest sweep) {
+        Launcher launcher = LauncherFactory.create();
+        SummaryGeneratingListener listener = new SummaryGeneratingListener();
+        shard.runBound(() -> launcher.execute(sweep, listener));
+        return listener.getSummary();
+    }
+}
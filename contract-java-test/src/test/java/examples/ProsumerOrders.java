@@ -0,0 +1,203 @@
+package examples;
+
+import java.util.NoSuchElementException;
+import java.util.Random;
+import java.util.stream.Stream;
+
+/**
+ * A seeded, lazy stream of household orders for one quarter-hourly market, drawn from prosumer
+ * profiles instead of uniform quantities. Every household has a {@link Profile} drawn from a
+ * {@link ProfileMix}, a volume that follows the time of day of its profile, and a reservation price
+ * level scattered around a price cluster shared by the whole market. Sellers offer nothing below
+ * their reservation level and ramp up above it; buyers take their full volume up to it and back off
+ * above it, as much as their profile allows.
+ *
+ * <p>Orders are produced one household at a time into {@code short[]} records of
+ * {@link #recordLength()}: the side at {@link #SIDE}, the id at {@link #ID} and one quantity per price
+ * level from {@link #QUANTITIES}. Nothing is kept per household, so streams of thousands of
+ * households run in constant memory when a single record is reused. Households have the ids
+ * {@code 0..households-1}, and the same seed and shape always give the same orders.
+ */
+public final class ProsumerOrders {
+
+    /** Index of the side of the order in a record, {@link #SELL} or {@link #BUY}. */
+    public static final int SIDE = 0;
+    /** Index of the household id in a record. */
+    public static final int ID = 1;
+    /** Index of the quantity at the lowest price level in a record. */
+    public static final int QUANTITIES = 2;
+
+    public static final short SELL = 1;
+    public static final short BUY = 0;
+
+    /** Markets in one day, one per quarter of an hour. */
+    public static final int SLOTS_PER_DAY = 96;
+
+    /** How a household produces and consumes over the day. */
+    public enum Profile {
+        /** Rooftop solar: sells a volume that follows the sun, from 06:00 to 18:00, and nothing at night. */
+        SOLAR,
+        /** Home battery: sells in the evening peak from 17:00 to 22:00, and otherwise charges when power is cheap. */
+        BATTERY,
+        /** Heat pump or car charger: buys a large volume at low prices and gives up most of it as the price rises. */
+        FLEXIBLE_LOAD,
+        /** Fixed consumption with an evening peak: buys about the same volume at every price. */
+        BASE_LOAD;
+
+        boolean sells(int slot) {
+            return this == SOLAR || (this == BATTERY && slot >= 68 && slot < 88);
+        }
+
+        /** Share of the largest order this profile trades in {@code slot}, before noise. */
+        double volume(int slot) {
+            return switch (this) {
+                case SOLAR -> Math.max(0, Math.sin(Math.PI * (slot - 24) / 48));
+                case BATTERY -> 0.5;
+                case FLEXIBLE_LOAD -> 1.0;
+                case BASE_LOAD -> 0.3 + 0.3 * Math.max(0, Math.sin(Math.PI * (slot - 64) / 32));
+            };
+        }
+    }
+
+    /** Relative weights of the profiles in the market. */
+    public record ProfileMix(int solar, int battery, int flexibleLoad, int baseLoad) {
+
+        /** A neighbourhood where a third of the households have solar panels. */
+        public static final ProfileMix DEFAULT = new ProfileMix(30, 10, 20, 40);
+
+        public ProfileMix {
+            if (solar < 0 || battery < 0 || flexibleLoad < 0 || baseLoad < 0 || solar + battery + flexibleLoad + baseLoad == 0) {
+                throw new IllegalArgumentException("Profile weights must be non-negative and not all zero");
+            }
+        }
+
+        Profile draw(Random rand) {
+            int draw = rand.nextInt(solar + battery + flexibleLoad + baseLoad);
+            if (draw < solar) {
+                return Profile.SOLAR;
+            }
+            if (draw < solar + battery) {
+                return Profile.BATTERY;
+            }
+            return draw < solar + battery + flexibleLoad ? Profile.FLEXIBLE_LOAD : Profile.BASE_LOAD;
+        }
+    }
+
+    private final Random rand;
+    private final int households;
+    private final int slot;
+    private final int largestOrder;
+    private final ProfileMix mix;
+    private final int priceLevels;
+    private final double clusterLevel;
+    private int nextHousehold;
+
+    private ProsumerOrders(long seed, int households, int slot, int largestOrder, ProfileMix mix, int priceLevels) {
+        this.rand = new Random(seed);
+        this.households = households;
+        this.slot = slot;
+        this.largestOrder = largestOrder;
+        this.mix = mix;
+        this.priceLevels = priceLevels;
+        // Most households price around the same levels, which lie somewhere in the middle of the ladder.
+        this.clusterLevel = (priceLevels - 1) / 2.0 + (rand.nextDouble() - 0.5) * priceLevels / 3.0;
+    }
+
+    /** Orders of {@code households} households of the default mix on the {@code SecretOrderInput} price levels. */
+    public static ProsumerOrders generate(long seed, int households, int slot, int largestOrder) {
+        return generate(seed, households, slot, largestOrder, ProfileMix.DEFAULT, OrderBook.PRICE_LEVELS);
+    }
+
+    /**
+     * Orders of {@code households} households in market {@code slot} of the day, with quantities up
+     * to {@code largestOrder}.
+     */
+    public static ProsumerOrders generate(long seed, int households, int slot, int largestOrder, ProfileMix mix, int priceLevels) {
+        if (households < 0 || households > Short.MAX_VALUE + 1) {
+            throw new IllegalArgumentException("Household ids are 16-bit, got " + households + " households");
+        }
+        if (slot < 0 || slot >= SLOTS_PER_DAY) {
+            throw new IllegalArgumentException("A day has " + SLOTS_PER_DAY + " slots, got slot " + slot);
+        }
+        if (largestOrder < 0 || largestOrder > Short.MAX_VALUE) {
+            throw new IllegalArgumentException("Quantities are 16-bit, got largest order " + largestOrder);
+        }
+        if (priceLevels < 1) {
+            throw new IllegalArgumentException("Expected at least one price level, got " + priceLevels);
+        }
+        return new ProsumerOrders(seed, households, slot, largestOrder, mix, priceLevels);
+    }
+
+    public boolean hasNext() {
+        return nextHousehold < households;
+    }
+
+    /** Writes the order of the next household into {@code record} and returns it. */
+    public short[] next(short[] record) {
+        if (!hasNext()) {
+            throw new NoSuchElementException("All " + households + " households have ordered");
+        }
+        if (record.length != recordLength()) {
+            throw new IllegalArgumentException("Expected a record of " + recordLength() + " shorts, got " + record.length);
+        }
+        Profile profile = mix.draw(rand);
+        boolean selling = profile.sells(slot);
+        int reservationLevel = (int) Math.round(clusterLevel + rand.nextGaussian() * priceLevels / 6.0);
+        if (profile == Profile.BATTERY && !selling) {
+            // Charging only pays off below the price the battery sells at.
+            reservationLevel--;
+        }
+        reservationLevel = Math.max(0, Math.min(priceLevels - 1, reservationLevel));
+        double volume = largestOrder * profile.volume(slot) * (0.5 + 0.5 * rand.nextDouble());
+
+        record[SIDE] = selling ? SELL : BUY;
+        record[ID] = (short) nextHousehold++;
+        for (int level = 0; level < priceLevels; level++) {
+            record[QUANTITIES + level] = (short) Math.round(quantity(profile, selling, reservationLevel, volume, level));
+        }
+        return record;
+    }
+
+    /**
+     * Quantity at {@code level}. Sell curves never fall and buy curves never rise with the price, as
+     * the cumulative curves of the testnet scripts.
+     */
+    private double quantity(Profile profile, boolean selling, int reservationLevel, double volume, int level) {
+        if (selling) {
+            return level < reservationLevel ? 0 : volume * (level - reservationLevel + 1) / (priceLevels - reservationLevel);
+        }
+        if (level <= reservationLevel) {
+            return volume;
+        }
+        int above = level - reservationLevel;
+        return profile == Profile.BASE_LOAD
+            ? volume * (priceLevels - above) / priceLevels
+            : Math.scalb(volume, -2 * above);
+    }
+
+    /** The remaining orders as a sequential stream of fresh records. */
+    public Stream<short[]> stream() {
+        return Stream.generate(() -> next(new short[recordLength()])).limit(households - nextHousehold);
+    }
+
+    /** Adds the remaining orders to the book of their side, reusing one record. */
+    public void fill(OrderBook sellOrders, OrderBook buyOrders) {
+        if (sellOrders.priceLevels() != priceLevels || buyOrders.priceLevels() != priceLevels) {
+            throw new IllegalArgumentException("Order book does not have " + priceLevels + " price levels");
+        }
+        short[] record = new short[recordLength()];
+        while (hasNext()) {
+            next(record);
+            OrderBook book = record[SIDE] == SELL ? sellOrders : buyOrders;
+            book.add(record[ID], record, QUANTITIES);
+        }
+    }
+
+    public int priceLevels() {
+        return priceLevels;
+    }
+
+    public int recordLength() {
+        return QUANTITIES + priceLevels;
+    }
+}
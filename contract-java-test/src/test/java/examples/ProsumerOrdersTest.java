@@ -0,0 +1,103 @@
+package examples;
+
+import org.assertj.core.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.NoSuchElementException;
+
+public final class ProsumerOrdersTest {
+
+    @Test
+    void shouldReplaySameOrdersForSameSeed() {
+        // Arrange
+        List<short[]> first = ProsumerOrders.generate(11, 200, 48, 50).stream().toList();
+
+        // Act
+        List<short[]> second = ProsumerOrders.generate(11, 200, 48, 50).stream().toList();
+
+        // Assert
+        Assertions.assertThat(second).hasSize(200);
+        for (int i = 0; i < first.size(); i++) {
+            Assertions.assertThat(second.get(i)).containsExactly(first.get(i));
+        }
+    }
+
+    @Test
+    void shouldKeepSellCurvesRisingAndBuyCurvesFalling() {
+        // Arrange
+        ProsumerOrders orders = ProsumerOrders.generate(5, 2000, 52, 100);
+        short[] record = new short[orders.recordLength()];
+
+        // Act & Assert
+        for (int household = 0; orders.hasNext(); household++) {
+            orders.next(record);
+            Assertions.assertThat(record[ProsumerOrders.ID]).isEqualTo((short)household);
+            for (int level = 1; level < orders.priceLevels(); level++) {
+                short lower = record[ProsumerOrders.QUANTITIES + level - 1];
+                short higher = record[ProsumerOrders.QUANTITIES + level];
+                Assertions.assertThat(lower).isBetween((short)0, (short)100);
+                if (record[ProsumerOrders.SIDE] == ProsumerOrders.SELL) {
+                    Assertions.assertThat(higher).isGreaterThanOrEqualTo(lower);
+                } else {
+                    Assertions.assertThat(higher).isLessThanOrEqualTo(lower);
+                }
+            }
+        }
+    }
+
+    @Test
+    void shouldOnlySellFromSolarAtMidday() {
+        // Arrange
+        ProsumerOrders.ProfileMix solarOnly = new ProsumerOrders.ProfileMix(1, 0, 0, 0);
+        OrderBook midnightSells = new OrderBook(100);
+        OrderBook middaySells = new OrderBook(100);
+        OrderBook buys = new OrderBook(0);
+
+        // Act
+        ProsumerOrders.generate(3, 100, 0, 50, solarOnly, OrderBook.PRICE_LEVELS).fill(midnightSells, buys);
+        ProsumerOrders.generate(3, 100, 48, 50, solarOnly, OrderBook.PRICE_LEVELS).fill(middaySells, buys);
+
+        // Assert
+        int midnightSupply = 0;
+        int middaySupply = 0;
+        for (int order = 0; order < 100; order++) {
+            midnightSupply += midnightSells.quantity(order, OrderBook.PRICE_LEVELS - 1);
+            middaySupply += middaySells.quantity(order, OrderBook.PRICE_LEVELS - 1);
+        }
+        Assertions.assertThat(midnightSupply).isZero();
+        Assertions.assertThat(middaySupply).isPositive();
+    }
+
+    @Test
+    void shouldEncodeRecordLikeOrderBook() {
+        // Arrange
+        ProsumerOrders orders = ProsumerOrders.generate(7, 1, 80, 50);
+        short[] record = orders.next(new short[orders.recordLength()]);
+        OrderBook book = new OrderBook(1).add(record[ProsumerOrders.ID], record, ProsumerOrders.QUANTITIES);
+
+        // Act & Assert
+        Assertions.assertThat(SecretOrderInputs.encodeRecord(record)).usingRecursiveComparison().isEqualTo(SecretOrderInputs.encode(book, 0));
+    }
+
+    @Test
+    void shouldFailToReadPastLastHousehold() {
+        // Arrange
+        ProsumerOrders orders = ProsumerOrders.generate(1, 1, 0, 50);
+        short[] record = new short[orders.recordLength()];
+        orders.next(record);
+
+        // Act & Assert
+        Assertions.assertThatThrownBy(() -> orders.next(record))
+            .isInstanceOf(NoSuchElementException.class)
+            .hasMessageContaining("All 1 households have ordered");
+    }
+
+    @Test
+    void shouldFailToGenerateOutsideDay() {
+        // Act & Assert
+        Assertions.assertThatThrownBy(() -> ProsumerOrders.generate(1, 10, 96, 50))
+            .isInstanceOf(IllegalArgumentException.class)
+            .hasMessageContaining("A day has 96 slots, got slot 96");
+    }
+}
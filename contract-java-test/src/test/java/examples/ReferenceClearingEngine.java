@@ -0,0 +1,238 @@
+package examples;
+
+/**
+ * Plain Java implementation of the clearing pipeline of the double auction contracts: supply and
+ * demand totals, the market clearing price index search and the two-pointer matching loop of
+ * {@code save_opened_variable}.
+ *
+ * <p>The engine works on {@link OrderBook}s and keeps all intermediate results in arrays allocated
+ * once for the given capacity, so a single instance can clear any number of auctions without
+ * allocating. Arithmetic is done on {@code short}s to wrap exactly like the {@code i16}/{@code Sbi16}
+ * arithmetic of the contracts.
+ *
+ * <p>Engines created with {@link #forPriceLadder} clear books of cumulative orders on a price ladder
+ * like the {@code double_auction_ladder} computation of {@code optimized-zk-double-auction}.
+ */
+public final class ReferenceClearingEngine {
+
+    /**
+     * Order in which the price levels are visited when searching for the smallest difference between
+     * supply and demand. Later levels win ties, matching {@code calculate_market_clearing_price_index}.
+     */
+    private static final int[] CLEARING_SEARCH_ORDER = {0, 5, 1, 4, 2, 3};
+
+    private final boolean aggregateOrders;
+    private final int priceLevels;
+    private final boolean priceLadder;
+
+    private final short[] totalSupply;
+    private final short[] totalDemand;
+    private final short[] sellQuantities;
+    private final short[] buyQuantities;
+
+    private final short[] tradeBuyerIds;
+    private final short[] tradeSellerIds;
+    private final short[] tradeQuantities;
+    private int tradeCount;
+    private int marketClearingPriceIndex = -1;
+
+    /**
+     * Creates an engine for books of at most {@code capacityPerSide} orders per side.
+     *
+     * @param aggregateOrders whether order curves are made cumulative before clearing, as done by the
+     *     public {@code double-auction} contract but not by {@code optimized-zk-double-auction}
+     */
+    public ReferenceClearingEngine(int capacityPerSide, boolean aggregateOrders) {
+        this(capacityPerSide, aggregateOrders, OrderBook.PRICE_LEVELS, false);
+    }
+
+    /** Creates an engine for books of cumulative orders on a price ladder of {@code priceLevels} levels. */
+    public static ReferenceClearingEngine forPriceLadder(int capacityPerSide, int priceLevels) {
+        return new ReferenceClearingEngine(capacityPerSide, false, priceLevels, true);
+    }
+
+    private ReferenceClearingEngine(int capacityPerSide, boolean aggregateOrders, int priceLevels, boolean priceLadder) {
+        this.aggregateOrders = aggregateOrders;
+        this.priceLevels = priceLevels;
+        this.priceLadder = priceLadder;
+        this.totalSupply = new short[priceLevels];
+        this.totalDemand = new short[priceLevels];
+        this.sellQuantities = new short[capacityPerSide];
+        this.buyQuantities = new short[capacityPerSide];
+        this.tradeBuyerIds = new short[2 * capacityPerSide];
+        this.tradeSellerIds = new short[2 * capacityPerSide];
+        this.tradeQuantities = new short[2 * capacityPerSide];
+    }
+
+    /** Clears one auction. The results stay available until the next call. */
+    public void clear(OrderBook sellOrders, OrderBook buyOrders) {
+        if (sellOrders.size() > sellQuantities.length || buyOrders.size() > buyQuantities.length) {
+            throw new IllegalArgumentException("Order book exceeds engine capacity of " + sellQuantities.length);
+        }
+        if (sellOrders.priceLevels() != priceLevels || buyOrders.priceLevels() != priceLevels) {
+            throw new IllegalArgumentException("Order book does not have " + priceLevels + " price levels");
+        }
+        sumQuantities(sellOrders, true, totalSupply);
+        sumQuantities(buyOrders, false, totalDemand);
+
+        marketClearingPriceIndex = priceLadder
+            ? ladderClearingPriceIndex(totalSupply, totalDemand)
+            : marketClearingPriceIndex(totalSupply, totalDemand);
+
+        selectQuantities(sellOrders, true, marketClearingPriceIndex, sellQuantities);
+        selectQuantities(buyOrders, false, marketClearingPriceIndex, buyQuantities);
+
+        match(sellOrders, buyOrders);
+    }
+
+    private void sumQuantities(OrderBook book, boolean selling, short[] totals) {
+        for (int level = 0; level < priceLevels; level++) {
+            totals[level] = 0;
+        }
+        short[] quantities = book.rawQuantities();
+        for (int order = 0; order < book.size(); order++) {
+            int offset = order * priceLevels;
+            for (int level = 0; level < priceLevels; level++) {
+                short quantity = aggregateOrders
+                    ? cumulativeQuantity(quantities, offset, level, selling)
+                    : quantities[offset + level];
+                totals[level] = (short) (totals[level] + quantity);
+            }
+        }
+    }
+
+    /**
+     * Quantity of a cumulative order curve at the given level: sellers are willing to sell their
+     * quantity at every higher price, and buyers to buy theirs at every lower price.
+     */
+    private short cumulativeQuantity(short[] quantities, int offset, int level, boolean selling) {
+        short aggregate = 0;
+        int from = selling ? 0 : level;
+        int to = selling ? level : priceLevels - 1;
+        for (int i = from; i <= to; i++) {
+            aggregate = (short) (aggregate + quantities[offset + i]);
+        }
+        return aggregate;
+    }
+
+    static int marketClearingPriceIndex(short[] totalSupply, short[] totalDemand) {
+        short minDemandDifference = Short.MAX_VALUE;
+        int index = 0;
+        for (int level : CLEARING_SEARCH_ORDER) {
+            short demandDifference = totalSupply[level] < totalDemand[level]
+                ? (short) (totalDemand[level] - totalSupply[level])
+                : (short) (totalSupply[level] - totalDemand[level]);
+            if (demandDifference <= minDemandDifference) {
+                minDemandDifference = demandDifference;
+                index = level;
+            }
+        }
+        return index;
+    }
+
+    /**
+     * Clearing level of cumulative curves: the first level where supply is at least demand, or the
+     * level below it if supply and demand are strictly closer there. The last level is used if demand
+     * exceeds supply everywhere. For cumulative curves this is the level the binary search of
+     * {@code double_auction_ladder} finds.
+     */
+    static int ladderClearingPriceIndex(short[] totalSupply, short[] totalDemand) {
+        int levels = totalSupply.length;
+        int index = levels - 1;
+        for (int level = 0; level < levels; level++) {
+            if ((short) (totalSupply[level] - totalDemand[level]) >= 0) {
+                index = level;
+                break;
+            }
+        }
+        if (index > 0
+            && Math.abs((short) (totalSupply[index - 1] - totalDemand[index - 1]))
+                < Math.abs((short) (totalSupply[index] - totalDemand[index]))) {
+            return index - 1;
+        }
+        return index;
+    }
+
+    private void selectQuantities(OrderBook book, boolean selling, int level, short[] selected) {
+        short[] quantities = book.rawQuantities();
+        for (int order = 0; order < book.size(); order++) {
+            int offset = order * priceLevels;
+            selected[order] = aggregateOrders
+                ? cumulativeQuantity(quantities, offset, level, selling)
+                : quantities[offset + level];
+        }
+    }
+
+    private void match(OrderBook sellOrders, OrderBook buyOrders) {
+        tradeCount = 0;
+        int sellIndex = 0;
+        int buyIndex = 0;
+        while (sellIndex < sellOrders.size() && buyIndex < buyOrders.size()) {
+            short seller = sellQuantities[sellIndex];
+            short buyer = buyQuantities[buyIndex];
+            short sellerId = sellOrders.id(sellIndex);
+            short buyerId = buyOrders.id(buyIndex);
+            short quantity;
+            if (seller == buyer) {
+                quantity = buyer;
+                sellIndex++;
+                buyIndex++;
+            } else if (seller < buyer) {
+                quantity = seller;
+                buyQuantities[buyIndex] = (short) (buyer - seller);
+                sellIndex++;
+            } else {
+                quantity = buyer;
+                sellQuantities[sellIndex] = (short) (seller - buyer);
+                buyIndex++;
+            }
+            if (quantity > 0) {
+                tradeBuyerIds[tradeCount] = buyerId;
+                tradeSellerIds[tradeCount] = sellerId;
+                tradeQuantities[tradeCount] = quantity;
+                tradeCount++;
+            }
+        }
+    }
+
+    public int marketClearingPriceIndex() {
+        return marketClearingPriceIndex;
+    }
+
+    public short totalSupply(int level) {
+        return totalSupply[level];
+    }
+
+    public short totalDemand(int level) {
+        return totalDemand[level];
+    }
+
+    public int tradeCount() {
+        return tradeCount;
+    }
+
+    public short tradeBuyerId(int trade) {
+        return tradeBuyerIds[trade];
+    }
+
+    public short tradeSellerId(int trade) {
+        return tradeSellerIds[trade];
+    }
+
+    public short tradeQuantity(int trade) {
+        return tradeQuantities[trade];
+    }
+
+    /** Visits the trades of the last auction in the order the contracts store them. */
+    public void forEachTrade(TradeConsumer consumer) {
+        for (int trade = 0; trade < tradeCount; trade++) {
+            consumer.accept(tradeBuyerIds[trade], tradeSellerIds[trade], tradeQuantities[trade]);
+        }
+    }
+
+    /** Receives one trade without boxing. */
+    @FunctionalInterface
+    public interface TradeConsumer {
+        void accept(short buyerId, short sellerId, short quantity);
+    }
+}
@@ -0,0 +1,218 @@
+package examples;
+
+import org.assertj.core.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+import java.util.Random;
+
+public final class ReferenceClearingEngineTest {
+
+    @Test
+    void shouldMatchOptimizedZkDoubleAuctionInTheMiddle() {
+        // Arrange
+        OrderBook sellOrders = new OrderBook(3)
+            .add(1, 0, 0, 5, 5, 10, 10)
+            .add(2, 0, 0, 0, 0, 0, 500)
+            .add(3, 5, 6, 7, 8, 9, 10);
+        OrderBook buyOrders = new OrderBook(3)
+            .add(4, 500, 0, 0, 0, 0, 0)
+            .add(5, 15, 15, 3, 0, 0, 0)
+            .add(6, 10, 9, 8, 7, 6, 5);
+        ReferenceClearingEngine engine = new ReferenceClearingEngine(3, false);
+
+        // Act
+        engine.clear(sellOrders, buyOrders);
+
+        // Assert
+        Assertions.assertThat(engine.marketClearingPriceIndex()).isEqualTo(2);
+        Assertions.assertThat(engine.tradeCount()).isEqualTo(3);
+        Assertions.assertThat(trade(engine, 0)).containsExactly(5, 1, 3);
+        Assertions.assertThat(trade(engine, 1)).containsExactly(6, 1, 2);
+        Assertions.assertThat(trade(engine, 2)).containsExactly(6, 3, 6);
+    }
+
+    @Test
+    void shouldAggregateOrdersLikeDoubleAuction() {
+        // Arrange
+        OrderBook sellOrders = new OrderBook(2)
+            .add(1, 0, 0, 50, 0, 0, 0)
+            .add(2, 0, 0, 0, 0, 0, 0);
+        OrderBook buyOrders = new OrderBook(2)
+            .add(3, 0, 0, 0, 100, 0, 0)
+            .add(4, 0, 0, 0, 0, 0, 0);
+        ReferenceClearingEngine engine = new ReferenceClearingEngine(2, true);
+
+        // Act
+        engine.clear(sellOrders, buyOrders);
+
+        // Assert
+        Assertions.assertThat(engine.marketClearingPriceIndex()).isEqualTo(3);
+        Assertions.assertThat(engine.tradeCount()).isEqualTo(1);
+        Assertions.assertThat(trade(engine, 0)).containsExactly(3, 1, 50);
+    }
+
+    @Test
+    void shouldPreferLaterLevelsInSearchOrderOnTies() {
+        // Arrange
+        OrderBook sellOrders = new OrderBook(1).add(1, 0, 0, 0, 0, 0, 0);
+        OrderBook buyOrders = new OrderBook(1).add(2, 0, 0, 0, 0, 0, 0);
+        ReferenceClearingEngine engine = new ReferenceClearingEngine(1, false);
+
+        // Act
+        engine.clear(sellOrders, buyOrders);
+
+        // Assert
+        Assertions.assertThat(engine.marketClearingPriceIndex()).isEqualTo(3);
+        Assertions.assertThat(engine.tradeCount()).isZero();
+    }
+
+    @Test
+    void shouldBalanceTradedQuantitiesOverManyHouseholds() {
+        // Arrange
+        int households = 5_000;
+        Random rand = new Random(42);
+        OrderBook sellOrders = new OrderBook(households);
+        OrderBook buyOrders = new OrderBook(households);
+        for (int i = 0; i < households; i++) {
+            sellOrders.add(i, 0, rand.nextInt(2), rand.nextInt(3), rand.nextInt(4), rand.nextInt(5), rand.nextInt(6));
+            buyOrders.add(i, rand.nextInt(6), rand.nextInt(5), rand.nextInt(4), rand.nextInt(3), rand.nextInt(2), 0);
+        }
+        ReferenceClearingEngine engine = new ReferenceClearingEngine(households, false);
+
+        // Act
+        engine.clear(sellOrders, buyOrders);
+
+        // Assert
+        int level = engine.marketClearingPriceIndex();
+        long traded = 0;
+        for (int trade = 0; trade < engine.tradeCount(); trade++) {
+            Assertions.assertThat(engine.tradeQuantity(trade)).isPositive();
+            traded += engine.tradeQuantity(trade);
+        }
+        long supply = 0;
+        long demand = 0;
+        for (int i = 0; i < households; i++) {
+            supply += sellOrders.quantity(i, level);
+            demand += buyOrders.quantity(i, level);
+        }
+        Assertions.assertThat(traded).isEqualTo(Math.min(supply, demand));
+    }
+
+    @Test
+    void shouldFindLadderClearingLevelLikeObliviousBinarySearch() {
+        Random rand = new Random(7);
+        for (int levels = 2; levels <= SecretOrderInputs.MAX_PRICE_LEVELS; levels++) {
+            for (int sample = 0; sample < 50; sample++) {
+                // Arrange
+                short[] supply = cumulativeCurve(rand, levels, true);
+                short[] demand = cumulativeCurve(rand, levels, false);
+
+                // Act
+                int index = ReferenceClearingEngine.ladderClearingPriceIndex(supply, demand);
+
+                // Assert
+                Assertions.assertThat(index).isEqualTo(binarySearchClearingIndex(supply, demand));
+            }
+        }
+    }
+
+    @Test
+    void shouldClearPriceLadderOrders() {
+        // Arrange
+        OrderBook sellOrders = new OrderBook(2, 8)
+            .add(1, 0, 0, 1, 2, 4, 6, 8, 10)
+            .add(2, 0, 1, 1, 1, 3, 3, 5, 5);
+        OrderBook buyOrders = new OrderBook(2, 8)
+            .add(3, 12, 10, 8, 6, 3, 1, 0, 0)
+            .add(4, 6, 6, 4, 4, 2, 2, 0, 0);
+        ReferenceClearingEngine engine = ReferenceClearingEngine.forPriceLadder(2, 8);
+
+        // Act
+        engine.clear(sellOrders, buyOrders);
+
+        // Assert
+        Assertions.assertThat(engine.marketClearingPriceIndex()).isEqualTo(4);
+        Assertions.assertThat(engine.tradeCount()).isEqualTo(3);
+        Assertions.assertThat(trade(engine, 0)).containsExactly(3, 1, 3);
+        Assertions.assertThat(trade(engine, 1)).containsExactly(4, 1, 1);
+        Assertions.assertThat(trade(engine, 2)).containsExactly(4, 2, 1);
+    }
+
+    @Test
+    void shouldPickSameLevelAsTournamentSearchIncludingTies() {
+        Random rand = new Random(3);
+        for (int sample = 0; sample < 10_000; sample++) {
+            // Arrange
+            short[] supply = new short[OrderBook.PRICE_LEVELS];
+            short[] demand = new short[OrderBook.PRICE_LEVELS];
+            for (int level = 0; level < OrderBook.PRICE_LEVELS; level++) {
+                supply[level] = (short) rand.nextInt(8);
+                demand[level] = (short) rand.nextInt(8);
+            }
+
+            // Act
+            int index = ReferenceClearingEngine.marketClearingPriceIndex(supply, demand);
+
+            // Assert
+            Assertions.assertThat(index).isEqualTo(tournamentClearingIndex(supply, demand));
+        }
+    }
+
+    /** Port of {@code calculate_market_clearing_price_index_tournament}. */
+    private static int tournamentClearingIndex(short[] supply, short[] demand) {
+        int[] searchOrder = {0, 5, 1, 4, 2, 3};
+        short[] differences = new short[searchOrder.length];
+        int[] indices = new int[searchOrder.length];
+        for (int i = 0; i < searchOrder.length; i++) {
+            int level = searchOrder[i];
+            differences[i] = supply[level] < demand[level]
+                ? (short) (demand[level] - supply[level])
+                : (short) (supply[level] - demand[level]);
+            indices[i] = level;
+        }
+        for (int width = searchOrder.length; width > 1; width = (width + 1) / 2) {
+            for (int i = 0; i < (width + 1) / 2; i++) {
+                int winner = i < width / 2 && differences[2 * i + 1] <= differences[2 * i] ? 2 * i + 1 : 2 * i;
+                differences[i] = differences[winner];
+                indices[i] = indices[winner];
+            }
+        }
+        return indices[0];
+    }
+
+    /** Port of the halving search of {@code calculate_ladder_clearing_price_index}. */
+    private static int binarySearchClearingIndex(short[] supply, short[] demand) {
+        short[] window = new short[SecretOrderInputs.MAX_PRICE_LEVELS];
+        Arrays.fill(window, Short.MAX_VALUE);
+        for (int i = 0; i < supply.length; i++) {
+            window[i] = (short) (supply[i] - demand[i]);
+        }
+        int index = 0;
+        Short below = null;
+        for (int width = window.length; width > 1; width /= 2) {
+            int half = width / 2;
+            short lowerLast = window[half - 1];
+            if (lowerLast < 0) {
+                index += half;
+                below = lowerLast;
+                System.arraycopy(window, half, window, 0, half);
+            }
+        }
+        return below != null && Math.abs(below) < Math.abs(window[0]) ? index - 1 : index;
+    }
+
+    private static short[] cumulativeCurve(Random rand, int levels, boolean selling) {
+        short[] curve = new short[levels];
+        short total = 0;
+        for (int level = 0; level < levels; level++) {
+            total += (short) rand.nextInt(40);
+            curve[selling ? level : levels - 1 - level] = total;
+        }
+        return curve;
+    }
+
+    private static int[] trade(ReferenceClearingEngine engine, int trade) {
+        return new int[] {engine.tradeBuyerId(trade), engine.tradeSellerId(trade), engine.tradeQuantity(trade)};
+    }
+}
@@ -0,0 +1,199 @@
+package examples;
+
+import com.secata.stream.BitOutput;
+import com.secata.stream.CompactBitArray;
+
+/**
+ * Encodes orders of an {@link OrderBook} as the secret inputs of {@code optimized-zk-double-auction}:
+ * a single {@code SecretOrderInput}, a {@code SecretOrderBatchInput} carrying
+ * {@link #ORDER_BATCH_SIZE} orders in one input, or a {@code SecretLadderOrderInput} for price
+ * ladders of up to {@link #MAX_PRICE_LEVELS} levels. Ids and quantities are written in the
+ * {@link OrderWidths} the contract is compiled with, {@link OrderWidths#DEFAULT} unless given.
+ */
+public final class SecretOrderInputs {
+
+    /** Number of orders in one {@code SecretOrderBatchInput}, see {@code ORDER_BATCH_SIZE} in the contract. */
+    public static final int ORDER_BATCH_SIZE = 8;
+    /** Number of quantities in one {@code SecretLadderOrderInput}, see {@code MAX_PRICE_LEVELS} in the contract. */
+    public static final int MAX_PRICE_LEVELS = 64;
+
+    private SecretOrderInputs() {}
+
+    /**
+     * Bit widths of the secret ids and quantities, see {@code SecretId} and {@code SecretQuantity} in
+     * the contract. Both are 8 or 16 bits, and every id and quantity written must fit its width.
+     */
+    public record OrderWidths(int idBits, int quantityBits) {
+
+        /** The widths of the contract as shipped. */
+        public static final OrderWidths DEFAULT = new OrderWidths(16, 16);
+
+        public OrderWidths {
+            checkWidth("id", idBits);
+            checkWidth("quantity", quantityBits);
+        }
+
+        /**
+         * Parses widths written as {@code <idBits>x<quantityBits>}, e.g. {@code 16x8}, the name of the
+         * contract built with the matching {@code narrow-ids} and {@code narrow-quantities} features.
+         */
+        public static OrderWidths parse(String value) {
+            String[] bits = value.trim().split("x");
+            if (bits.length != 2) {
+                throw new IllegalArgumentException("Widths are written as <idBits>x<quantityBits>, got " + value);
+            }
+            return new OrderWidths(Integer.parseInt(bits[0]), Integer.parseInt(bits[1]));
+        }
+
+        /** Bytes of one opened {@code SecretOrderOutput}, an id and a quantity. */
+        public int orderOutputBytes() {
+            return (idBits + quantityBits) / 8;
+        }
+
+        @Override
+        public String toString() {
+            return idBits + "x" + quantityBits;
+        }
+
+        private static void checkWidth(String field, int bits) {
+            if (bits != 8 && bits != 16) {
+                throw new IllegalArgumentException("Secret " + field + " widths are 8 or 16 bits, got " + bits);
+            }
+        }
+
+        private void writeId(BitOutput bitOutput, int id) {
+            write(bitOutput, "id", id, idBits);
+        }
+
+        private void writeQuantity(BitOutput bitOutput, int quantity) {
+            write(bitOutput, "quantity", quantity, quantityBits);
+        }
+
+        private static void write(BitOutput bitOutput, String field, int value, int bits) {
+            if (value < 0 || value >= 1 << (bits - 1)) {
+                throw new IllegalArgumentException("The " + field + " " + value + " does not fit in " + bits + " secret bits");
+            }
+            bitOutput.writeUnsignedInt(value, bits);
+        }
+    }
+
+    /** Encodes order {@code order} of {@code book} as one {@code SecretOrderInput}. */
+    public static CompactBitArray encode(OrderBook book, int order) {
+        return encode(book, order, OrderWidths.DEFAULT);
+    }
+
+    /** Encodes order {@code order} of {@code book} as one {@code SecretOrderInput} of the given widths. */
+    public static CompactBitArray encode(OrderBook book, int order, OrderWidths widths) {
+        return BitOutput.serializeBits(bitOutput -> writeOrder(bitOutput, book, order, widths));
+    }
+
+    /** Encodes a {@link ProsumerOrders} record of {@link OrderBook#PRICE_LEVELS} levels as one {@code SecretOrderInput}. */
+    public static CompactBitArray encodeRecord(short[] record) {
+        return encodeRecord(record, OrderWidths.DEFAULT);
+    }
+
+    /** Encodes a {@link ProsumerOrders} record as one {@code SecretOrderInput} of the given widths. */
+    public static CompactBitArray encodeRecord(short[] record, OrderWidths widths) {
+        if (record.length != ProsumerOrders.QUANTITIES + OrderBook.PRICE_LEVELS) {
+            throw new IllegalArgumentException("A record of " + OrderBook.PRICE_LEVELS + " price levels holds "
+                + (ProsumerOrders.QUANTITIES + OrderBook.PRICE_LEVELS) + " shorts, got " + record.length);
+        }
+        return BitOutput.serializeBits(
+            bitOutput -> {
+            widths.writeId(bitOutput, record[ProsumerOrders.ID]);
+            for (int level = 0; level < OrderBook.PRICE_LEVELS; level++) {
+                widths.writeQuantity(bitOutput, record[ProsumerOrders.QUANTITIES + level]);
+            }
+        });
+    }
+
+    /**
+     * Encodes {@code count} orders of {@code book}, starting at {@code from}, as one
+     * {@code SecretOrderBatchInput}. Slots beyond {@code count} are filled with empty orders.
+     */
+    public static CompactBitArray encodeBatch(OrderBook book, int from, int count) {
+        return encodeBatch(book, from, count, OrderWidths.DEFAULT);
+    }
+
+    /** Encodes {@code count} orders of {@code book}, starting at {@code from}, in the given widths. */
+    public static CompactBitArray encodeBatch(OrderBook book, int from, int count, OrderWidths widths) {
+        if (count < 1 || count > ORDER_BATCH_SIZE) {
+            throw new IllegalArgumentException("A batch holds 1 to " + ORDER_BATCH_SIZE + " orders, got " + count);
+        }
+        return BitOutput.serializeBits(
+            bitOutput -> {
+            for (int slot = 0; slot < ORDER_BATCH_SIZE; slot++) {
+                if (slot < count) {
+                    writeOrder(bitOutput, book, from + slot, widths);
+                } else {
+                    writeEmptyOrder(bitOutput, widths);
+                }
+            }
+        });
+    }
+
+    /**
+     * Encodes order {@code order} of {@code book} as one {@code SecretLadderOrderInput}. Levels beyond
+     * the ladder of the book are filled with zero quantities.
+     */
+    public static CompactBitArray encodeLadder(OrderBook book, int order) {
+        return encodeLadder(book, order, OrderWidths.DEFAULT);
+    }
+
+    /** Encodes order {@code order} of {@code book} as one {@code SecretLadderOrderInput} of the given widths. */
+    public static CompactBitArray encodeLadder(OrderBook book, int order, OrderWidths widths) {
+        if (book.priceLevels() > MAX_PRICE_LEVELS) {
+            throw new IllegalArgumentException("A ladder order holds at most " + MAX_PRICE_LEVELS + " levels, got " + book.priceLevels());
+        }
+        return BitOutput.serializeBits(
+            bitOutput -> {
+            widths.writeId(bitOutput, book.id(order));
+            for (int level = 0; level < MAX_PRICE_LEVELS; level++) {
+                widths.writeQuantity(bitOutput, level < book.priceLevels() ? book.quantity(order, level) : 0);
+            }
+        });
+    }
+
+    /** Number of batch inputs needed to submit {@code orders} orders. */
+    public static int batchCount(int orders) {
+        return (orders + ORDER_BATCH_SIZE - 1) / ORDER_BATCH_SIZE;
+    }
+
+    private static void writeOrder(BitOutput bitOutput, OrderBook book, int order, OrderWidths widths) {
+        widths.writeId(bitOutput, book.id(order));
+        for (int level = 0; level < OrderBook.PRICE_LEVELS; level++) {
+            widths.writeQuantity(bitOutput, book.quantity(order, level));
+        }
+    }
+
+    private static void writeEmptyOrder(BitOutput bitOutput, OrderWidths widths) {
+        widths.writeId(bitOutput, 0);
+        for (int level = 0; level < OrderBook.PRICE_LEVELS; level++) {
+            widths.writeQuantity(bitOutput, 0);
+        }
+    }
+
+    public static byte[] buyOrderRpc() {
+        return new byte[] {0x40};
+    }
+
+    public static byte[] sellOrderRpc() {
+        return new byte[] {0x45};
+    }
+
+    public static byte[] buyOrderBatchRpc() {
+        return new byte[] {0x41};
+    }
+
+    public static byte[] sellOrderBatchRpc() {
+        return new byte[] {0x46};
+    }
+
+    public static byte[] buyLadderOrderRpc() {
+        return new byte[] {0x43};
+    }
+
+    public static byte[] sellLadderOrderRpc() {
+        return new byte[] {0x44};
+    }
+}
@@ -0,0 +1,65 @@
+package examples;
+
+import org.assertj.core.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+public final class SecretOrderInputsTest {
+
+    private static final SecretOrderInputs.OrderWidths NARROW = new SecretOrderInputs.OrderWidths(8, 8);
+
+    @Test
+    void shouldEncodeOrdersThatFitNarrowWidths() {
+        // Arrange
+        OrderBook book = new OrderBook(1);
+        book.add(127, new int[] {0, 10, 20, 30, 40, 127});
+
+        // Act & Assert
+        Assertions.assertThatCode(() -> SecretOrderInputs.encode(book, 0, NARROW)).doesNotThrowAnyException();
+        Assertions.assertThatCode(() -> SecretOrderInputs.encodeBatch(book, 0, 1, NARROW)).doesNotThrowAnyException();
+        Assertions.assertThatCode(() -> SecretOrderInputs.encodeLadder(book, 0, NARROW)).doesNotThrowAnyException();
+    }
+
+    @Test
+    void shouldFailToEncodeQuantityWiderThanSecret() {
+        // Arrange
+        OrderBook book = new OrderBook(1);
+        book.add(1, new int[] {0, 10, 20, 30, 40, 128});
+
+        // Act & Assert
+        Assertions.assertThatThrownBy(() -> SecretOrderInputs.encode(book, 0, NARROW))
+            .isInstanceOf(IllegalArgumentException.class)
+            .hasMessageContaining("The quantity 128 does not fit in 8 secret bits");
+    }
+
+    @Test
+    void shouldFailToEncodeIdWiderThanSecret() {
+        // Arrange
+        OrderBook book = new OrderBook(1);
+        book.add(200, new int[] {0, 0, 0, 0, 0, 0});
+
+        // Act & Assert
+        Assertions.assertThatThrownBy(() -> SecretOrderInputs.encodeLadder(book, 0, NARROW))
+            .isInstanceOf(IllegalArgumentException.class)
+            .hasMessageContaining("The id 200 does not fit in 8 secret bits");
+    }
+
+    @Test
+    void shouldFailToCreateWidthWithoutSecretType() {
+        // Act & Assert
+        Assertions.assertThatThrownBy(() -> new SecretOrderInputs.OrderWidths(16, 12))
+            .isInstanceOf(IllegalArgumentException.class)
+            .hasMessageContaining("Secret quantity widths are 8 or 16 bits, got 12");
+    }
+
+    @Test
+    void shouldParseWidthsOfNarrowedContract() {
+        // Act
+        SecretOrderInputs.OrderWidths widths = SecretOrderInputs.OrderWidths.parse("16x8");
+
+        // Assert
+        Assertions.assertThat(widths).isEqualTo(new SecretOrderInputs.OrderWidths(16, 8));
+        Assertions.assertThat(widths.orderOutputBytes()).isEqualTo(3);
+        Assertions.assertThat(widths).hasToString("16x8");
+        Assertions.assertThat(SecretOrderInputs.OrderWidths.DEFAULT.orderOutputBytes()).isEqualTo(4);
+    }
+}
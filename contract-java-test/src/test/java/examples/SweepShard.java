@@ -0,0 +1,50 @@
+package examples;
+
+import java.util.Map;
+
+/**
+ * The points of a complexity sweep that one worker of {@link ParallelSweepTool} runs. Points are
+ * numbered in the order {@link ComplexityTool#runComplexitySweep} visits them and dealt out round
+ * robin, so every shard gets a similar mix of small and large auctions.
+ *
+ * <p>The shard is bound to the worker thread for the duration of one test run, which is how the
+ * sweep, started through the JUnit launcher on that thread, finds it.
+ */
+final class SweepShard {
+
+    private static final ThreadLocal<SweepShard> CURRENT = new ThreadLocal<>();
+
+    private final int index;
+    private final int count;
+    private final Map<Integer, ComplexityTool.SweepPoint> results;
+
+    SweepShard(int index, int count, Map<Integer, ComplexityTool.SweepPoint> results) {
+        this.index = index;
+        this.count = count;
+        this.results = results;
+    }
+
+    /** The shard bound to the calling thread, or {@code null} when the whole sweep should run. */
+    static SweepShard current() {
+        return CURRENT.get();
+    }
+
+    /** Binds this shard to the calling thread while {@code run} runs. */
+    void runBound(Runnable run) {
+        CURRENT.set(this);
+        try {
+            run.run();
+        } finally {
+            CURRENT.remove();
+        }
+    }
+
+    boolean owns(int pointIndex) {
+        return pointIndex % count == index;
+    }
+
+    /** Hands over the result of point {@code pointIndex}; {@code results} must be thread safe. */
+    void add(int pointIndex, ComplexityTool.SweepPoint point) {
+        results.put(pointIndex, point);
+    }
+}
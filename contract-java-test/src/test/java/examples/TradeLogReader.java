@@ -0,0 +1,134 @@
+package examples;
+
+import com.partisiablockchain.language.abicodegen.OptimizedZkDoubleAuction;
+
+import java.io.ByteArrayOutputStream;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Cursor over the {@code TradeLog} of {@code optimized-zk-double-auction}, decoding one trade at a
+ * time so that large auctions can be paged through without building a list of every trade.
+ *
+ * <p>Each trade is a sequence of LEB128 varints: {@code buyerId << 1 | sameSeller}, the seller id
+ * if the seller differs from the previous trade, and the quantity. See {@code trade_log.rs}.
+ */
+public final class TradeLogReader {
+
+    private final byte[] encoded;
+    private final int tradeCount;
+
+    private int position;
+    private int tradesRead;
+    private short buyerId;
+    private short sellerId;
+    private short quantity;
+
+    public TradeLogReader(byte[] encoded, int tradeCount) {
+        this.encoded = encoded;
+        this.tradeCount = tradeCount;
+    }
+
+    public static TradeLogReader of(OptimizedZkDoubleAuction.TradeLog log) {
+        return new TradeLogReader(log.encoded(), log.tradeCount());
+    }
+
+    public int tradeCount() {
+        return tradeCount;
+    }
+
+    /** Moves to the next trade, returning {@code false} when every trade has been read. */
+    public boolean next() {
+        if (tradesRead == tradeCount) {
+            return false;
+        }
+        int header = readVarint();
+        buyerId = (short) (header >>> 1);
+        if ((header & 1) == 0) {
+            sellerId = (short) readVarint();
+        }
+        quantity = (short) readVarint();
+        tradesRead++;
+        return true;
+    }
+
+    public short buyerId() {
+        return buyerId;
+    }
+
+    public short sellerId() {
+        return sellerId;
+    }
+
+    public short quantity() {
+        return quantity;
+    }
+
+    /**
+     * Visits at most {@code pageSize} trades starting with trade {@code firstTrade}, and returns the
+     * number visited. Paging forward continues from the current position; paging backwards decodes
+     * from the start again.
+     */
+    public int forEachInPage(int firstTrade, int pageSize, ReferenceClearingEngine.TradeConsumer consumer) {
+        if (firstTrade < tradesRead) {
+            position = 0;
+            tradesRead = 0;
+        }
+        while (tradesRead < firstTrade && next()) {
+            // Skip trades before the page.
+        }
+        int visited = 0;
+        while (visited < pageSize && next()) {
+            consumer.accept(buyerId, sellerId, quantity);
+            visited++;
+        }
+        return visited;
+    }
+
+    /** Decodes every remaining trade into a list. Intended for tests of small auctions. */
+    public List<Trade> toList() {
+        List<Trade> trades = new ArrayList<>(tradeCount - tradesRead);
+        while (next()) {
+            trades.add(new Trade(buyerId, sellerId, quantity));
+        }
+        return trades;
+    }
+
+    private int readVarint() {
+        int value = 0;
+        int shift = 0;
+        byte current;
+        do {
+            current = encoded[position++];
+            value |= (current & 0x7F) << shift;
+            shift += 7;
+        } while ((current & 0x80) != 0);
+        return value;
+    }
+
+    /** Encodes trades the way the contract does, e.g. to build states for benchmarks. */
+    public static byte[] encode(short[] buyerIds, short[] sellerIds, short[] quantities, int count) {
+        ByteArrayOutputStream output = new ByteArrayOutputStream(3 * count);
+        for (int trade = 0; trade < count; trade++) {
+            boolean sameSeller = trade > 0 && sellerIds[trade] == sellerIds[trade - 1];
+            writeVarint(output, (Short.toUnsignedInt(buyerIds[trade]) << 1) | (sameSeller ? 1 : 0));
+            if (!sameSeller) {
+                writeVarint(output, Short.toUnsignedInt(sellerIds[trade]));
+            }
+            writeVarint(output, Short.toUnsignedInt(quantities[trade]));
+        }
+        return output.toByteArray();
+    }
+
+    private static void writeVarint(ByteArrayOutputStream output, int value) {
+        int remaining = value;
+        while (remaining >= 0x80) {
+            output.write((remaining & 0x7F) | 0x80);
+            remaining >>>= 7;
+        }
+        output.write(remaining);
+    }
+
+    /** One decoded trade. */
+    public record Trade(short buyerId, short sellerId, short quantity) { }
+}
@@ -0,0 +1,59 @@
+package examples;
+
+import org.assertj.core.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+public final class TradeLogReaderTest {
+
+    @Test
+    void shouldStoreSellerOnceForRunsOfTrades() {
+        // Arrange
+        short[] buyerIds = {5, 6, 6};
+        short[] sellerIds = {1, 1, 3};
+        short[] quantities = {3, 2, 6};
+
+        // Act
+        byte[] encoded = TradeLogReader.encode(buyerIds, sellerIds, quantities, 3);
+
+        // Assert
+        Assertions.assertThat(encoded).containsExactly(10, 1, 3, 13, 2, 12, 3, 6);
+        Assertions.assertThat(new TradeLogReader(encoded, 3).toList()).containsExactly(
+            new TradeLogReader.Trade((short) 5, (short) 1, (short) 3),
+            new TradeLogReader.Trade((short) 6, (short) 1, (short) 2),
+            new TradeLogReader.Trade((short) 6, (short) 3, (short) 6));
+    }
+
+    @Test
+    void shouldPageThroughTradesOfLargeAuction() {
+        // Arrange
+        int count = 1_000;
+        short[] buyerIds = new short[count];
+        short[] sellerIds = new short[count];
+        short[] quantities = new short[count];
+        for (int trade = 0; trade < count; trade++) {
+            buyerIds[trade] = (short) (500 + trade / 2);
+            sellerIds[trade] = (short) (trade / 3);
+            quantities[trade] = (short) (1 + trade * 37 % 300);
+        }
+        TradeLogReader reader = new TradeLogReader(TradeLogReader.encode(buyerIds, sellerIds, quantities, count), count);
+
+        // Act
+        List<Integer> pageSizes = new ArrayList<>();
+        List<Short> pagedQuantities = new ArrayList<>();
+        for (int first = 0; first < count; first += 128) {
+            pageSizes.add(reader.forEachInPage(first, 128, (buyerId, sellerId, quantity) -> pagedQuantities.add(quantity)));
+        }
+        List<Short> revisited = new ArrayList<>();
+        reader.forEachInPage(999, 128, (buyerId, sellerId, quantity) -> revisited.add(sellerId));
+
+        // Assert
+        Assertions.assertThat(pageSizes).hasSize(8).endsWith(1000 - 7 * 128);
+        for (int trade = 0; trade < count; trade++) {
+            Assertions.assertThat(pagedQuantities.get(trade)).isEqualTo(quantities[trade]);
+        }
+        Assertions.assertThat(revisited).containsExactly(sellerIds[999]);
+    }
+}
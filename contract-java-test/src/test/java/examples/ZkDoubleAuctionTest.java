@@ -5,13 +5,16 @@ import com.partisiablockchain.language.abicodegen.ZkDoubleAuction;
 import com.partisiablockchain.language.junit.ContractBytes;
 import com.partisiablockchain.language.junit.ContractTest;
 import com.partisiablockchain.language.junit.JunitContractTest;
+import com.partisiablockchain.language.junit.TxExecution;
 import com.partisiablockchain.language.junit.exceptions.ActionFailureException;
 import com.partisiablockchain.language.testenvironment.zk.node.task.PendingInputId;
 import com.partisiablockchain.language.testenvironment.zk.node.task.PendingOpenId;
 import com.secata.stream.BitOutput;
 import com.secata.stream.CompactBitArray;
 import java.nio.file.Path;
+import java.util.ArrayList;
 import java.util.List;
+import java.util.Random;
 import org.assertj.core.api.Assertions;
 
 public final class ZkDoubleAuctionTest extends JunitContractTest{
@@ -81,9 +84,11 @@ public final class ZkDoubleAuctionTest extends JunitContractTest{
         ZkDoubleAuction.ContractState state = ZkDoubleAuction.ContractState.deserialize(blockchain.getContractState(double_auction_contract));
 
         Assertions.assertThat(state.equilibriumPrice()).isEqualTo((short)3);
-        Assertions.assertThat(state.matchedOrders().size()).isEqualTo(10);
-        Assertions.assertThat(state.matchedOrders().get(0)).isEqualTo(new ZkDoubleAuction.SingleTradeResult((short)3,(short)1,(short)0));
-        Assertions.assertThat(state.matchedOrders().get(9)).isEqualTo(new ZkDoubleAuction.SingleTradeResult((short)0,(short)1,(short)0));
+        Assertions.assertThat(state.matchedOrders()).containsExactly(
+            new ZkDoubleAuction.SingleTradeResult((short)4,(short)1,(short)2),
+            new ZkDoubleAuction.SingleTradeResult((short)6,(short)1,(short)2),
+            new ZkDoubleAuction.SingleTradeResult((short)6,(short)2,(short)2),
+            new ZkDoubleAuction.SingleTradeResult((short)7,(short)2,(short)1));
     }
 
     @ContractTest(previous = "deploy")
@@ -113,9 +118,11 @@ public final class ZkDoubleAuctionTest extends JunitContractTest{
         ZkDoubleAuction.ContractState state = ZkDoubleAuction.ContractState.deserialize(blockchain.getContractState(double_auction_contract));
 
         Assertions.assertThat(state.equilibriumPrice()).isEqualTo((short)0);
-        Assertions.assertThat(state.matchedOrders().size()).isEqualTo(10);
-        Assertions.assertThat(state.matchedOrders().get(0)).isEqualTo(new ZkDoubleAuction.SingleTradeResult((short)3,(short)1,(short)3));
-        Assertions.assertThat(state.matchedOrders().get(9)).isEqualTo(new ZkDoubleAuction.SingleTradeResult((short)0,(short)1,(short)0));
+        Assertions.assertThat(state.matchedOrders()).containsExactly(
+            new ZkDoubleAuction.SingleTradeResult((short)3,(short)1,(short)3),
+            new ZkDoubleAuction.SingleTradeResult((short)4,(short)1,(short)2),
+            new ZkDoubleAuction.SingleTradeResult((short)7,(short)1,(short)1),
+            new ZkDoubleAuction.SingleTradeResult((short)7,(short)2,(short)2));
     }
 
     @ContractTest(previous = "deploy")
@@ -145,9 +152,10 @@ public final class ZkDoubleAuctionTest extends JunitContractTest{
         ZkDoubleAuction.ContractState state = ZkDoubleAuction.ContractState.deserialize(blockchain.getContractState(double_auction_contract));
 
         Assertions.assertThat(state.equilibriumPrice()).isEqualTo((short)5);
-        Assertions.assertThat(state.matchedOrders().size()).isEqualTo(10);
-        Assertions.assertThat(state.matchedOrders().get(0)).isEqualTo(new ZkDoubleAuction.SingleTradeResult((short)3,(short)1,(short)3));
-        Assertions.assertThat(state.matchedOrders().get(9)).isEqualTo(new ZkDoubleAuction.SingleTradeResult((short)0,(short)1,(short)0));
+        Assertions.assertThat(state.matchedOrders()).containsExactly(
+            new ZkDoubleAuction.SingleTradeResult((short)3,(short)1,(short)3),
+            new ZkDoubleAuction.SingleTradeResult((short)7,(short)1,(short)1),
+            new ZkDoubleAuction.SingleTradeResult((short)7,(short)2,(short)1));
     }
 
     @ContractTest(previous = "deploy")
@@ -216,12 +224,195 @@ public final class ZkDoubleAuctionTest extends JunitContractTest{
         ZkDoubleAuction.ContractState state = ZkDoubleAuction.ContractState.deserialize(blockchain.getContractState(double_auction_contract));
 
         Assertions.assertThat(state.equilibriumPrice()).isEqualTo((short)3);
-        Assertions.assertThat(state.matchedOrders().size()).isEqualTo(10);
-        Assertions.assertThat(state.matchedOrders().get(0)).isEqualTo(new ZkDoubleAuction.SingleTradeResult((short)3,(short)1,(short)0));
-        Assertions.assertThat(state.matchedOrders().get(9)).isEqualTo(new ZkDoubleAuction.SingleTradeResult((short)0,(short)1,(short)0));
+        Assertions.assertThat(state.matchedOrders()).containsExactly(
+            new ZkDoubleAuction.SingleTradeResult((short)4,(short)1,(short)2),
+            new ZkDoubleAuction.SingleTradeResult((short)6,(short)1,(short)2),
+            new ZkDoubleAuction.SingleTradeResult((short)6,(short)2,(short)2),
+            new ZkDoubleAuction.SingleTradeResult((short)7,(short)2,(short)1));
     }
 
-    private record DoubleAuctionOrder(int houseId, int price, int price2, int price3, int price4, int price5, int price6){}
+    @ContractTest(previous = "deploy")
+    void matchHundredsOfHouseholds() {
+
+        Random rand = new Random(19);
+        List<DoubleAuctionOrder> sell_orders = new ArrayList<>();
+        List<DoubleAuctionOrder> buy_orders = new ArrayList<>();
+        for (int i = 0; i < 100; i++){
+            sell_orders.add(randomOrder(rand, i + 1));
+            blockchain.sendSecretInput(double_auction_contract, household2, createSecretInput(sell_orders.get(i)), secretInputSellingRpc());
+        }
+        for (int i = 0; i < 140; i++){
+            buy_orders.add(randomOrder(rand, i + 101));
+            blockchain.sendSecretInput(double_auction_contract, household3, createSecretInput(buy_orders.get(i)), secretInputBuyingRpc());
+        }
+
+        byte[] findEqPrice = ZkDoubleAuction.holdDoubleAuction();
+
+        blockchain.sendAction(household1, double_auction_contract, findEqPrice);
+
+        ZkDoubleAuction.ContractState state = ZkDoubleAuction.ContractState.deserialize(blockchain.getContractState(double_auction_contract));
+
+        int equilibriumPrice = equilibriumPrice(sell_orders, buy_orders);
+        Assertions.assertThat(state.equilibriumPrice()).isEqualTo((short)equilibriumPrice);
+        Assertions.assertThat(state.matchedOrders()).containsExactlyElementsOf(expectedTrades(sell_orders, buy_orders, equilibriumPrice));
+        Assertions.assertThat(state.matchedOrders().size()).isLessThan(sell_orders.size() + buy_orders.size());
+    }
+
+    @ContractTest(previous = "deploy")
+    void shouldKeepCostOverRepeatedHolds() {
+
+        Random rand = new Random(22);
+        List<DoubleAuctionOrder> sell_orders = new ArrayList<>();
+        List<DoubleAuctionOrder> buy_orders = new ArrayList<>();
+        for (int i = 0; i < 10; i++){
+            sell_orders.add(randomOrder(rand, i + 1));
+            buy_orders.add(randomOrder(rand, i + 11));
+        }
+
+        List<Long> multiplications = new ArrayList<>();
+        List<Long> rounds = new ArrayList<>();
+        for (int hold = 0; hold < 3; hold++){
+            for (int i = 0; i < 10; i++){
+                blockchain.sendSecretInput(double_auction_contract, household2, createSecretInput(sell_orders.get(i)), secretInputSellingRpc());
+                blockchain.sendSecretInput(double_auction_contract, household3, createSecretInput(buy_orders.get(i)), secretInputBuyingRpc());
+            }
+
+            blockchain.sendAction(household1, double_auction_contract, ZkDoubleAuction.holdDoubleAuction());
+            multiplications.add(zkNodes.getComplexityOfLastComputation().multiplicationCount());
+            rounds.add(zkNodes.getComplexityOfLastComputation().numberOfRounds());
+
+            ZkDoubleAuction.ContractState state = ZkDoubleAuction.ContractState.deserialize(blockchain.getContractState(double_auction_contract));
+            int equilibriumPrice = equilibriumPrice(sell_orders, buy_orders);
+            Assertions.assertThat(state.matchedOrders()).containsExactlyElementsOf(expectedTrades(sell_orders, buy_orders, equilibriumPrice));
+
+            blockchain.sendAction(household1, double_auction_contract, ZkDoubleAuction.resetContract());
+        }
+
+        Assertions.assertThat(multiplications).containsOnly(multiplications.get(0));
+        Assertions.assertThat(rounds).containsOnly(rounds.get(0));
+    }
+
+    /**
+     * The gas of an action grows with the variables in the ZK state, which are passed to it. Orders
+     * without a quantity do not change the result of an auction, so once a hold deletes the variables
+     * it consumed, the gas after it does not depend on how many orders there were.
+     */
+    @ContractTest(previous = "deploy")
+    void shouldDeleteConsumedVariablesWhenHeld() {
+
+        Random rand = new Random(23);
+        List<DoubleAuctionOrder> sell_orders = new ArrayList<>();
+        List<DoubleAuctionOrder> buy_orders = new ArrayList<>();
+        for (int i = 0; i < 10; i++){
+            sell_orders.add(randomOrder(rand, i + 1));
+            buy_orders.add(randomOrder(rand, i + 11));
+        }
+        byte[] updatePrices = ZkDoubleAuction.updatePrices((short)1,(short)65);
+
+        for (int i = 0; i < 10; i++){
+            blockchain.sendSecretInput(double_auction_contract, household2, createSecretInput(sell_orders.get(i)), secretInputSellingRpc());
+            blockchain.sendSecretInput(double_auction_contract, household3, createSecretInput(buy_orders.get(i)), secretInputBuyingRpc());
+        }
+        blockchain.sendAction(household1, double_auction_contract, ZkDoubleAuction.holdDoubleAuction());
+        ZkDoubleAuction.ContractState heldState = ZkDoubleAuction.ContractState.deserialize(blockchain.getContractState(double_auction_contract));
+        TxExecution afterHold = blockchain.sendAction(household1, double_auction_contract, updatePrices);
+        blockchain.sendAction(household1, double_auction_contract, ZkDoubleAuction.resetContract());
+
+        for (int i = 0; i < 10; i++){
+            blockchain.sendSecretInput(double_auction_contract, household2, createSecretInput(sell_orders.get(i)), secretInputSellingRpc());
+            blockchain.sendSecretInput(double_auction_contract, household3, createSecretInput(buy_orders.get(i)), secretInputBuyingRpc());
+            blockchain.sendSecretInput(double_auction_contract, household4, createSecretInput(new DoubleAuctionOrder(i + 21, 0, 0, 0, 0, 0, 0)), secretInputSellingRpc());
+        }
+        blockchain.sendAction(household1, double_auction_contract, ZkDoubleAuction.holdDoubleAuction());
+        ZkDoubleAuction.ContractState heldStateWithEmptyOrders = ZkDoubleAuction.ContractState.deserialize(blockchain.getContractState(double_auction_contract));
+        TxExecution afterHoldWithEmptyOrders = blockchain.sendAction(household1, double_auction_contract, updatePrices);
+
+        blockchain.sendSecretInput(double_auction_contract, household2, createSecretInput(sell_orders.get(0)), secretInputSellingRpc());
+        TxExecution withUnconsumedOrder = blockchain.sendAction(household1, double_auction_contract, updatePrices);
+
+        Assertions.assertThat(heldStateWithEmptyOrders.equilibriumPrice()).isEqualTo(heldState.equilibriumPrice());
+        Assertions.assertThat(heldStateWithEmptyOrders.matchedOrders()).containsExactlyElementsOf(heldState.matchedOrders());
+        Assertions.assertThat(afterHoldWithEmptyOrders.getGasCost()).isEqualTo(afterHold.getGasCost());
+        Assertions.assertThat(withUnconsumedOrder.getGasCost()).isGreaterThan(afterHoldWithEmptyOrders.getGasCost());
+    }
+
+    @ContractTest(previous = "deploy")
+    void shouldMatchOrdersAtQuantityLimit() {
+
+        List<DoubleAuctionOrder> sell_orders = new ArrayList<>();
+        List<DoubleAuctionOrder> buy_orders = new ArrayList<>();
+        for (int i = 0; i < 128; i++){
+            int sellQuantity = i < 127 ? 255 : Short.MAX_VALUE - 127 * 255;
+            int buyQuantity = i == 0 ? 100 : i < 127 ? 255 : Short.MAX_VALUE - 1 - 100 - 126 * 255;
+            sell_orders.add(new DoubleAuctionOrder(i + 1, sellQuantity, sellQuantity, sellQuantity, sellQuantity, sellQuantity, sellQuantity));
+            buy_orders.add(new DoubleAuctionOrder(i + 129, buyQuantity, buyQuantity, buyQuantity, buyQuantity, buyQuantity, buyQuantity));
+            blockchain.sendSecretInput(double_auction_contract, household2, createSecretInput(sell_orders.get(i)), secretInputSellingRpc());
+            blockchain.sendSecretInput(double_auction_contract, household3, createSecretInput(buy_orders.get(i)), secretInputBuyingRpc());
+        }
+
+        blockchain.sendAction(household1, double_auction_contract, ZkDoubleAuction.holdDoubleAuction());
+
+        ZkDoubleAuction.ContractState state = ZkDoubleAuction.ContractState.deserialize(blockchain.getContractState(double_auction_contract));
+
+        Assertions.assertThat(sell_orders.stream().mapToInt(order -> order.quantity(0)).sum()).isEqualTo(Short.MAX_VALUE);
+        Assertions.assertThat(state.equilibriumPrice()).isEqualTo((short)0);
+        Assertions.assertThat(state.matchedOrders()).containsExactlyElementsOf(expectedTrades(sell_orders, buy_orders, 0));
+        Assertions.assertThat(state.matchedOrders().stream().mapToInt(ZkDoubleAuction.SingleTradeResult::quantity).sum()).isEqualTo(Short.MAX_VALUE - 1);
+    }
+
+    /** Smallest price index where the supply exceeds the demand, or 0 if there is none. */
+    private static int equilibriumPrice(List<DoubleAuctionOrder> sellOrders, List<DoubleAuctionOrder> buyOrders) {
+        for (int index = 0; index < 6; index++){
+            int supply = 0;
+            int demand = 0;
+            for (DoubleAuctionOrder order : sellOrders){
+                supply += order.quantity(index);
+            }
+            for (DoubleAuctionOrder order : buyOrders){
+                demand += order.quantity(index);
+            }
+            if (supply > demand){
+                return index;
+            }
+        }
+        return 0;
+    }
+
+    /** The trades of filling the buy orders from each sell order in turn, as the contract first did. */
+    private static List<ZkDoubleAuction.SingleTradeResult> expectedTrades(List<DoubleAuctionOrder> sellOrders, List<DoubleAuctionOrder> buyOrders, int equilibriumPrice) {
+        int[] buyQuantities = buyOrders.stream().mapToInt(order -> order.quantity(equilibriumPrice)).toArray();
+        List<ZkDoubleAuction.SingleTradeResult> trades = new ArrayList<>();
+        for (DoubleAuctionOrder seller : sellOrders){
+            int sellQuantity = seller.quantity(equilibriumPrice);
+            for (int j = 0; j < buyOrders.size(); j++){
+                int traded = Math.min(sellQuantity, buyQuantities[j]);
+                sellQuantity -= traded;
+                buyQuantities[j] -= traded;
+                if (traded > 0){
+                    trades.add(new ZkDoubleAuction.SingleTradeResult((short)buyOrders.get(j).houseId(), (short)seller.houseId(), (short)traded));
+                }
+            }
+        }
+        return trades;
+    }
+
+    private static DoubleAuctionOrder randomOrder(Random rand, int houseId) {
+        return new DoubleAuctionOrder(houseId, rand.nextInt(10), rand.nextInt(10), rand.nextInt(10), rand.nextInt(10), rand.nextInt(10), rand.nextInt(10));
+    }
+
+    private record DoubleAuctionOrder(int houseId, int price, int price2, int price3, int price4, int price5, int price6){
+
+        int quantity(int index) {
+            return switch (index) {
+                case 0 -> price;
+                case 1 -> price2;
+                case 2 -> price3;
+                case 3 -> price4;
+                case 4 -> price5;
+                default -> price6;
+            };
+        }
+    }
 
     private CompactBitArray createSecretInput(DoubleAuctionOrder order) {
         return BitOutput.serializeBits(
@@ -6,6 +6,7 @@ use pbc_contract_common::address::Address;
 use create_type_spec_derive::CreateTypeSpec;
 use pbc_contract_common::context::ContractContext;
 use pbc_contract_common::events::EventGroup;
+use pbc_contract_common::sorted_vec_map::SortedVecMap;
 use read_write_state_derive::ReadWriteState;
 use read_write_rpc_derive::ReadRPC;
 use read_write_rpc_derive::WriteRPC;
@@ -40,12 +41,34 @@ pub struct OrderInput {
     pub quantity_per_price: [i16; 6],
 }
 
+/// An order with quantities accumulated over the prices, and the account that placed it.
+#[derive(ReadWriteState, CreateTypeSpec, Clone)]
+pub struct PlacedOrder {
+    pub placed_by: Address,
+    pub order: OrderInput,
+}
+
 #[derive(ReadWriteState, CreateTypeSpec, Clone, Copy)]
 pub struct Order {
     pub id: i16,
     pub quantity: i16,
 }
 
+/// Largest number of steps of the matching in one transaction. Every step uses up a sell order, a buy
+/// order or both, so auctions of up to this many orders at the clearing price, sell and buy orders
+/// together, are matched by the hold alone. Larger auctions are finished with `continue_matching`.
+const MATCHING_STEPS_PER_TRANSACTION: usize = 128;
+
+/// How far the matching of `sell_orders` against `buy_orders` has come. The orders before the indices
+/// are used up, and the remaining quantities are what is left of the orders at the indices.
+#[derive(ReadWriteState, CreateTypeSpec, Clone, Copy)]
+pub struct MatchingCursor {
+    pub sell_index: u32,
+    pub buy_index: u32,
+    pub sell_remaining: i16,
+    pub buy_remaining: i16,
+}
+
 #[state]
 pub struct ContractState {
     pub auction_holder: Address,
@@ -54,8 +77,16 @@ pub struct ContractState {
     pub matched_orders: Vec<Trade>,
     pub sell_orders: Vec<Order>,
     pub buy_orders: Vec<Order>,
-    pub sell_order_inputs: Vec<OrderInput>,
-    pub buy_order_inputs: Vec<OrderInput>,
+    /// Sell orders by id, with quantities accumulated from the lowest price upwards.
+    pub sell_order_inputs: SortedVecMap<i16, PlacedOrder>,
+    /// Buy orders by id, with quantities accumulated from the highest price downwards.
+    pub buy_order_inputs: SortedVecMap<i16, PlacedOrder>,
+    /// Accumulated quantities of every received sell order, summed per price.
+    pub total_supply: [i16; 6],
+    /// Accumulated quantities of every received buy order, summed per price.
+    pub total_demand: [i16; 6],
+    /// Position of the matching while it takes more than one transaction, if any.
+    pub matching: Option<MatchingCursor>,
 }
 
 #[init]
@@ -69,8 +100,11 @@ pub fn initialize(
         matched_orders: Vec::<Trade>::new(),
         sell_orders: Vec::<Order>::new(),
         buy_orders: Vec::<Order>::new(),
-        sell_order_inputs: Vec::<OrderInput>::new(),
-        buy_order_inputs: Vec::<OrderInput>::new(),
+        sell_order_inputs: SortedVecMap::new(),
+        buy_order_inputs: SortedVecMap::new(),
+        total_supply: [0; 6],
+        total_demand: [0; 6],
+        matching: None,
     }
 }
 
@@ -81,6 +115,7 @@ pub fn reset_contract(
 ) -> (ContractState, Vec<EventGroup>) {
     assert_eq!(state.auction_holder, ctx.sender, "Only the auction holder can reset!");
     assert_ne!(state.market_clearing_price_index.is_none(), true, "Cannot reset the contract before an auction!");
+    assert!(state.matching.is_none(), "Cannot reset the contract while the orders are being matched!");
 
     let new_state = ContractState {
         auction_holder: ctx.sender,
@@ -89,8 +124,11 @@ pub fn reset_contract(
         matched_orders: vec![],
         sell_orders: vec![],
         buy_orders: vec![],
-        sell_order_inputs: vec![],
-        buy_order_inputs: vec![],
+        sell_order_inputs: SortedVecMap::new(),
+        buy_order_inputs: SortedVecMap::new(),
+        total_supply: [0; 6],
+        total_demand: [0; 6],
+        matching: None,
     };
     (
         new_state,
@@ -118,27 +156,109 @@ pub fn update_prices (
 
 #[action(shortname = 0x40)]
 pub fn input_buy_order(
-    _ctx: ContractContext,
+    ctx: ContractContext,
     mut state: ContractState,
     buy_order: OrderInput,
 ) -> (
     ContractState,
     Vec<EventGroup>,
 ) {
-    state.buy_order_inputs.push(buy_order);
+    assert!(!state.buy_order_inputs.contains_key(&buy_order.id), "A buy order with this id has already been placed!");
+
+    let buy_order = aggregate_buy_order(buy_order);
+    add_quantities(&mut state.total_demand, &buy_order);
+    state.buy_order_inputs.insert(buy_order.id, PlacedOrder { placed_by: ctx.sender, order: buy_order });
     (state, vec![])
 }
 
 #[action(shortname = 0x45)]
 pub fn input_sell_order(
-    _ctx: ContractContext,
+    ctx: ContractContext,
+    mut state: ContractState,
+    sell_order: OrderInput,
+) -> (
+    ContractState,
+    Vec<EventGroup>,
+) {
+    assert!(!state.sell_order_inputs.contains_key(&sell_order.id), "A sell order with this id has already been placed!");
+
+    let sell_order = aggregate_sell_order(sell_order);
+    add_quantities(&mut state.total_supply, &sell_order);
+    state.sell_order_inputs.insert(sell_order.id, PlacedOrder { placed_by: ctx.sender, order: sell_order });
+    (state, vec![])
+}
+
+/// Replaces the buy order with the id of `buy_order`, which must have been placed by the sender.
+#[action(shortname = 0x41)]
+pub fn amend_buy_order(
+    ctx: ContractContext,
+    mut state: ContractState,
+    buy_order: OrderInput,
+) -> (
+    ContractState,
+    Vec<EventGroup>,
+) {
+    let buy_order = aggregate_buy_order(buy_order);
+    let placed = state.buy_order_inputs.get_mut(&buy_order.id).expect("No buy order with this id has been placed!");
+    assert_eq!(placed.placed_by, ctx.sender, "Only the household that placed the order can change it!");
+
+    subtract_quantities(&mut state.total_demand, &placed.order);
+    add_quantities(&mut state.total_demand, &buy_order);
+    placed.order = buy_order;
+    (state, vec![])
+}
+
+/// Replaces the sell order with the id of `sell_order`, which must have been placed by the sender.
+#[action(shortname = 0x46)]
+pub fn amend_sell_order(
+    ctx: ContractContext,
     mut state: ContractState,
     sell_order: OrderInput,
 ) -> (
     ContractState,
     Vec<EventGroup>,
 ) {
-    state.sell_order_inputs.push(sell_order);
+    let sell_order = aggregate_sell_order(sell_order);
+    let placed = state.sell_order_inputs.get_mut(&sell_order.id).expect("No sell order with this id has been placed!");
+    assert_eq!(placed.placed_by, ctx.sender, "Only the household that placed the order can change it!");
+
+    subtract_quantities(&mut state.total_supply, &placed.order);
+    add_quantities(&mut state.total_supply, &sell_order);
+    placed.order = sell_order;
+    (state, vec![])
+}
+
+#[action(shortname = 0x43)]
+pub fn cancel_buy_order(
+    ctx: ContractContext,
+    mut state: ContractState,
+    id: i16,
+) -> (
+    ContractState,
+    Vec<EventGroup>,
+) {
+    let placed = state.buy_order_inputs.get(&id).expect("No buy order with this id has been placed!");
+    assert_eq!(placed.placed_by, ctx.sender, "Only the household that placed the order can change it!");
+
+    let placed = state.buy_order_inputs.remove(&id).unwrap();
+    subtract_quantities(&mut state.total_demand, &placed.order);
+    (state, vec![])
+}
+
+#[action(shortname = 0x44)]
+pub fn cancel_sell_order(
+    ctx: ContractContext,
+    mut state: ContractState,
+    id: i16,
+) -> (
+    ContractState,
+    Vec<EventGroup>,
+) {
+    let placed = state.sell_order_inputs.get(&id).expect("No sell order with this id has been placed!");
+    assert_eq!(placed.placed_by, ctx.sender, "Only the household that placed the order can change it!");
+
+    let placed = state.sell_order_inputs.remove(&id).unwrap();
+    subtract_quantities(&mut state.total_supply, &placed.order);
     (state, vec![])
 }
 
@@ -149,6 +269,7 @@ pub fn hold_double_auction(
 ) -> (ContractState, Vec<EventGroup>) {
 
     assert_eq!(state.auction_holder, ctx.sender, "Only the auction holder can hold the auction!");
+    assert!(state.matching.is_none(), "Cannot hold the auction while the orders are being matched!");
 
     double_auction(
         ctx,
@@ -156,138 +277,151 @@ pub fn hold_double_auction(
     )
 }
 
+/// Matches the orders at the clearing price, as many steps as fit in this transaction. The rest is
+/// matched by `continue_matching`.
 fn save_opened_variable(
     _ctx: ContractContext,
     mut state: ContractState,
 ) -> (ContractState, Vec<EventGroup>) {
 
     state.matched_orders = vec![];
+    state.matching = Some(MatchingCursor {
+        sell_index: 0,
+        buy_index: 0,
+        sell_remaining: quantity_at(&state.sell_orders, 0),
+        buy_remaining: quantity_at(&state.buy_orders, 0),
+    });
+    match_orders(&mut state);
+    (
+        state,
+        vec![]
+    )
+}
+
+/// Continues the matching of an auction that did not finish in the transactions so far. Anyone can
+/// continue it, as the trades do not depend on who does.
+#[action(shortname = 0x03)]
+pub fn continue_matching(
+    _ctx: ContractContext,
+    mut state: ContractState,
+) -> (ContractState, Vec<EventGroup>) {
+    assert!(state.matching.is_some(), "No matching is in progress!");
 
-    let mut sell_orders: Vec<Order> = state.sell_orders.clone();
-    let mut buy_orders: Vec<Order> = state.buy_orders.clone();
-    sell_orders.reverse();
-    buy_orders.reverse();
+    match_orders(&mut state);
+    (state, vec![])
+}
 
-    let mut sell_order_index: usize = 0;
-    let mut buy_order_index: usize = 0;
-    
-    while sell_order_index < sell_orders.len() && buy_order_index < buy_orders.len()
+/// Matches from the cursor for at most `MATCHING_STEPS_PER_TRANSACTION` steps, and clears the cursor
+/// once either side is used up.
+fn match_orders(
+    state: &mut ContractState,
+) {
+    let mut cursor = state.matching.unwrap();
+    let mut sell_order_index: usize = cursor.sell_index as usize;
+    let mut buy_order_index: usize = cursor.buy_index as usize;
+    let mut steps: usize = 0;
+
+    while steps < MATCHING_STEPS_PER_TRANSACTION
+        && sell_order_index < state.sell_orders.len()
+        && buy_order_index < state.buy_orders.len()
     {
-        let seller: Order = sell_orders[sell_order_index];
-        let buyer: Order = buy_orders[buy_order_index];
         let mut trade: Trade = Trade::new_trade(
-            buyer.id,
-            seller.id,
+            state.buy_orders[buy_order_index].id,
+            state.sell_orders[sell_order_index].id,
             0,
         );
-        if seller.quantity == buyer.quantity {
+        if cursor.sell_remaining == cursor.buy_remaining {
+            trade.quantity = cursor.buy_remaining;
             sell_order_index = sell_order_index + 1;
             buy_order_index = buy_order_index + 1;
-            trade.quantity = buyer.quantity;
-            if buyer.quantity > 0
-            {
-                state.matched_orders.push(trade);
-            }
+            cursor.sell_remaining = quantity_at(&state.sell_orders, sell_order_index);
+            cursor.buy_remaining = quantity_at(&state.buy_orders, buy_order_index);
         }
-        else if seller.quantity < buyer.quantity
+        else if cursor.sell_remaining < cursor.buy_remaining
         {
+            trade.quantity = cursor.sell_remaining;
+            cursor.buy_remaining = cursor.buy_remaining - cursor.sell_remaining;
             sell_order_index = sell_order_index + 1;
-            buy_orders[buy_order_index].quantity = buyer.quantity - seller.quantity;
-            trade.quantity = seller.quantity;
-            if seller.quantity > 0
-            {
-                state.matched_orders.push(trade);
-            }
+            cursor.sell_remaining = quantity_at(&state.sell_orders, sell_order_index);
         }
-        else if seller.quantity > buyer.quantity
+        else
         {
+            trade.quantity = cursor.buy_remaining;
+            cursor.sell_remaining = cursor.sell_remaining - cursor.buy_remaining;
             buy_order_index = buy_order_index + 1;
-            sell_orders[sell_order_index].quantity = seller.quantity - buyer.quantity;
-            trade.quantity = buyer.quantity;
-            if buyer.quantity > 0
-            {
-                state.matched_orders.push(trade);
-            }
+            cursor.buy_remaining = quantity_at(&state.buy_orders, buy_order_index);
         }
-    } 
-    (
-        state,
-        vec![]
-    )
-}
-
-fn aggregate_sell_orders(
-    sell_order_inputs: &Vec<OrderInput>,
-) -> Vec<OrderInput> {
-    let mut sell_orders: Vec<OrderInput> = vec![];
-
-    for supply in sell_order_inputs.iter()
-    {
-        let mut sell_order = OrderInput {
-            id: supply.id,
-            quantity_per_price: supply.quantity_per_price,
-        };
-        let mut supply_aggregate = 0;
-        for i in 0usize..6usize
+        if trade.quantity > 0
         {
-            sell_order.quantity_per_price[i] = sell_order.quantity_per_price[i] + supply_aggregate;
-            supply_aggregate = sell_order.quantity_per_price[i];
+            state.matched_orders.push(trade);
         }
-        sell_orders.push(sell_order);
+        steps = steps + 1;
+    }
+
+    if sell_order_index < state.sell_orders.len() && buy_order_index < state.buy_orders.len()
+    {
+        cursor.sell_index = sell_order_index as u32;
+        cursor.buy_index = buy_order_index as u32;
+        state.matching = Some(cursor);
+    }
+    else
+    {
+        state.matching = None;
     }
-    sell_orders
 }
 
-fn aggregate_buy_orders(
-    buy_order_inputs: &Vec<OrderInput>,
-) -> Vec<OrderInput> {
-    let mut buy_orders: Vec<OrderInput> = vec![];
+/// Quantity of the order at `index`, or 0 past the last order.
+fn quantity_at(
+    orders: &[Order],
+    index: usize,
+) -> i16 {
+    orders.get(index).map_or(0, |order| order.quantity)
+}
 
-    for demand in buy_order_inputs.iter()
+fn aggregate_sell_order(
+    sell_order_input: OrderInput,
+) -> OrderInput {
+    let mut sell_order = sell_order_input;
+    let mut supply_aggregate = 0;
+    for i in 0usize..6usize
     {
-        let mut buy_order = OrderInput {
-            id: demand.id,
-            quantity_per_price: demand.quantity_per_price,
-        };
-        let mut demand_aggregate = 0;
-        for i in 0usize..6usize
-        {
-            buy_order.quantity_per_price[5-i] = buy_order.quantity_per_price[5-i] + demand_aggregate;
-            demand_aggregate = buy_order.quantity_per_price[5-i];
-        }
-        buy_orders.push(buy_order);
+        sell_order.quantity_per_price[i] = sell_order.quantity_per_price[i] + supply_aggregate;
+        supply_aggregate = sell_order.quantity_per_price[i];
     }
-    buy_orders
+    sell_order
 }
 
-fn calculate_total_supply(
-    sell_order_inputs: &[OrderInput],
-) -> [i16; 6] {
-    let mut total_supply = [0; 6];
-
-    for supply in sell_order_inputs.iter()
+fn aggregate_buy_order(
+    buy_order_input: OrderInput,
+) -> OrderInput {
+    let mut buy_order = buy_order_input;
+    let mut demand_aggregate = 0;
+    for i in 0usize..6usize
     {
-        for i in 0usize..6usize
-        {
-            total_supply[i] = total_supply[i] + supply.quantity_per_price[i];
-        }
+        buy_order.quantity_per_price[5-i] = buy_order.quantity_per_price[5-i] + demand_aggregate;
+        demand_aggregate = buy_order.quantity_per_price[5-i];
     }
-    total_supply
+    buy_order
 }
 
-fn calculate_total_demand(
-    buy_order_inputs: &[OrderInput],
-) -> [i16; 6] {
-    let mut total_demand = [0; 6];
+fn add_quantities(
+    totals: &mut [i16; 6],
+    order: &OrderInput,
+) {
+    for i in 0usize..6usize
+    {
+        totals[i] = totals[i] + order.quantity_per_price[i];
+    }
+}
 
-    for demand in buy_order_inputs.iter()
+fn subtract_quantities(
+    totals: &mut [i16; 6],
+    order: &OrderInput,
+) {
+    for i in 0usize..6usize
     {
-        for i in 0usize..6usize
-        {
-            total_demand[i] = total_demand[i] + demand.quantity_per_price[i];
-        }
+        totals[i] = totals[i] - order.quantity_per_price[i];
     }
-    total_demand
 }
 
 fn calculate_market_clearing_price_index(
@@ -310,12 +444,12 @@ fn calculate_market_clearing_price_index(
 }
 
 fn calculate_sell_order_outputs(
-    sell_orders: &Vec<OrderInput>,
+    sell_orders: &SortedVecMap<i16, PlacedOrder>,
     market_clearing_price_index: i16,
 ) -> Vec<Order> {
     let mut sell_order_outputs = vec![];
 
-    for offer in sell_orders.iter().rev()
+    for offer in sell_orders.values().map(|placed| &placed.order)
     {
         let mut quantity = 0;
 
@@ -338,12 +472,12 @@ fn calculate_sell_order_outputs(
 }
 
 fn calculate_buy_order_outputs(
-    buy_orders: &Vec<OrderInput>,
+    buy_orders: &SortedVecMap<i16, PlacedOrder>,
     market_clearing_price_index: i16,
 ) -> Vec<Order> {
     let mut buy_order_outputs = vec![];
 
-    for offer in buy_orders.iter().rev()
+    for offer in buy_orders.values().map(|placed| &placed.order)
     {
         let mut quantity = 0;
 
@@ -372,24 +506,18 @@ fn double_auction(
     ContractState,
     Vec<EventGroup>)
 {
-    let sell_orders = aggregate_sell_orders(&state.sell_order_inputs);
-    let buy_orders = aggregate_buy_orders(&state.buy_order_inputs);
-
-    let total_supply = calculate_total_supply(&sell_orders);
-    let total_demand = calculate_total_demand(&buy_orders);
-
     state.market_clearing_price_index = 
         Some(calculate_market_clearing_price_index(
-            total_supply,
-            total_demand,
+            state.total_supply,
+            state.total_demand,
         ));
 
     state.sell_orders = calculate_sell_order_outputs(
-            &sell_orders,
+            &state.sell_order_inputs,
             state.market_clearing_price_index.unwrap(),
         );
     state.buy_orders = calculate_buy_order_outputs(
-            &buy_orders,
+            &state.buy_order_inputs,
             state.market_clearing_price_index.unwrap(),
         );
 
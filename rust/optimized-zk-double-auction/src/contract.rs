@@ -6,22 +6,56 @@ use pbc_contract_common::address::Address;
 use create_type_spec_derive::CreateTypeSpec;
 use pbc_contract_common::context::ContractContext;
 use pbc_contract_common::events::EventGroup;
-use pbc_contract_common::zk::{SecretVarId, ZkInputDef, ZkState, ZkStateChange};
+use pbc_contract_common::zk::{CalculationStatus, SecretVarId, ZkInputDef, ZkState, ZkStateChange};
 use read_write_state_derive::ReadWriteState;
+use read_write_rpc_derive::ReadRPC;
+use read_write_rpc_derive::WriteRPC;
 use pbc_traits::ReadWriteState;
 use std::vec::Vec;
 
+mod trade_log;
 mod zk_compute;
 
-use zk_compute::SecretOrderInput;
+use trade_log::{TradeLog, TradeLogWriter};
 
-const NUM_OF_SELL_ORDERS: usize = 85;
-const NUM_OF_BUY_ORDERS: usize = 85;
+use zk_compute::{
+    Id, PriceIndex, Quantity, SecretLadderOrderInput, SecretOrderBatchInput, SecretOrderInput, SlotCount,
+    COMPACTED_CHUNK_SLOTS, LADDER_ORDERS_PER_SIDE, MAX_PRICE_LEVELS, ORDER_BATCH_SIZE,
+};
+
+/// Number of order slots per side of each compute variant, smallest first. The auction is computed
+/// with the smallest tier that holds both the sell and the buy orders.
+const CAPACITY_TIERS: [usize; 5] = [8, 16, 32, 85, 128];
+
+/// Largest number of orders with six price levels per side of a round, the largest capacity tier.
+const MAX_ORDERS_PER_SIDE: usize = CAPACITY_TIERS[CAPACITY_TIERS.len() - 1];
+
+/// Size of one opened order slot, an id and a quantity in the widths of `zk_compute`.
+const ORDER_BYTES: usize = std::mem::size_of::<Id>() + std::mem::size_of::<Quantity>();
+
+/// Number of price levels of `SecretOrderInput` and `SecretOrderBatchInput` orders.
+const DEFAULT_PRICE_LEVELS: u32 = 6;
+
+/// Stages that `profile_stage` can compute on their own, see `zk_compute::stage_supply_demand` and
+/// `zk_compute::stage_clearing_price`.
+const PROFILE_SUPPLY_DEMAND: u8 = 1;
+const PROFILE_CLEARING_PRICE: u8 = 2;
+
+/// Number of earlier rounds whose results are kept in the state, one day of quarter-hourly markets.
+const MAX_KEPT_ROUND_RESULTS: usize = 96;
+
+/// Largest number of steps of the matching in one transaction. Every step uses up a sell order, a buy
+/// order or both, so auctions of up to this many orders with a non-zero quantity at the clearing
+/// price, sell and buy orders together, are matched when their outputs are opened. Larger auctions
+/// are finished with `continue_matching`.
+const MATCHING_STEPS_PER_TRANSACTION: usize = 128;
 
 #[derive(ReadWriteState, Debug)]
 #[repr(C)]
 struct SecretInputVarMetadata {
     order_type: SecretInputVarType,
+    /// Auction round the variable belongs to.
+    round: u32,
 }
 
 #[derive(ReadWriteState, Debug, PartialEq)]
@@ -30,27 +64,38 @@ enum SecretInputVarType {
     Buying = 1,
     Selling = 2,
     Matched = 3,
+    BuyingBatch = 4,
+    SellingBatch = 5,
+    Totals = 6,
+    BuyingLadder = 7,
+    SellingLadder = 8,
+    /// A chunk of the compacted sell or buy orders of an auction, see `COMPACTED_CHUNK_SLOTS`.
+    MatchedSellChunk = 9,
+    MatchedBuyChunk = 10,
+    /// Output of a stage profile, deleted without being opened.
+    Profile = 11,
+    /// The clearing price index of a two-phase auction, opened before its orders are selected.
+    ClearingIndex = 12,
 }
 
-#[derive(ReadWriteState, CreateTypeSpec, Clone)]
-pub struct Trade {
-    pub buyer_id: i16,
-    pub seller_id: i16,
-    pub quantity: i16,
-}
+impl SecretInputVarType {
+    /// Whether the variable is an order with six price levels, which are the orders that can be
+    /// folded into running totals.
+    fn is_six_level_order(&self) -> bool {
+        matches!(
+            self,
+            SecretInputVarType::Buying
+                | SecretInputVarType::Selling
+                | SecretInputVarType::BuyingBatch
+                | SecretInputVarType::SellingBatch
+        )
+    }
 
-impl Trade
-{
-    pub fn new_trade (
-        buyer_id:i16, 
-        seller_id:i16, 
-        quantity:i16
-    ) -> Self
-    {
-        Self{
-            buyer_id,
-            seller_id,
-            quantity
+    /// Number of orders in a variable of this type, counting every slot of a batch.
+    fn order_count(&self) -> usize {
+        match self {
+            SecretInputVarType::BuyingBatch | SecretInputVarType::SellingBatch => ORDER_BATCH_SIZE,
+            _ => 1,
         }
     }
 }
@@ -61,21 +106,144 @@ pub struct Order {
     pub quantity: i16,
 }
 
+/// A round that no longer accepts orders and waits for its auction computation.
+#[derive(ReadWriteState, CreateTypeSpec, Clone)]
+pub struct ClosedRound {
+    pub round: u32,
+    /// Raw id of the last order of the round included in its running totals, or 0 if there are none.
+    pub folded_through: u32,
+    /// Number of levels of the price ladder when the round was closed.
+    pub price_levels: u32,
+    /// Prices of the ladder when the round was closed, which its clearing price index refers to.
+    pub prices: Vec<i16>,
+}
+
+/// A fold of the orders of `round` up to raw id `through` that is currently running.
+#[derive(ReadWriteState, CreateTypeSpec, Clone, Copy)]
+pub struct Fold {
+    pub round: u32,
+    pub through: u32,
+}
+
+#[derive(ReadWriteState, CreateTypeSpec, Clone)]
+pub struct RoundResult {
+    pub round: u32,
+    /// Prices of the ladder the round was cleared on.
+    pub prices: Vec<i16>,
+    pub market_clearing_price_index: i16,
+    pub matched_orders: TradeLog,
+}
+
+/// Selects between variants of the computation that give the same result at different costs.
+#[derive(ReadWriteState, CreateTypeSpec, ReadRPC, WriteRPC, Clone, Copy)]
+pub struct ComputeOptions {
+    /// Sum supply and demand in a log-depth tree rather than one order at a time.
+    pub tree_aggregation: bool,
+    /// Fold every order into secret running totals as it arrives, so the auction only has to add
+    /// the orders received since the last fold.
+    pub incremental_totals: bool,
+    /// Search the clearing price level one level at a time rather than in a log-depth tournament.
+    pub sequential_price_search: bool,
+    /// Move the orders with a non-zero quantity at the clearing price to the front before opening,
+    /// and open only the chunks that hold them.
+    pub compact_outputs: bool,
+    /// Open the clearing price index first, and select the quantity of every order at the public
+    /// index in a second computation. Takes precedence over `compact_outputs`.
+    pub two_phase: bool,
+}
+
+/// The opened summary of a compacted auction, or the opened clearing price index of a two-phase
+/// auction with its number of orders, kept while the chunks of orders are selected and opened.
+#[derive(ReadWriteState, CreateTypeSpec, Clone, Copy)]
+pub struct CompactedClearing {
+    pub market_clearing_price_index: i16,
+    /// Number of sell orders in the chunks: those with a non-zero quantity at the clearing price if
+    /// compacted, and every sell order of the round in two phases.
+    pub sell_count: u32,
+    /// Number of buy orders in the chunks, counted as `sell_count`.
+    pub buy_count: u32,
+}
+
+/// An auction whose opened orders are being matched over several transactions. It becomes the result
+/// of `cleared_round` once either side is used up.
+#[derive(ReadWriteState, CreateTypeSpec, Clone)]
+pub struct Matching {
+    pub round: u32,
+    pub market_clearing_price_index: i16,
+    /// The opened orders with a non-zero quantity at the clearing price. The orders before the indices
+    /// are used up, and the quantities of the orders at the indices are what is left of them.
+    pub sell_orders: Vec<Order>,
+    pub buy_orders: Vec<Order>,
+    pub sell_index: u32,
+    pub buy_index: u32,
+    /// Trades matched so far.
+    pub trades: TradeLog,
+}
+
 #[state]
 struct ContractState {
     pub auction_holder: Address,
-    pub prices: [i16; 6],
+    /// Number of levels of the price ladder.
+    pub price_levels: u32,
+    pub prices: Vec<i16>,
     pub market_clearing_price_index: Option<i16>,
-    pub matched_orders: Vec<Trade>,
+    pub matched_orders: TradeLog,
+    pub compute_options: ComputeOptions,
+    /// Round that received orders are added to. Holding the auction closes it and opens the next.
+    pub current_round: u32,
+    /// Round that `market_clearing_price_index` and `matched_orders` belong to, if any.
+    pub cleared_round: Option<u32>,
+    /// Prices of the ladder `cleared_round` was cleared on. `prices` may already be those of a later
+    /// round.
+    pub cleared_prices: Vec<i16>,
+    /// Results of the rounds cleared before `cleared_round`, oldest first.
+    pub round_results: Vec<RoundResult>,
+    /// Closed rounds waiting for their auction computation, oldest first.
+    pub closed_rounds: Vec<ClosedRound>,
+    /// Round whose auction is being computed or opened, if any.
+    pub clearing_round: Option<u32>,
+    /// Prices of the ladder `clearing_round` is cleared on.
+    pub clearing_prices: Vec<i16>,
+    /// Raw id of the last order of the current round included in its running totals, or 0 if there are none.
+    pub folded_through: u32,
+    /// The fold that is currently running, if any.
+    pub folding: Option<Fold>,
+    /// Summary of the compacted or two-phase auction of `clearing_round` whose orders are being
+    /// selected or opened, if any.
+    pub compacted_clearing: Option<CompactedClearing>,
+    /// Whether a stage profile computation is running.
+    pub profiling: bool,
+    /// The matching of the auction of `clearing_round`, while it takes more than one transaction.
+    pub matching: Option<Matching>,
 }
 
 #[init(zk = true)]
 fn initialize(ctx: ContractContext, _zk_state: ZkState<SecretInputVarMetadata>) -> ContractState {
     ContractState {
         auction_holder: ctx.sender,
-        prices: [0; 6],
+        price_levels: DEFAULT_PRICE_LEVELS,
+        prices: vec![0; DEFAULT_PRICE_LEVELS as usize],
         market_clearing_price_index: None,
-        matched_orders: vec![],
+        matched_orders: TradeLog::default(),
+        compute_options: ComputeOptions {
+            tree_aggregation: false,
+            incremental_totals: false,
+            sequential_price_search: false,
+            compact_outputs: false,
+            two_phase: false,
+        },
+        current_round: 1,
+        cleared_round: None,
+        cleared_prices: vec![],
+        round_results: vec![],
+        closed_rounds: vec![],
+        clearing_round: None,
+        clearing_prices: vec![],
+        folded_through: 0,
+        folding: None,
+        compacted_clearing: None,
+        profiling: false,
+        matching: None,
     }
 }
 
@@ -87,12 +255,31 @@ fn reset_contract(
 ) -> (ContractState, Vec<EventGroup>, Vec<ZkStateChange>) {
     assert_eq!(state.auction_holder, ctx.sender, "Only the auction holder can reset!");
     assert_ne!(state.market_clearing_price_index.is_none(), true, "Cannot reset the contract before an auction!");
+    assert!(state.clearing_round.is_none(), "Cannot reset the contract while an auction is being computed!");
+    assert!(
+        state.folding.is_none() && !state.profiling,
+        "Cannot reset the contract while a computation runs!"
+    );
 
     let new_state = ContractState {
         auction_holder: ctx.sender,
-        prices: [0; 6],
+        price_levels: state.price_levels,
+        prices: vec![0; state.price_levels as usize],
         market_clearing_price_index: None,
-        matched_orders: vec![],
+        matched_orders: TradeLog::default(),
+        compute_options: state.compute_options,
+        current_round: state.current_round + 1,
+        cleared_round: None,
+        cleared_prices: vec![],
+        round_results: vec![],
+        closed_rounds: vec![],
+        clearing_round: None,
+        clearing_prices: vec![],
+        folded_through: 0,
+        folding: None,
+        compacted_clearing: None,
+        profiling: false,
+        matching: None,
     };
 
     let all_variables = zk_state
@@ -122,26 +309,73 @@ fn update_prices (
 {
     assert_eq!(state.auction_holder, ctx.sender, "Only the auction holder can update the prices!");
 
-    let price_step: i16 = (max - min) / 5;
-    for i in 0usize..6usize
+    let price_levels = state.price_levels as usize;
+    let price_step: i16 = (max - min) / (price_levels as i16 - 1);
+    for i in 0usize..price_levels
     {
         state.prices[i] = min + (price_step * i as i16);
     }
     (state, vec![], vec![])
 }
 
+/// Changes the number of levels of the price ladder and clears the prices, which must be set again
+/// with `update_prices`. Ladders of other than six levels take `SecretLadderOrderInput` orders.
+#[action(shortname = 0x4B, zk = true)]
+fn update_price_levels (
+    ctx: ContractContext,
+    mut state: ContractState,
+    zk_state: ZkState<SecretInputVarMetadata>,
+    price_levels: u32,
+) -> (ContractState, Vec<EventGroup>, Vec<ZkStateChange>)
+{
+    assert_eq!(state.auction_holder, ctx.sender, "Only the auction holder can update the price levels!");
+    assert!(
+        (2..=MAX_PRICE_LEVELS as u32).contains(&price_levels),
+        "A price ladder must have between 2 and {} levels!",
+        MAX_PRICE_LEVELS
+    );
+    let round = state.current_round;
+    let round_has_orders = zk_state
+        .secret_variables
+        .iter()
+        .chain(zk_state.pending_inputs.iter())
+        .any(|(_, variable)| variable.metadata.round == round);
+    assert!(!round_has_orders, "Cannot change the price levels of a round that has orders!");
+
+    state.price_levels = price_levels;
+    state.prices = vec![0; price_levels as usize];
+    (state, vec![], vec![])
+}
+
+#[action(shortname = 0x48, zk = true)]
+fn update_compute_options (
+    ctx: ContractContext,
+    mut state: ContractState,
+    _zk_state: ZkState<SecretInputVarMetadata>,
+    compute_options: ComputeOptions,
+) -> (ContractState, Vec<EventGroup>, Vec<ZkStateChange>)
+{
+    assert_eq!(state.auction_holder, ctx.sender, "Only the auction holder can update the compute options!");
+
+    state.compute_options = compute_options;
+    (state, vec![], vec![])
+}
+
 #[zk_on_secret_input(shortname = 0x40, secret_type = "SecretOrderInput")]
 fn secret_input_buy_order(
     _ctx: ContractContext,
     state: ContractState,
-    _zk_state: ZkState<SecretInputVarMetadata>,
+    zk_state: ZkState<SecretInputVarMetadata>,
 ) -> (
     ContractState,
     Vec<EventGroup>,
     ZkInputDef<SecretInputVarMetadata, SecretOrderInput>,
 ) {
+    assert_eq!(state.price_levels, DEFAULT_PRICE_LEVELS, "Orders on this price ladder must be ladder orders!");
+    assert_room_for_orders(&state, &zk_state, &[SecretInputVarType::Buying, SecretInputVarType::BuyingBatch], 1, MAX_ORDERS_PER_SIDE);
+
     let input_def =
-        ZkInputDef::with_metadata(None, SecretInputVarMetadata{order_type:SecretInputVarType::Buying,});
+        ZkInputDef::with_metadata(Some(SHORTNAME_ORDER_INPUTTED), SecretInputVarMetadata{order_type:SecretInputVarType::Buying, round: state.current_round,});
 
     (state, vec![], input_def)
 }
@@ -150,61 +384,511 @@ fn secret_input_buy_order(
 fn secret_input_sell_order(
     _ctx: ContractContext,
     state: ContractState,
-    _zk_state: ZkState<SecretInputVarMetadata>,
+    zk_state: ZkState<SecretInputVarMetadata>,
 ) -> (
     ContractState,
     Vec<EventGroup>,
     ZkInputDef<SecretInputVarMetadata, SecretOrderInput>,
 ) {
+    assert_eq!(state.price_levels, DEFAULT_PRICE_LEVELS, "Orders on this price ladder must be ladder orders!");
+    assert_room_for_orders(&state, &zk_state, &[SecretInputVarType::Selling, SecretInputVarType::SellingBatch], 1, MAX_ORDERS_PER_SIDE);
+
     let input_def =
         ZkInputDef::with_metadata(
-            None, 
+            Some(SHORTNAME_ORDER_INPUTTED), 
             SecretInputVarMetadata{
                 order_type: SecretInputVarType::Selling,
+                round: state.current_round,
+            });
+
+    (state, vec![], input_def)
+}
+
+#[zk_on_secret_input(shortname = 0x41, secret_type = "SecretOrderBatchInput")]
+fn secret_input_buy_order_batch(
+    _ctx: ContractContext,
+    state: ContractState,
+    zk_state: ZkState<SecretInputVarMetadata>,
+) -> (
+    ContractState,
+    Vec<EventGroup>,
+    ZkInputDef<SecretInputVarMetadata, SecretOrderBatchInput>,
+) {
+    assert_eq!(state.price_levels, DEFAULT_PRICE_LEVELS, "Orders on this price ladder must be ladder orders!");
+    assert_room_for_orders(&state, &zk_state, &[SecretInputVarType::Buying, SecretInputVarType::BuyingBatch], ORDER_BATCH_SIZE, MAX_ORDERS_PER_SIDE);
+
+    let input_def =
+        ZkInputDef::with_metadata(
+            Some(SHORTNAME_ORDER_INPUTTED),
+            SecretInputVarMetadata{
+                order_type: SecretInputVarType::BuyingBatch,
+                round: state.current_round,
+            });
+
+    (state, vec![], input_def)
+}
+
+#[zk_on_secret_input(shortname = 0x46, secret_type = "SecretOrderBatchInput")]
+fn secret_input_sell_order_batch(
+    _ctx: ContractContext,
+    state: ContractState,
+    zk_state: ZkState<SecretInputVarMetadata>,
+) -> (
+    ContractState,
+    Vec<EventGroup>,
+    ZkInputDef<SecretInputVarMetadata, SecretOrderBatchInput>,
+) {
+    assert_eq!(state.price_levels, DEFAULT_PRICE_LEVELS, "Orders on this price ladder must be ladder orders!");
+    assert_room_for_orders(&state, &zk_state, &[SecretInputVarType::Selling, SecretInputVarType::SellingBatch], ORDER_BATCH_SIZE, MAX_ORDERS_PER_SIDE);
+
+    let input_def =
+        ZkInputDef::with_metadata(
+            Some(SHORTNAME_ORDER_INPUTTED),
+            SecretInputVarMetadata{
+                order_type: SecretInputVarType::SellingBatch,
+                round: state.current_round,
+            });
+
+    (state, vec![], input_def)
+}
+
+#[zk_on_secret_input(shortname = 0x43, secret_type = "SecretLadderOrderInput")]
+fn secret_input_buy_ladder_order(
+    _ctx: ContractContext,
+    state: ContractState,
+    zk_state: ZkState<SecretInputVarMetadata>,
+) -> (
+    ContractState,
+    Vec<EventGroup>,
+    ZkInputDef<SecretInputVarMetadata, SecretLadderOrderInput>,
+) {
+    assert_ne!(state.price_levels, DEFAULT_PRICE_LEVELS, "Orders on this price ladder must not be ladder orders!");
+    assert_room_for_orders(&state, &zk_state, &[SecretInputVarType::BuyingLadder], 1, LADDER_ORDERS_PER_SIDE);
+
+    let input_def =
+        ZkInputDef::with_metadata(
+            Some(SHORTNAME_ORDER_INPUTTED),
+            SecretInputVarMetadata{
+                order_type: SecretInputVarType::BuyingLadder,
+                round: state.current_round,
+            });
+
+    (state, vec![], input_def)
+}
+
+#[zk_on_secret_input(shortname = 0x44, secret_type = "SecretLadderOrderInput")]
+fn secret_input_sell_ladder_order(
+    _ctx: ContractContext,
+    state: ContractState,
+    zk_state: ZkState<SecretInputVarMetadata>,
+) -> (
+    ContractState,
+    Vec<EventGroup>,
+    ZkInputDef<SecretInputVarMetadata, SecretLadderOrderInput>,
+) {
+    assert_ne!(state.price_levels, DEFAULT_PRICE_LEVELS, "Orders on this price ladder must not be ladder orders!");
+    assert_room_for_orders(&state, &zk_state, &[SecretInputVarType::SellingLadder], 1, LADDER_ORDERS_PER_SIDE);
+
+    let input_def =
+        ZkInputDef::with_metadata(
+            Some(SHORTNAME_ORDER_INPUTTED),
+            SecretInputVarMetadata{
+                order_type: SecretInputVarType::SellingLadder,
+                round: state.current_round,
             });
 
     (state, vec![], input_def)
 }
 
+/// Orders confirmed after their round has started clearing are deleted, as the auction of that round
+/// no longer sees them. Otherwise, if no computation is running, the next closed round is cleared or,
+/// with incremental totals, the new orders are folded into the running totals. Orders received while
+/// a computation runs are picked up by the next fold.
+#[zk_on_variable_inputted(shortname = 0x49)]
+fn order_inputted(
+    _ctx: ContractContext,
+    mut state: ContractState,
+    zk_state: ZkState<SecretInputVarMetadata>,
+    inputted_variable: SecretVarId,
+) -> (ContractState, Vec<EventGroup>, Vec<ZkStateChange>) {
+    let round = zk_state.get_variable(inputted_variable).unwrap().metadata.round;
+    let accepting = round == state.current_round
+        || state.closed_rounds.iter().any(|closed| closed.round == round);
+    if !accepting
+    {
+        return (
+            state,
+            vec![],
+            vec![ZkStateChange::DeleteVariables {
+                variables_to_delete: vec![inputted_variable],
+            }],
+        );
+    }
+
+    let changes = start_next_computation(&mut state, &zk_state);
+    (state, vec![], changes)
+}
+
+#[zk_on_compute_complete(shortname = 0x4A)]
+fn fold_complete(
+    _ctx: ContractContext,
+    mut state: ContractState,
+    zk_state: ZkState<SecretInputVarMetadata>,
+    output_variables: Vec<SecretVarId>,
+) -> (ContractState, Vec<EventGroup>, Vec<ZkStateChange>) {
+    let fold = state.folding.take().expect("No fold is running!");
+    if fold.round == state.current_round
+    {
+        state.folded_through = fold.through;
+    }
+    else if let Some(closed) = state
+        .closed_rounds
+        .iter_mut()
+        .find(|closed| closed.round == fold.round)
+    {
+        closed.folded_through = fold.through;
+    }
+
+    let previous_totals: Vec<SecretVarId> = zk_state
+        .secret_variables
+        .iter()
+        .filter(|(id, variable)| {
+            variable.metadata.order_type == SecretInputVarType::Totals
+                && variable.metadata.round == fold.round
+                && !output_variables.contains(id)
+        })
+        .map(|(id, _)| id)
+        .collect();
+    let mut changes = vec![ZkStateChange::DeleteVariables {
+        variables_to_delete: previous_totals,
+    }];
+    changes.extend(start_next_computation(&mut state, &zk_state));
+    (state, vec![], changes)
+}
+
+/// Computes a prefix of the stages of the auction on the orders of the current round, so that the cost
+/// of each stage can be measured: `PROFILE_SUPPLY_DEMAND` sums the supply and demand, and
+/// `PROFILE_CLEARING_PRICE` also finds the clearing price index. Nothing is opened, and the round
+/// keeps accepting orders.
+#[action(shortname = 0x4C, zk = true)]
+fn profile_stage(
+    ctx: ContractContext,
+    mut state: ContractState,
+    _zk_state: ZkState<SecretInputVarMetadata>,
+    stage: u8,
+) -> (ContractState, Vec<EventGroup>, Vec<ZkStateChange>) {
+    assert_eq!(state.auction_holder, ctx.sender, "Only the auction holder can profile the auction!");
+    assert!(
+        state.folding.is_none() && state.clearing_round.is_none() && !state.profiling,
+        "Cannot profile the auction while a computation runs!"
+    );
+
+    let round = state.current_round;
+    let tree_aggregation = state.compute_options.tree_aggregation;
+    let folded_through = state.folded_through;
+    let output_metadata = [&SecretInputVarMetadata{order_type: SecretInputVarType::Profile, round,}];
+    let computation = match stage {
+        PROFILE_SUPPLY_DEMAND => zk_compute::stage_supply_demand_start(
+            tree_aggregation,
+            round,
+            folded_through,
+            Some(SHORTNAME_PROFILE_COMPLETE),
+            output_metadata,
+        ),
+        PROFILE_CLEARING_PRICE => zk_compute::stage_clearing_price_start(
+            tree_aggregation,
+            state.compute_options.sequential_price_search,
+            round,
+            folded_through,
+            Some(SHORTNAME_PROFILE_COMPLETE),
+            output_metadata,
+        ),
+        _ => panic!("Unknown stage {}!", stage),
+    };
+    state.profiling = true;
+    (state, vec![], vec![computation])
+}
+
+#[zk_on_compute_complete(shortname = 0x4D)]
+fn profile_complete(
+    _ctx: ContractContext,
+    mut state: ContractState,
+    zk_state: ZkState<SecretInputVarMetadata>,
+    output_variables: Vec<SecretVarId>,
+) -> (ContractState, Vec<EventGroup>, Vec<ZkStateChange>) {
+    state.profiling = false;
+    let mut changes = vec![ZkStateChange::DeleteVariables {
+        variables_to_delete: output_variables,
+    }];
+    changes.extend(start_next_computation(&mut state, &zk_state));
+    (state, vec![], changes)
+}
+
+/// Starts the auction computation of the oldest closed round or, if no round is waiting, a fold of
+/// the orders of the current round received since the last fold. Does nothing while another
+/// computation runs.
+fn start_next_computation(
+    state: &mut ContractState,
+    zk_state: &ZkState<SecretInputVarMetadata>,
+) -> Vec<ZkStateChange> {
+    if state.folding.is_some() || state.clearing_round.is_some() || state.profiling
+    {
+        return vec![];
+    }
+    if !state.closed_rounds.is_empty()
+    {
+        let mut closed = state.closed_rounds.remove(0);
+        state.clearing_round = Some(closed.round);
+        state.clearing_prices = std::mem::take(&mut closed.prices);
+        return vec![start_auction(state, zk_state, closed)];
+    }
+    if !state.compute_options.incremental_totals
+    {
+        return vec![];
+    }
+
+    let round = state.current_round;
+    // Inputs can confirm out of order, and an order below the watermark is never folded. The fold
+    // therefore stops before the first input of the round that is still pending.
+    let first_pending = zk_state
+        .pending_inputs
+        .iter()
+        .filter(|(_, variable)| variable.metadata.order_type.is_six_level_order() && variable.metadata.round == round)
+        .map(|(id, _)| id.raw_id)
+        .min()
+        .unwrap_or(u32::MAX);
+    let through = zk_state
+        .secret_variables
+        .iter()
+        .filter(|(id, variable)| {
+            variable.metadata.order_type.is_six_level_order()
+                && variable.metadata.round == round
+                && id.raw_id < first_pending
+        })
+        .map(|(id, _)| id.raw_id)
+        .max()
+        .unwrap_or(0);
+    if through <= state.folded_through
+    {
+        return vec![];
+    }
+
+    state.folding = Some(Fold { round, through });
+    vec![zk_compute::fold_orders_start(
+        round,
+        state.folded_through,
+        through,
+        Some(SHORTNAME_FOLD_COMPLETE),
+        [&SecretInputVarMetadata{order_type: SecretInputVarType::Totals, round,}],
+    )]
+}
+
+/// Closes the current round and opens the next one, which accepts orders right away. The auction
+/// of the closed round is computed as soon as the computations before it are done.
 #[action(shortname = 0x02, zk = true)]
 fn hold_double_auction(
     ctx: ContractContext,
-    state: ContractState,
-    _zk_state: ZkState<SecretInputVarMetadata>,
+    mut state: ContractState,
+    zk_state: ZkState<SecretInputVarMetadata>,
 ) -> (ContractState, Vec<EventGroup>, Vec<ZkStateChange>) {
 
     assert_eq!(state.auction_holder, ctx.sender, "Only the auction holder can hold the auction!");
 
+    state.closed_rounds.push(ClosedRound {
+        round: state.current_round,
+        folded_through: state.folded_through,
+        price_levels: state.price_levels,
+        prices: state.prices.clone(),
+    });
+    state.current_round = state.current_round + 1;
+    state.folded_through = 0;
+
+    let changes = start_next_computation(&mut state, &zk_state);
     (
         state,
         vec![],
-        vec![zk_compute::double_auction_start(
+        changes,
+    )
+}
+
+/// Starts the smallest capacity tier of the auction computation that holds every order of the round,
+/// or the price ladder computation if the round has ladder orders.
+fn start_auction(
+    state: &ContractState,
+    zk_state: &ZkState<SecretInputVarMetadata>,
+    closed: ClosedRound,
+) -> ZkStateChange {
+    let round = closed.round;
+    let ladder_sell_order_count = count_variables(zk_state, round, SecretInputVarType::SellingLadder);
+    let ladder_buy_order_count = count_variables(zk_state, round, SecretInputVarType::BuyingLadder);
+    if ladder_sell_order_count + ladder_buy_order_count > 0
+    {
+        return zk_compute::double_auction_ladder_start(
+            round,
+            closed.price_levels,
             Some(SHORTNAME_COMPUTATION_COMPLETE),
             [
-                &SecretInputVarMetadata{order_type: SecretInputVarType::Matched,},
-                &SecretInputVarMetadata{order_type: SecretInputVarType::Matched,},
-                &SecretInputVarMetadata{order_type: SecretInputVarType::Matched,},
+                &SecretInputVarMetadata{order_type: SecretInputVarType::Matched, round,},
+                &SecretInputVarMetadata{order_type: SecretInputVarType::Matched, round,},
+                &SecretInputVarMetadata{order_type: SecretInputVarType::Matched, round,},
             ],
-        )],
-    )
+        );
+    }
+
+    let (sell_order_count, buy_order_count) = count_orders(zk_state, round);
+    let capacity = select_capacity_tier(sell_order_count.max(buy_order_count));
+    let tree_aggregation = state.compute_options.tree_aggregation;
+    let sequential_price_search = state.compute_options.sequential_price_search;
+    let folded_through = closed.folded_through;
+
+    if state.compute_options.two_phase
+    {
+        return zk_compute::stage_clearing_price_start(
+            tree_aggregation,
+            sequential_price_search,
+            round,
+            folded_through,
+            Some(SHORTNAME_COMPUTATION_COMPLETE),
+            [&SecretInputVarMetadata{order_type: SecretInputVarType::ClearingIndex, round,}],
+        );
+    }
+
+    if state.compute_options.compact_outputs
+    {
+        let summary = SecretInputVarMetadata{order_type: SecretInputVarType::Matched, round,};
+        let sell_chunk = SecretInputVarMetadata{order_type: SecretInputVarType::MatchedSellChunk, round,};
+        let buy_chunk = SecretInputVarMetadata{order_type: SecretInputVarType::MatchedBuyChunk, round,};
+        return zk_compute::double_auction_compacted_start(
+            tree_aggregation,
+            sequential_price_search,
+            round,
+            folded_through,
+            capacity as u32,
+            Some(SHORTNAME_COMPUTATION_COMPLETE),
+            [
+                &summary,
+                &sell_chunk, &sell_chunk, &sell_chunk, &sell_chunk, &sell_chunk,
+                &buy_chunk, &buy_chunk, &buy_chunk, &buy_chunk, &buy_chunk,
+            ],
+        );
+    }
+
+    let output_metadata = [
+        &SecretInputVarMetadata{order_type: SecretInputVarType::Matched, round,},
+        &SecretInputVarMetadata{order_type: SecretInputVarType::Matched, round,},
+        &SecretInputVarMetadata{order_type: SecretInputVarType::Matched, round,},
+    ];
+    match capacity {
+        8 => zk_compute::double_auction_8_start(tree_aggregation, sequential_price_search, round, folded_through, Some(SHORTNAME_COMPUTATION_COMPLETE), output_metadata),
+        16 => zk_compute::double_auction_16_start(tree_aggregation, sequential_price_search, round, folded_through, Some(SHORTNAME_COMPUTATION_COMPLETE), output_metadata),
+        32 => zk_compute::double_auction_32_start(tree_aggregation, sequential_price_search, round, folded_through, Some(SHORTNAME_COMPUTATION_COMPLETE), output_metadata),
+        85 => zk_compute::double_auction_start(tree_aggregation, sequential_price_search, round, folded_through, Some(SHORTNAME_COMPUTATION_COMPLETE), output_metadata),
+        _ => zk_compute::double_auction_128_start(tree_aggregation, sequential_price_search, round, folded_through, Some(SHORTNAME_COMPUTATION_COMPLETE), output_metadata),
+    }
+}
+
+/// Number of sell and buy orders of `round` with six price levels, counting every slot of a batch.
+fn count_orders(
+    zk_state: &ZkState<SecretInputVarMetadata>,
+    round: u32,
+) -> (usize, usize) {
+    let sell_order_count = count_variables(zk_state, round, SecretInputVarType::Selling)
+        + ORDER_BATCH_SIZE * count_variables(zk_state, round, SecretInputVarType::SellingBatch);
+    let buy_order_count = count_variables(zk_state, round, SecretInputVarType::Buying)
+        + ORDER_BATCH_SIZE * count_variables(zk_state, round, SecretInputVarType::BuyingBatch);
+    (sell_order_count, buy_order_count)
+}
+
+fn count_variables(
+    zk_state: &ZkState<SecretInputVarMetadata>,
+    round: u32,
+    order_type: SecretInputVarType,
+) -> usize {
+    zk_state
+        .secret_variables
+        .iter()
+        .filter(|(_, variable)| variable.metadata.order_type == order_type && variable.metadata.round == round)
+        .count()
 }
 
+/// Asserts that the current round has room for `added` more orders on the side of `side_types`,
+/// counting the inputs that are not confirmed yet. The auction of a closed round is started from
+/// whichever callback finds the contract idle, so its size is bounded here instead of there.
+fn assert_room_for_orders(
+    state: &ContractState,
+    zk_state: &ZkState<SecretInputVarMetadata>,
+    side_types: &[SecretInputVarType],
+    added: usize,
+    max_orders: usize,
+) {
+    let round = state.current_round;
+    let order_count: usize = zk_state
+        .secret_variables
+        .iter()
+        .chain(zk_state.pending_inputs.iter())
+        .filter(|(_, variable)| variable.metadata.round == round && side_types.contains(&variable.metadata.order_type))
+        .map(|(_, variable)| variable.metadata.order_type.order_count())
+        .sum();
+    assert!(order_count + added <= max_orders, "Too many orders for a single auction!");
+}
+
+/// Smallest capacity tier that holds `order_count` orders. The secret input handlers keep every round
+/// within the largest tier, see `assert_room_for_orders`.
+fn select_capacity_tier(order_count: usize) -> usize {
+    *CAPACITY_TIERS
+        .iter()
+        .find(|&&capacity| order_count <= capacity)
+        .expect("Too many orders for a single auction!")
+}
+
+/// Opens the outputs of the auction. Of a compacted auction only the summary is opened, and the
+/// chunks of orders are opened once their counts are known. Of a two-phase auction only the clearing
+/// price index is computed and opened here.
 #[zk_on_compute_complete(shortname = 0x42)]
 fn computation_complete(
     _ctx: ContractContext,
     state: ContractState,
-    _zk_state: ZkState<SecretInputVarMetadata>,
+    zk_state: ZkState<SecretInputVarMetadata>,
     output_variables: Vec<SecretVarId>,
 ) -> (ContractState, Vec<EventGroup>, Vec<ZkStateChange>) {
+    let variables = output_variables
+        .into_iter()
+        .filter(|id| {
+            let order_type = &zk_state.get_variable(*id).unwrap().metadata.order_type;
+            *order_type == SecretInputVarType::Matched || *order_type == SecretInputVarType::ClearingIndex
+        })
+        .collect();
     (
         state,
         vec![],
-        vec![ZkStateChange::OpenVariables {
-            variables: output_variables,
-        }],
+        vec![ZkStateChange::OpenVariables { variables }],
     )
 }
 
+/// Opens the chunks of a two-phase auction that hold its orders, once they are selected at the opened
+/// clearing price index.
+#[zk_on_compute_complete(shortname = 0x4E)]
+fn selection_complete(
+    _ctx: ContractContext,
+    state: ContractState,
+    zk_state: ZkState<SecretInputVarMetadata>,
+    _output_variables: Vec<SecretVarId>,
+) -> (ContractState, Vec<EventGroup>, Vec<ZkStateChange>) {
+    let round = state.clearing_round.unwrap();
+    let clearing = state.compacted_clearing.unwrap();
+    let mut variables = compacted_chunks(&zk_state, round, SecretInputVarType::MatchedSellChunk, clearing.sell_count);
+    variables.extend(compacted_chunks(&zk_state, round, SecretInputVarType::MatchedBuyChunk, clearing.buy_count));
+    (
+        state,
+        vec![],
+        vec![ZkStateChange::OpenVariables { variables }],
+    )
+}
+
+/// Matches the opened orders of the auction, as many steps as fit in this transaction, and leaves the
+/// rest to `continue_matching`. The summary of a compacted auction is opened on its own first, and is
+/// followed by the chunks that hold its orders, unless no orders can trade. The opened index of a
+/// two-phase auction is followed by the selection of its orders at that index.
 #[zk_on_variables_opened]
 fn save_opened_variable(
     _ctx: ContractContext,
@@ -213,62 +897,184 @@ fn save_opened_variable(
     opened_variables: Vec<SecretVarId>,
 ) -> (ContractState, Vec<EventGroup>, Vec<ZkStateChange>) {
     
-    assert!(
-        opened_variables.len() == 3,
-        "Unexpected number of output variables"
-    );
+    let eq_price: i16;
+    let mut sell_orders: Vec<Order>;
+    let mut buy_orders: Vec<Order>;
+    if let Some(compacted) = state.compacted_clearing.take()
+    {
+        eq_price = compacted.market_clearing_price_index;
+        sell_orders = read_compacted_orders(&zk_state, &opened_variables, SecretInputVarType::MatchedSellChunk, compacted.sell_count);
+        buy_orders = read_compacted_orders(&zk_state, &opened_variables, SecretInputVarType::MatchedBuyChunk, compacted.buy_count);
+    }
+    else if opened_variables.len() == 1 && is_clearing_index(&zk_state, opened_variables.first())
+    {
+        let index: PriceIndex = read_variable(&zk_state, opened_variables.first());
+        let round = state.clearing_round.unwrap();
+        let (sell_order_count, buy_order_count) = count_orders(&zk_state, round);
+        if sell_order_count > 0 && buy_order_count > 0
+        {
+            state.compacted_clearing = Some(CompactedClearing {
+                market_clearing_price_index: index as i16,
+                sell_count: sell_order_count as u32,
+                buy_count: buy_order_count as u32,
+            });
+            let sell_chunk = SecretInputVarMetadata{order_type: SecretInputVarType::MatchedSellChunk, round,};
+            let buy_chunk = SecretInputVarMetadata{order_type: SecretInputVarType::MatchedBuyChunk, round,};
+            let selection = zk_compute::select_order_outputs_start(
+                round,
+                index as u32,
+                Some(SHORTNAME_SELECTION_COMPLETE),
+                [
+                    &sell_chunk, &sell_chunk, &sell_chunk, &sell_chunk, &sell_chunk,
+                    &buy_chunk, &buy_chunk, &buy_chunk, &buy_chunk, &buy_chunk,
+                ],
+            );
+            return (state, vec![], vec![selection]);
+        }
+        eq_price = index as i16;
+        sell_orders = vec![];
+        buy_orders = vec![];
+    }
+    else if opened_variables.len() == 1
+    {
+        let compacted = read_clearing_summary(&zk_state, opened_variables.first());
+        if compacted.sell_count > 0 && compacted.buy_count > 0
+        {
+            let round = state.clearing_round.unwrap();
+            let mut chunks = compacted_chunks(&zk_state, round, SecretInputVarType::MatchedSellChunk, compacted.sell_count);
+            chunks.extend(compacted_chunks(&zk_state, round, SecretInputVarType::MatchedBuyChunk, compacted.buy_count));
+            state.compacted_clearing = Some(compacted);
+            return (state, vec![], vec![ZkStateChange::OpenVariables { variables: chunks }]);
+        }
+        eq_price = compacted.market_clearing_price_index;
+        sell_orders = vec![];
+        buy_orders = vec![];
+    }
+    else
+    {
+        assert!(
+            opened_variables.len() == 3,
+            "Unexpected number of output variables"
+        );
+        let index: PriceIndex = read_variable(&zk_state,opened_variables.first());
+        eq_price = index as i16;
+        sell_orders = read_orders(&zk_state, opened_variables.get(1));
+        buy_orders = read_orders(&zk_state, opened_variables.get(2));
+    }
 
-    state.matched_orders = vec![];
+    let round = state.clearing_round.unwrap();
+    // Orders without a quantity at the clearing price are skipped by the matching without trading.
+    sell_orders.retain(|order| order.quantity != 0);
+    buy_orders.retain(|order| order.quantity != 0);
+    state.matching = Some(Matching {
+        round,
+        market_clearing_price_index: eq_price,
+        sell_orders,
+        buy_orders,
+        sell_index: 0,
+        buy_index: 0,
+        trades: TradeLog::default(),
+    });
 
-    let eq_price: i16 = read_variable(&zk_state,opened_variables.first());
-    state.market_clearing_price_index = Some(eq_price); 
+    // The opened orders are now in the state, so the variables of the round are no longer needed.
+    let round_variables: Vec<SecretVarId> = zk_state
+        .secret_variables
+        .iter()
+        .filter(|(_, variable)| variable.metadata.round == round)
+        .map(|(id, _)| id)
+        .collect();
+    let mut changes = vec![ZkStateChange::DeleteVariables {
+        variables_to_delete: round_variables,
+    }];
+    changes.extend(match_orders(&mut state, &zk_state));
+    (state, vec![], changes)
+}
+
+/// Continues the matching of an auction that did not finish in the transactions so far. Anyone can
+/// continue it, as the trades do not depend on who does.
+#[action(shortname = 0x4F, zk = true)]
+fn continue_matching(
+    _ctx: ContractContext,
+    mut state: ContractState,
+    zk_state: ZkState<SecretInputVarMetadata>,
+) -> (ContractState, Vec<EventGroup>, Vec<ZkStateChange>) {
+    assert!(state.matching.is_some(), "No matching is in progress!");
 
-    let mut sell_orders: [Order; NUM_OF_SELL_ORDERS] = read_variable(&zk_state, opened_variables.get(1));
-    let mut buy_orders: [Order; NUM_OF_BUY_ORDERS] = read_variable(&zk_state, opened_variables.get(2));
+    let changes = match_orders(&mut state, &zk_state);
+    (state, vec![], changes)
+}
 
-    let mut sell_order_index: usize = 0;
-    let mut buy_order_index: usize = 0;
+/// Matches the orders of `matching` for at most `MATCHING_STEPS_PER_TRANSACTION` steps. Once either
+/// side is used up, the trades become the result of the round and the next computation is started.
+fn match_orders(
+    state: &mut ContractState,
+    zk_state: &ZkState<SecretInputVarMetadata>,
+) -> Vec<ZkStateChange> {
+    let mut matching = state.matching.take().unwrap();
+    let mut trades = TradeLogWriter::resume(std::mem::take(&mut matching.trades));
+    let mut sell_order_index: usize = matching.sell_index as usize;
+    let mut buy_order_index: usize = matching.buy_index as usize;
+    let mut steps: usize = 0;
 
-    while sell_order_index < NUM_OF_SELL_ORDERS && buy_order_index < NUM_OF_BUY_ORDERS
+    while steps < MATCHING_STEPS_PER_TRANSACTION
+        && sell_order_index < matching.sell_orders.len()
+        && buy_order_index < matching.buy_orders.len()
     {
-        let seller: Order = sell_orders[sell_order_index];
-        let buyer: Order = buy_orders[buy_order_index];
-        let mut trade: Trade = Trade::new_trade(
-            buyer.id,
-            seller.id,
-            0,
-        );
+        let seller: Order = matching.sell_orders[sell_order_index];
+        let buyer: Order = matching.buy_orders[buy_order_index];
+        let quantity: i16;
         if seller.quantity == buyer.quantity {
             sell_order_index = sell_order_index + 1;
             buy_order_index = buy_order_index + 1;
-            trade.quantity = buyer.quantity;
-            if buyer.quantity > 0
-            {
-                state.matched_orders.push(trade);
-            }
+            quantity = buyer.quantity;
         }
         else if seller.quantity < buyer.quantity
         {
             sell_order_index = sell_order_index + 1;
-            buy_orders[buy_order_index].quantity = buyer.quantity - seller.quantity;
-            trade.quantity = seller.quantity;
-            if seller.quantity > 0
-            {
-                state.matched_orders.push(trade);
-            }
+            matching.buy_orders[buy_order_index].quantity = buyer.quantity - seller.quantity;
+            quantity = seller.quantity;
         }
-        else if seller.quantity > buyer.quantity
+        else
         {
             buy_order_index = buy_order_index + 1;
-            sell_orders[sell_order_index].quantity = seller.quantity - buyer.quantity;
-            trade.quantity = buyer.quantity;
-            if buyer.quantity > 0
-            {
-                state.matched_orders.push(trade);
-            }
+            matching.sell_orders[sell_order_index].quantity = seller.quantity - buyer.quantity;
+            quantity = buyer.quantity;
         }
-    } 
-    (state, vec![], vec![])
+        if quantity > 0
+        {
+            trades.push(buyer.id, seller.id, quantity);
+        }
+        steps = steps + 1;
+    }
+    matching.trades = trades.finish();
+
+    if sell_order_index < matching.sell_orders.len() && buy_order_index < matching.buy_orders.len()
+    {
+        matching.sell_index = sell_order_index as u32;
+        matching.buy_index = buy_order_index as u32;
+        state.matching = Some(matching);
+        return vec![];
+    }
+
+    state.clearing_round = None;
+    if let Some(previous_round) = state.cleared_round
+    {
+        state.round_results.push(RoundResult {
+            round: previous_round,
+            prices: std::mem::take(&mut state.cleared_prices),
+            market_clearing_price_index: state.market_clearing_price_index.unwrap(),
+            matched_orders: std::mem::take(&mut state.matched_orders),
+        });
+        if state.round_results.len() > MAX_KEPT_ROUND_RESULTS
+        {
+            state.round_results.remove(0);
+        }
+    }
+    state.cleared_round = Some(matching.round);
+    state.cleared_prices = std::mem::take(&mut state.clearing_prices);
+    state.market_clearing_price_index = Some(matching.market_clearing_price_index);
+    state.matched_orders = matching.trades;
+    start_next_computation(state, zk_state)
 }
 
 fn read_variable<T: ReadWriteState>(
@@ -281,3 +1087,88 @@ fn read_variable<T: ReadWriteState>(
     let result = T::state_read_from(&mut buffer.as_slice());
     result
 }
+
+fn read_orders(
+    zk_state: &ZkState<SecretInputVarMetadata>,
+    variable_id: Option<&SecretVarId>,
+) -> Vec<Order> {
+    let variable_id = *variable_id.unwrap();
+    let variable = zk_state.get_variable(variable_id).unwrap();
+    let buffer: Vec<u8> = variable.data.clone().unwrap();
+    let mut reader = buffer.as_slice();
+    (0..buffer.len() / ORDER_BYTES)
+        .map(|_| Order {
+            id: Id::state_read_from(&mut reader) as i16,
+            quantity: Quantity::state_read_from(&mut reader) as i16,
+        })
+        .collect()
+}
+
+fn is_clearing_index(
+    zk_state: &ZkState<SecretInputVarMetadata>,
+    variable_id: Option<&SecretVarId>,
+) -> bool {
+    let variable = zk_state.get_variable(*variable_id.unwrap()).unwrap();
+    variable.metadata.order_type == SecretInputVarType::ClearingIndex
+}
+
+/// Reads the opened `SecretClearingSummary` of a compacted auction.
+fn read_clearing_summary(
+    zk_state: &ZkState<SecretInputVarMetadata>,
+    variable_id: Option<&SecretVarId>,
+) -> CompactedClearing {
+    let variable_id = *variable_id.unwrap();
+    let variable = zk_state.get_variable(variable_id).unwrap();
+    let buffer: Vec<u8> = variable.data.clone().unwrap();
+    let mut reader = buffer.as_slice();
+    CompactedClearing {
+        market_clearing_price_index: PriceIndex::state_read_from(&mut reader) as i16,
+        sell_count: SlotCount::state_read_from(&mut reader) as u32,
+        buy_count: SlotCount::state_read_from(&mut reader) as u32,
+    }
+}
+
+/// The first chunks of one side of the compacted auction of `round` that together hold `count` orders.
+fn compacted_chunks(
+    zk_state: &ZkState<SecretInputVarMetadata>,
+    round: u32,
+    order_type: SecretInputVarType,
+    count: u32,
+) -> Vec<SecretVarId> {
+    let mut chunk_count: usize = 0;
+    let mut slots: usize = 0;
+    while slots < count as usize
+    {
+        slots = slots + COMPACTED_CHUNK_SLOTS[chunk_count];
+        chunk_count = chunk_count + 1;
+    }
+    let mut chunks: Vec<SecretVarId> = zk_state
+        .secret_variables
+        .iter()
+        .filter(|(_, variable)| variable.metadata.order_type == order_type && variable.metadata.round == round)
+        .map(|(id, _)| id)
+        .collect();
+    chunks.sort_by_key(|id| id.raw_id);
+    chunks.truncate(chunk_count);
+    chunks
+}
+
+/// Reads the first `count` orders from the opened chunks of one side of a compacted auction.
+fn read_compacted_orders(
+    zk_state: &ZkState<SecretInputVarMetadata>,
+    opened_variables: &[SecretVarId],
+    order_type: SecretInputVarType,
+    count: u32,
+) -> Vec<Order> {
+    let mut chunks: Vec<&SecretVarId> = opened_variables
+        .iter()
+        .filter(|id| zk_state.get_variable(**id).unwrap().metadata.order_type == order_type)
+        .collect();
+    chunks.sort_by_key(|id| id.raw_id);
+    let mut orders: Vec<Order> = chunks
+        .into_iter()
+        .flat_map(|id| read_orders(zk_state, Some(id)))
+        .collect();
+    orders.truncate(count as usize);
+    orders
+}
@@ -0,0 +1,63 @@
+use create_type_spec_derive::CreateTypeSpec;
+use read_write_state_derive::ReadWriteState;
+use std::vec::Vec;
+
+/// Trades of one auction in a compact encoding, which is read and written with the rest of the state
+/// on every action.
+///
+/// Each trade is written as LEB128 varints. The first is `buyer_id << 1 | same_seller`, where
+/// `same_seller` is set if the seller is the one of the previous trade. Otherwise the seller id
+/// follows. The quantity comes last. The matching consumes one seller at a time, so runs of trades
+/// with the same seller are common and store the seller only once. Ids and quantities are written as
+/// their 16-bit two's complement.
+#[derive(ReadWriteState, CreateTypeSpec, Clone, Default)]
+pub struct TradeLog {
+    pub trade_count: u32,
+    pub encoded: Vec<u8>,
+}
+
+/// Appends trades to a `TradeLog`.
+pub struct TradeLogWriter {
+    log: TradeLog,
+    last_seller_id: Option<i16>,
+}
+
+impl TradeLogWriter {
+    /// Appends to `log`, which is empty for a new auction or holds the trades of earlier
+    /// transactions. The first trade after resuming always writes its seller.
+    pub fn resume(log: TradeLog) -> Self {
+        Self {
+            log,
+            last_seller_id: None,
+        }
+    }
+
+    pub fn push(&mut self, buyer_id: i16, seller_id: i16, quantity: i16) {
+        let same_seller = self.last_seller_id == Some(seller_id);
+        write_varint(
+            &mut self.log.encoded,
+            ((buyer_id as u16 as u32) << 1) | same_seller as u32,
+        );
+        if !same_seller
+        {
+            write_varint(&mut self.log.encoded, seller_id as u16 as u32);
+        }
+        write_varint(&mut self.log.encoded, quantity as u16 as u32);
+        self.log.trade_count = self.log.trade_count + 1;
+        self.last_seller_id = Some(seller_id);
+    }
+
+    pub fn finish(self) -> TradeLog {
+        self.log
+    }
+}
+
+fn write_varint(encoded: &mut Vec<u8>, value: u32) {
+    let mut remaining = value;
+    while remaining >= 0x80
+    {
+        encoded.push((remaining as u8 & 0x7F) | 0x80);
+        remaining = remaining >> 7;
+    }
+    encoded.push(remaining as u8);
+}
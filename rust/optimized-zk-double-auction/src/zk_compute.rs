@@ -2,45 +2,203 @@ use pbc_zk::*;
 
 use std::vec::Vec;
 use create_type_spec_derive::CreateTypeSpec;
+use read_write_state_derive::ReadWriteState;
 
 const BUYING_ORDER: u8 = 1u8;
 const SELLING_ORDER: u8 = 2u8;
+const BUYING_ORDER_BATCH: u8 = 4u8;
+const SELLING_ORDER_BATCH: u8 = 5u8;
+const TOTALS: u8 = 6u8;
+const BUYING_LADDER_ORDER: u8 = 7u8;
+const SELLING_LADDER_ORDER: u8 = 8u8;
+
+/// Number of orders carried by one `SecretOrderBatchInput`.
+pub const ORDER_BATCH_SIZE: usize = 8;
+
+/// Order slots per side of the largest compute variant.
+const MAX_ORDERS_PER_SIDE: usize = 128;
+const LOG2_MAX_ORDERS_PER_SIDE: usize = 7;
+
+/// Largest number of levels of a price ladder.
+pub const MAX_PRICE_LEVELS: usize = 64;
+const LOG2_MAX_PRICE_LEVELS: usize = 6;
+/// Order slots per side of the price ladder computation.
+pub const LADDER_ORDERS_PER_SIDE: usize = 32;
+
+/// Order ids. Ids are only copied from inputs to outputs, so their width costs no multiplications,
+/// but it sets the size of every input and of every opened order slot. The `narrow-ids` feature
+/// narrows them to `i8` and `Sbi8` for auctions of at most 127 households.
+#[cfg(not(feature = "narrow-ids"))]
+pub type Id = i16;
+#[cfg(not(feature = "narrow-ids"))]
+pub type SecretId = Sbi16;
+#[cfg(feature = "narrow-ids")]
+pub type Id = i8;
+#[cfg(feature = "narrow-ids")]
+pub type SecretId = Sbi8;
+
+/// Quantities, and the supply and demand totals summed from them, which must hold the total quantity
+/// of every order of a round. Comparisons and oblivious selects on quantities cost one
+/// multiplication per bit, so the `narrow-quantities` feature narrows them to `i8` and `Sbi8` for
+/// auctions with small totals.
+#[cfg(not(feature = "narrow-quantities"))]
+pub type Quantity = i16;
+#[cfg(not(feature = "narrow-quantities"))]
+pub type SecretQuantity = Sbi16;
+#[cfg(feature = "narrow-quantities")]
+pub type Quantity = i8;
+#[cfg(feature = "narrow-quantities")]
+pub type SecretQuantity = Sbi8;
+
+/// The clearing price index, which only has to tell `MAX_PRICE_LEVELS` levels apart. Every
+/// comparison and select on it costs one multiplication per bit.
+pub type PriceIndex = i8;
+pub type SecretPriceIndex = Sbi8;
+
+/// Public metadata of a secret variable, in the layout written by the contract.
+#[derive(ReadWriteState, Clone, Copy)]
+pub struct VariableMetadata {
+    pub order_type: u8,
+    pub round: u32,
+}
 
 #[derive(SecretBinary, Clone, Copy, CreateTypeSpec)]
 pub struct SecretOrderInput {
-    pub id: Sbi16,
-    pub quantity_per_price: [Sbi16; 6],
+    pub id: SecretId,
+    pub quantity_per_price: [SecretQuantity; 6],
+}
+
+/// An order on a price ladder of up to `MAX_PRICE_LEVELS` levels. Quantities beyond the levels of the
+/// ladder are ignored. The quantities are cumulative: non-decreasing with the price for sell orders
+/// and non-increasing for buy orders.
+#[derive(SecretBinary, Clone, Copy, CreateTypeSpec)]
+pub struct SecretLadderOrderInput {
+    pub id: SecretId,
+    pub quantity_per_price: [SecretQuantity; MAX_PRICE_LEVELS],
+}
+
+/// Several orders submitted in one input, e.g. by an aggregator on behalf of many households.
+/// Unused slots are filled with empty orders, which never trade.
+#[derive(SecretBinary, Clone, Copy, CreateTypeSpec)]
+pub struct SecretOrderBatchInput {
+    pub orders: [SecretOrderInput; ORDER_BATCH_SIZE],
 }
 
 #[derive(SecretBinary, Clone, Copy, CreateTypeSpec)]
 pub struct SecretOrderOutput {
-    pub id: Sbi16,
-    pub quantity: Sbi16,
+    pub id: SecretId,
+    pub quantity: SecretQuantity,
+}
+
+/// Running supply and demand of the orders folded so far.
+#[derive(SecretBinary, Clone, Copy, CreateTypeSpec)]
+pub struct SecretTotals {
+    pub supply: [SecretQuantity; 6],
+    pub demand: [SecretQuantity; 6],
 }
 
 pub struct SecretSellBuyOutputs {
-    pub sell_orders: [SecretOrderOutput; 85],
-    pub buy_orders: [SecretOrderOutput; 85]
+    pub market_clearing_price_index: SecretPriceIndex,
+    pub sell_orders: [SecretOrderOutput; MAX_ORDERS_PER_SIDE],
+    pub buy_orders: [SecretOrderOutput; MAX_ORDERS_PER_SIDE]
 }
 
-fn calculate_supply_demand() -> [[Sbi16; 6]; 2] {
-    let mut total_supply = [Sbi16::from(0); 6];
-    let mut total_demand = [Sbi16::from(0); 6];
+fn add_order_quantities(
+    totals: [SecretQuantity; 6],
+    offer: SecretOrderInput,
+) -> [SecretQuantity; 6] {
+    let mut result = totals;
+    for i in 0usize..6usize
+    {
+        result[i] = result[i] + offer.quantity_per_price[i];
+    }
+    result
+}
+
+/// Type of the variable if it belongs to `round`, and 0 otherwise, so that variables of other rounds
+/// match none of the variable types.
+fn order_type_in_round(
+    var_id: SecretVarId,
+    round: u32,
+) -> u8 {
+    let metadata = load_metadata::<VariableMetadata>(var_id);
+    let mut order_type = 0u8;
+    if metadata.round == round
+    {
+        order_type = metadata.order_type;
+    }
+    order_type
+}
+
+/// Whether the variable is an order received after `folded_through` and no later than `through`.
+/// Orders up to `folded_through` are already part of the `TOTALS` variable.
+fn is_unfolded(
+    var_id: SecretVarId,
+    folded_through: u32,
+    through: u32,
+) -> bool {
+    var_id.raw_id > folded_through && var_id.raw_id <= through
+}
+
+fn calculate_supply_demand(
+    tree_aggregation: bool,
+    round: u32,
+    folded_through: u32,
+) -> [[SecretQuantity; 6]; 2] {
+    if tree_aggregation
+    {
+        calculate_supply_demand_tree(round, folded_through)
+    }
+    else
+    {
+        calculate_supply_demand_sequential(round, folded_through, u32::MAX)
+    }
+}
+
+/// Adds the orders one at a time, starting from the running totals if any. Every addition depends
+/// on the previous one, so the number of rounds grows linearly with the number of orders.
+fn calculate_supply_demand_sequential(
+    round: u32,
+    folded_through: u32,
+    through: u32,
+) -> [[SecretQuantity; 6]; 2] {
+    let mut total_supply = [SecretQuantity::from(0); 6];
+    let mut total_demand = [SecretQuantity::from(0); 6];
     for var_id in secret_variable_ids()
     {
-        let offer = load_sbi::<SecretOrderInput>(var_id);
-        if load_metadata::<u8>(var_id) == SELLING_ORDER
+        let order_type = order_type_in_round(var_id, round);
+        let unfolded = is_unfolded(var_id, folded_through, through);
+        if order_type == TOTALS
         {
+            let totals = load_sbi::<SecretTotals>(var_id);
             for i in 0usize..6usize
             {
-                total_supply[i] = total_supply[i] + offer.quantity_per_price[i];
+                total_supply[i] = total_supply[i] + totals.supply[i];
+                total_demand[i] = total_demand[i] + totals.demand[i];
             }
         }
-        else if load_metadata::<u8>(var_id) == BUYING_ORDER
+        else if order_type == SELLING_ORDER && unfolded
         {
-            for i in 0usize..6usize
+            total_supply = add_order_quantities(total_supply, load_sbi::<SecretOrderInput>(var_id));
+        }
+        else if order_type == BUYING_ORDER && unfolded
+        {
+            total_demand = add_order_quantities(total_demand, load_sbi::<SecretOrderInput>(var_id));
+        }
+        else if order_type == SELLING_ORDER_BATCH && unfolded
+        {
+            let batch = load_sbi::<SecretOrderBatchInput>(var_id);
+            for k in 0usize..ORDER_BATCH_SIZE
             {
-                total_demand[i] = total_demand[i] + offer.quantity_per_price[i];
+                total_supply = add_order_quantities(total_supply, batch.orders[k]);
+            }
+        }
+        else if order_type == BUYING_ORDER_BATCH && unfolded
+        {
+            let batch = load_sbi::<SecretOrderBatchInput>(var_id);
+            for k in 0usize..ORDER_BATCH_SIZE
+            {
+                total_demand = add_order_quantities(total_demand, batch.orders[k]);
             }
         }
     }
@@ -48,93 +206,840 @@ fn calculate_supply_demand() -> [[Sbi16; 6]; 2] {
     total_supply_demand
 }
 
+/// Collects the quantities of every order and adds them pairwise in a balanced tree. Every addition
+/// of secret-shared binary values is a ripple-carry circuit with one AND per bit, and the tree does
+/// as many additions as the sequential sum, so it does not save multiplications. It only shortens
+/// the chain of additions that depend on each other from O(n) to O(log n), which cuts the rounds.
+/// The running totals, if any, are one more term on each side.
+fn calculate_supply_demand_tree(
+    round: u32,
+    folded_through: u32,
+) -> [[SecretQuantity; 6]; 2] {
+    let mut supply_terms = [[SecretQuantity::from(0); 6]; MAX_ORDERS_PER_SIDE];
+    let mut demand_terms = [[SecretQuantity::from(0); 6]; MAX_ORDERS_PER_SIDE];
+    let mut index_s: usize = 0;
+    let mut index_b: usize = 0;
+    for var_id in secret_variable_ids()
+    {
+        let order_type = order_type_in_round(var_id, round);
+        let unfolded = is_unfolded(var_id, folded_through, u32::MAX);
+        if order_type == TOTALS
+        {
+            let totals = load_sbi::<SecretTotals>(var_id);
+            supply_terms[index_s] = totals.supply;
+            demand_terms[index_b] = totals.demand;
+            index_s = index_s + 1;
+            index_b = index_b + 1;
+        }
+        else if order_type == SELLING_ORDER && unfolded
+        {
+            supply_terms[index_s] = load_sbi::<SecretOrderInput>(var_id).quantity_per_price;
+            index_s = index_s + 1;
+        }
+        else if order_type == BUYING_ORDER && unfolded
+        {
+            demand_terms[index_b] = load_sbi::<SecretOrderInput>(var_id).quantity_per_price;
+            index_b = index_b + 1;
+        }
+        else if order_type == SELLING_ORDER_BATCH && unfolded
+        {
+            let batch = load_sbi::<SecretOrderBatchInput>(var_id);
+            for k in 0usize..ORDER_BATCH_SIZE
+            {
+                supply_terms[index_s] = batch.orders[k].quantity_per_price;
+                index_s = index_s + 1;
+            }
+        }
+        else if order_type == BUYING_ORDER_BATCH && unfolded
+        {
+            let batch = load_sbi::<SecretOrderBatchInput>(var_id);
+            for k in 0usize..ORDER_BATCH_SIZE
+            {
+                demand_terms[index_b] = batch.orders[k].quantity_per_price;
+                index_b = index_b + 1;
+            }
+        }
+    }
+    let total_supply_demand = [sum_tree(supply_terms, index_s), sum_tree(demand_terms, index_b)];
+    total_supply_demand
+}
+
+/// Sums the first `count` terms. Each level adds neighbouring pairs and moves an unpaired last term
+/// along, halving the number of terms until one is left. `count` is public, so only the additions
+/// of real terms end up in the circuit.
+fn sum_tree(
+    terms: [[SecretQuantity; 6]; MAX_ORDERS_PER_SIDE],
+    count: usize,
+) -> [SecretQuantity; 6] {
+    let mut level_terms = terms;
+    let mut width = count;
+    for _level in 0usize..LOG2_MAX_ORDERS_PER_SIDE
+    {
+        let half = (width + 1) / 2;
+        for i in 0usize..MAX_ORDERS_PER_SIDE
+        {
+            if i < width / 2
+            {
+                for j in 0usize..6usize
+                {
+                    level_terms[i][j] = level_terms[2 * i][j] + level_terms[2 * i + 1][j];
+                }
+            }
+            else if i < half
+            {
+                level_terms[i] = level_terms[2 * i];
+            }
+        }
+        width = half;
+    }
+    level_terms[0]
+}
+
+/// Order in which the price levels are compared. Later levels win ties.
+const CLEARING_SEARCH_ORDER: [usize; 6] = [0, 5, 1, 4, 2, 3];
+const LOG2_CEIL_PRICE_LEVELS: usize = 3;
+
 fn calculate_market_clearing_price_index(
-    total_supply: [Sbi16; 6],
-    total_demand: [Sbi16; 6],
-) -> Sbi16 {
-    let mut min_demand_difference = Sbi16::from(32767);
-    let mut market_clearing_price_index = Sbi16::from(0);
-    let indicies: [usize; 6] = [0, 5, 1, 4, 2, 3];
+    sequential_price_search: bool,
+    total_supply: [SecretQuantity; 6],
+    total_demand: [SecretQuantity; 6],
+) -> SecretPriceIndex {
+    if sequential_price_search
+    {
+        calculate_market_clearing_price_index_sequential(total_supply, total_demand)
+    }
+    else
+    {
+        calculate_market_clearing_price_index_tournament(total_supply, total_demand)
+    }
+}
+
+/// Visits the levels in `CLEARING_SEARCH_ORDER` keeping the smallest difference so far. Every
+/// comparison depends on the previous one, so the rounds grow with the number of levels.
+fn calculate_market_clearing_price_index_sequential(
+    total_supply: [SecretQuantity; 6],
+    total_demand: [SecretQuantity; 6],
+) -> SecretPriceIndex {
+    let mut min_demand_difference = SecretQuantity::from(Quantity::MAX);
+    let mut market_clearing_price_index = SecretPriceIndex::from(0);
     for i in 0usize..6usize
     {
-        let index = indicies[i];
-        let mut demand_difference: Sbi16 = total_supply[index] - total_demand[index];
+        let index = CLEARING_SEARCH_ORDER[i];
+        let mut demand_difference: SecretQuantity = total_supply[index] - total_demand[index];
         if total_supply[index] < total_demand[index]{
             demand_difference = total_demand[index] - total_supply[index];
         }
         if demand_difference <= min_demand_difference{
             min_demand_difference = demand_difference;
-            market_clearing_price_index = Sbi16::from(index as i16);
+            market_clearing_price_index = SecretPriceIndex::from(index as PriceIndex);
         }
     }
     market_clearing_price_index
 }
 
-fn calculate_sell_buy_order_outputs(
-    market_clearing_price_index: Sbi16
-) -> SecretSellBuyOutputs {
-    let mut buy_order_outputs = [SecretOrderOutput{id:Sbi16::from(0),quantity:Sbi16::from(0)}; 85];
-    let mut sell_order_outputs = [SecretOrderOutput{id:Sbi16::from(0),quantity:Sbi16::from(0)}; 85];
-    let mut index_s: usize = 0;
-    let mut index_b: usize = 0;
+/// Computes every difference at once and compares them pairwise in a tournament over
+/// `CLEARING_SEARCH_ORDER`. Each match keeps the later level if its difference is smaller or equal.
+/// Keeping the last smallest difference is associative, so the winner is the level the sequential
+/// search picks, after three rounds of comparisons instead of six.
+fn calculate_market_clearing_price_index_tournament(
+    total_supply: [SecretQuantity; 6],
+    total_demand: [SecretQuantity; 6],
+) -> SecretPriceIndex {
+    let mut demand_differences = [SecretQuantity::from(0); 6];
+    let mut indices = [SecretPriceIndex::from(0); 6];
+    for i in 0usize..6usize
+    {
+        let index = CLEARING_SEARCH_ORDER[i];
+        let mut demand_difference: SecretQuantity = total_supply[index] - total_demand[index];
+        if total_supply[index] < total_demand[index]{
+            demand_difference = total_demand[index] - total_supply[index];
+        }
+        demand_differences[i] = demand_difference;
+        indices[i] = SecretPriceIndex::from(index as PriceIndex);
+    }
 
+    let mut width: usize = 6;
+    for _round in 0usize..LOG2_CEIL_PRICE_LEVELS
+    {
+        let half = (width + 1) / 2;
+        for i in 0usize..6usize
+        {
+            if i < width / 2
+            {
+                let earlier = 2 * i;
+                let later = 2 * i + 1;
+                let later_wins = demand_differences[later] <= demand_differences[earlier];
+                let mut demand_difference = demand_differences[earlier];
+                let mut index = indices[earlier];
+                if later_wins
+                {
+                    demand_difference = demand_differences[later];
+                    index = indices[later];
+                }
+                demand_differences[i] = demand_difference;
+                indices[i] = index;
+            }
+            else if i < half
+            {
+                demand_differences[i] = demand_differences[2 * i];
+                indices[i] = indices[2 * i];
+            }
+        }
+        width = half;
+    }
+    indices[0]
+}
+
+fn calculate_market_clearing_price_selector(
+    market_clearing_price_index: SecretPriceIndex
+) -> [Sbu1; 6] {
     let mut mcp_eq_ary = [Sbu1::from(false); 6];
     for i in 0usize..6usize
     {
-        if market_clearing_price_index == Sbi16::from(i as i16)
+        if market_clearing_price_index == SecretPriceIndex::from(i as PriceIndex)
         {
             mcp_eq_ary[i] = Sbu1::from(true);
         }
     }
+    mcp_eq_ary
+}
+
+fn calculate_order_output(
+    offer: SecretOrderInput,
+    mcp_eq_ary: [Sbu1; 6],
+) -> SecretOrderOutput {
+    let mut quantity = SecretQuantity::from(0);
+    for i in 0usize..6usize
+    {
+        if mcp_eq_ary[i]{
+            quantity = offer.quantity_per_price[i];
+        }
+    }
+    SecretOrderOutput {
+        id: offer.id,
+        quantity,
+    }
+}
+
+fn empty_order_output() -> SecretOrderOutput {
+    SecretOrderOutput {
+        id: SecretId::from(0),
+        quantity: SecretQuantity::from(0),
+    }
+}
+
+fn calculate_sell_buy_order_outputs(
+    tree_aggregation: bool,
+    sequential_price_search: bool,
+    round: u32,
+    folded_through: u32,
+) -> SecretSellBuyOutputs {
+    let total_supply_demand = calculate_supply_demand(tree_aggregation, round, folded_through);
+
+    let market_clearing_price_index 
+        = calculate_market_clearing_price_index(sequential_price_search, total_supply_demand[0], total_supply_demand[1]);
+    let mcp_eq_ary = calculate_market_clearing_price_selector(market_clearing_price_index);
+
+    let mut sell_order_outputs = [empty_order_output(); MAX_ORDERS_PER_SIDE];
+    let mut buy_order_outputs = [empty_order_output(); MAX_ORDERS_PER_SIDE];
+    let mut index_s: usize = 0;
+    let mut index_b: usize = 0;
 
     for var_id in secret_variable_ids()
     {
-        let offer = load_sbi::<SecretOrderInput>(var_id);
-        let mut quantity = Sbi16::from(0);
-        if load_metadata::<u8>(var_id) == BUYING_ORDER
+        let order_type = order_type_in_round(var_id, round);
+        if order_type == SELLING_ORDER
         {
-            for i in 0usize..6usize
+            sell_order_outputs[index_s] = calculate_order_output(load_sbi::<SecretOrderInput>(var_id), mcp_eq_ary);
+            index_s = index_s + 1;
+        }
+        if order_type == BUYING_ORDER
+        {
+            buy_order_outputs[index_b] = calculate_order_output(load_sbi::<SecretOrderInput>(var_id), mcp_eq_ary);
+            index_b = index_b + 1;
+        }
+        if order_type == SELLING_ORDER_BATCH
+        {
+            let batch = load_sbi::<SecretOrderBatchInput>(var_id);
+            for k in 0usize..ORDER_BATCH_SIZE
             {
-                if mcp_eq_ary[i]{
-                    quantity = offer.quantity_per_price[i];
-                }
+                sell_order_outputs[index_s] = calculate_order_output(batch.orders[k], mcp_eq_ary);
+                index_s = index_s + 1;
             }
-            buy_order_outputs[index_b].id = offer.id;
-            buy_order_outputs[index_b].quantity = quantity;
-            index_b = index_b + 1;
         }
-        if load_metadata::<u8>(var_id) == SELLING_ORDER
+        if order_type == BUYING_ORDER_BATCH
         {
-            for i in 0usize..6usize
+            let batch = load_sbi::<SecretOrderBatchInput>(var_id);
+            for k in 0usize..ORDER_BATCH_SIZE
             {
-                if mcp_eq_ary[i]{
-                    quantity = offer.quantity_per_price[i];
-                }
+                buy_order_outputs[index_b] = calculate_order_output(batch.orders[k], mcp_eq_ary);
+                index_b = index_b + 1;
             }
-            sell_order_outputs[index_s].id = offer.id;
-            sell_order_outputs[index_s].quantity = quantity;
-            index_s = index_s + 1;
         }
     }
     SecretSellBuyOutputs {
+        market_clearing_price_index,
         sell_orders: sell_order_outputs,
         buy_orders: buy_order_outputs
     }
 }
 
+/// Folds the orders of `round` received after `folded_through` and no later than `through` into the
+/// running totals of the round. The contract runs this as orders arrive, so the auction itself only
+/// has to add the orders received since the last fold.
+#[zk_compute(shortname = 0x67)]
+pub fn fold_orders(
+    round: u32,
+    folded_through: u32,
+    through: u32,
+) -> SecretTotals {
+    let totals = calculate_supply_demand_sequential(round, folded_through, through);
+    SecretTotals {
+        supply: totals[0],
+        demand: totals[1],
+    }
+}
+
+// Stage entry points compute a prefix of the stages of the double auction, so that the cost of each
+// stage can be told apart under test: the supply and demand alone, then with the clearing price index
+// found from them. The order outputs are what a full tier adds on top. They are run by the
+// `profile_stage` action, and their outputs are deleted without being opened. `stage_clearing_price`
+// is also the first phase of the two-phase auction, whose output is opened.
+
+#[zk_compute(shortname = 0x6A)]
+pub fn stage_supply_demand(
+    tree_aggregation: bool,
+    round: u32,
+    folded_through: u32,
+) -> SecretTotals {
+    let totals = calculate_supply_demand(tree_aggregation, round, folded_through);
+    SecretTotals {
+        supply: totals[0],
+        demand: totals[1],
+    }
+}
+
+#[zk_compute(shortname = 0x6B)]
+pub fn stage_clearing_price(
+    tree_aggregation: bool,
+    sequential_price_search: bool,
+    round: u32,
+    folded_through: u32,
+) -> SecretPriceIndex {
+    let totals = calculate_supply_demand(tree_aggregation, round, folded_through);
+    calculate_market_clearing_price_index(sequential_price_search, totals[0], totals[1])
+}
+
+// The double auction is provided in several capacity tiers. Every tier computes the same result, but
+// opens only as many order slots per side as the tier holds, so small auctions do not pay for padding
+// in opened bytes and in the matching loop of the contract. The contract selects the smallest tier
+// that fits the number of orders. Slots are filled at public positions, so copying a prefix of the
+// shared outputs costs no multiplications.
+
+#[zk_compute(shortname = 0x63)]
+pub fn double_auction_8(
+    tree_aggregation: bool,
+    sequential_price_search: bool,
+    round: u32,
+    folded_through: u32,
+) -> (
+    SecretPriceIndex,
+    [SecretOrderOutput; 8],
+    [SecretOrderOutput; 8],)
+{
+    let outputs = calculate_sell_buy_order_outputs(tree_aggregation, sequential_price_search, round, folded_through);
+
+    let mut sell_order_outputs = [empty_order_output(); 8];
+    let mut buy_order_outputs = [empty_order_output(); 8];
+    for i in 0usize..8usize
+    {
+        sell_order_outputs[i] = outputs.sell_orders[i];
+        buy_order_outputs[i] = outputs.buy_orders[i];
+    }
+    (outputs.market_clearing_price_index, sell_order_outputs, buy_order_outputs)
+}
+
+#[zk_compute(shortname = 0x64)]
+pub fn double_auction_16(
+    tree_aggregation: bool,
+    sequential_price_search: bool,
+    round: u32,
+    folded_through: u32,
+) -> (
+    SecretPriceIndex,
+    [SecretOrderOutput; 16],
+    [SecretOrderOutput; 16],)
+{
+    let outputs = calculate_sell_buy_order_outputs(tree_aggregation, sequential_price_search, round, folded_through);
+
+    let mut sell_order_outputs = [empty_order_output(); 16];
+    let mut buy_order_outputs = [empty_order_output(); 16];
+    for i in 0usize..16usize
+    {
+        sell_order_outputs[i] = outputs.sell_orders[i];
+        buy_order_outputs[i] = outputs.buy_orders[i];
+    }
+    (outputs.market_clearing_price_index, sell_order_outputs, buy_order_outputs)
+}
+
+#[zk_compute(shortname = 0x65)]
+pub fn double_auction_32(
+    tree_aggregation: bool,
+    sequential_price_search: bool,
+    round: u32,
+    folded_through: u32,
+) -> (
+    SecretPriceIndex,
+    [SecretOrderOutput; 32],
+    [SecretOrderOutput; 32],)
+{
+    let outputs = calculate_sell_buy_order_outputs(tree_aggregation, sequential_price_search, round, folded_through);
+
+    let mut sell_order_outputs = [empty_order_output(); 32];
+    let mut buy_order_outputs = [empty_order_output(); 32];
+    for i in 0usize..32usize
+    {
+        sell_order_outputs[i] = outputs.sell_orders[i];
+        buy_order_outputs[i] = outputs.buy_orders[i];
+    }
+    (outputs.market_clearing_price_index, sell_order_outputs, buy_order_outputs)
+}
+
 #[zk_compute(shortname = 0x62)]
-pub fn double_auction() -> (
-    Sbi16,
+pub fn double_auction(
+    tree_aggregation: bool,
+    sequential_price_search: bool,
+    round: u32,
+    folded_through: u32,
+) -> (
+    SecretPriceIndex,
     [SecretOrderOutput; 85],
     [SecretOrderOutput; 85],)
 {
-    let total_supply_demand = calculate_supply_demand();
-
-    let market_clearing_price_index 
-        = calculate_market_clearing_price_index(total_supply_demand[0], total_supply_demand[1]);
+    let outputs = calculate_sell_buy_order_outputs(tree_aggregation, sequential_price_search, round, folded_through);
 
-    let sell_buy_outputs 
-        = calculate_sell_buy_order_outputs(market_clearing_price_index);
+    let mut sell_order_outputs = [empty_order_output(); 85];
+    let mut buy_order_outputs = [empty_order_output(); 85];
+    for i in 0usize..85usize
+    {
+        sell_order_outputs[i] = outputs.sell_orders[i];
+        buy_order_outputs[i] = outputs.buy_orders[i];
+    }
+    (outputs.market_clearing_price_index, sell_order_outputs, buy_order_outputs)
+}
     
-    (market_clearing_price_index, sell_buy_outputs.sell_orders, sell_buy_outputs.buy_orders)
+#[zk_compute(shortname = 0x66)]
+pub fn double_auction_128(
+    tree_aggregation: bool,
+    sequential_price_search: bool,
+    round: u32,
+    folded_through: u32,
+) -> (
+    SecretPriceIndex,
+    [SecretOrderOutput; 128],
+    [SecretOrderOutput; 128],)
+{
+    let outputs = calculate_sell_buy_order_outputs(tree_aggregation, sequential_price_search, round, folded_through);
+
+    let mut sell_order_outputs = [empty_order_output(); 128];
+    let mut buy_order_outputs = [empty_order_output(); 128];
+    for i in 0usize..128usize
+    {
+        sell_order_outputs[i] = outputs.sell_orders[i];
+        buy_order_outputs[i] = outputs.buy_orders[i];
+    }
+    (outputs.market_clearing_price_index, sell_order_outputs, buy_order_outputs)
+}
+
+// Compacted outputs move the orders that trade at the clearing price, those with a non-zero
+// quantity, to the front of each side, keeping their order. The contract opens a summary with the
+// number of such orders first, and then only the chunks that hold them, so non-participating orders
+// and padding are neither opened nor walked by the matching loop.
+
+/// Order slots of the chunks of a compacted side, in order. Every chunk after the first is as large
+/// as the chunks before it, so the opened chunks never hold more than twice the orders they must.
+pub const COMPACTED_CHUNK_SLOTS: [usize; 5] = [8, 8, 16, 32, 64];
+
+/// Counts of order slots, up to `MAX_ORDERS_PER_SIDE`, and the shifts of the compaction.
+pub type SlotCount = i16;
+pub type SecretSlotCount = Sbi16;
+
+/// The clearing price index and the number of orders of each side with a non-zero quantity at it.
+#[derive(SecretBinary, Clone, Copy, CreateTypeSpec)]
+pub struct SecretClearingSummary {
+    pub market_clearing_price_index: SecretPriceIndex,
+    pub sell_count: SecretSlotCount,
+    pub buy_count: SecretSlotCount,
+}
+
+/// Moves the orders with a non-zero quantity among the first `capacity` slots to the front, keeping
+/// their order, and returns them with their number. Every order is shifted towards the front by the
+/// number of empty slots before it, one bit of the shift per stage from the least significant bit,
+/// which never moves two orders into the same slot. Finding the empty slots costs a `Quantity`-wide
+/// equality against zero and a `SlotCount`-wide addition per slot. The shift bit of a stage is masked
+/// with a public constant, which is free, but is then tested with a `SlotCount`-wide equality. Every
+/// stage tests the bit of a slot and of the slot `step` behind it, and selects an order output and a
+/// shift with each test, so compaction takes `2 * capacity * log2(capacity)` equalities and selects.
+fn compact_order_outputs(
+    orders: [SecretOrderOutput; MAX_ORDERS_PER_SIDE],
+    capacity: usize,
+) -> ([SecretOrderOutput; MAX_ORDERS_PER_SIDE], SecretSlotCount) {
+    let mut slots = [empty_order_output(); MAX_ORDERS_PER_SIDE];
+    let mut shifts = [SecretSlotCount::from(0); MAX_ORDERS_PER_SIDE];
+    let mut empty_slots = SecretSlotCount::from(0);
+    for i in 0usize..MAX_ORDERS_PER_SIDE
+    {
+        if i < capacity
+        {
+            slots[i] = orders[i];
+            shifts[i] = empty_slots;
+            if orders[i].quantity == SecretQuantity::from(0)
+            {
+                slots[i] = empty_order_output();
+                shifts[i] = SecretSlotCount::from(0);
+                empty_slots = empty_slots + SecretSlotCount::from(1);
+            }
+        }
+    }
+
+    let mut step: usize = 1;
+    for _stage in 0usize..LOG2_MAX_ORDERS_PER_SIDE
+    {
+        if step < capacity
+        {
+            let step_bit = SecretSlotCount::from(step as SlotCount);
+            let mut next_slots = [empty_order_output(); MAX_ORDERS_PER_SIDE];
+            let mut next_shifts = [SecretSlotCount::from(0); MAX_ORDERS_PER_SIDE];
+            for i in 0usize..MAX_ORDERS_PER_SIDE
+            {
+                if i < capacity
+                {
+                    if (shifts[i] & step_bit) == SecretSlotCount::from(0)
+                    {
+                        next_slots[i] = slots[i];
+                        next_shifts[i] = shifts[i];
+                    }
+                    if i + step < capacity
+                    {
+                        if (shifts[i + step] & step_bit) == step_bit
+                        {
+                            next_slots[i] = slots[i + step];
+                            next_shifts[i] = shifts[i + step];
+                        }
+                    }
+                }
+            }
+            slots = next_slots;
+            shifts = next_shifts;
+        }
+        step = step * 2;
+    }
+    (slots, SecretSlotCount::from(capacity as SlotCount) - empty_slots)
+}
+
+/// Splits the order slots of one side into chunks in the sizes of `COMPACTED_CHUNK_SLOTS`. Chunks are
+/// filled at public positions, so splitting is free.
+fn split_into_chunks(
+    orders: [SecretOrderOutput; MAX_ORDERS_PER_SIDE],
+) -> (
+    [SecretOrderOutput; 8],
+    [SecretOrderOutput; 8],
+    [SecretOrderOutput; 16],
+    [SecretOrderOutput; 32],
+    [SecretOrderOutput; 64],)
+{
+    let mut chunk_0 = [empty_order_output(); 8];
+    let mut chunk_1 = [empty_order_output(); 8];
+    let mut chunk_2 = [empty_order_output(); 16];
+    let mut chunk_3 = [empty_order_output(); 32];
+    let mut chunk_4 = [empty_order_output(); 64];
+    for i in 0usize..8usize
+    {
+        chunk_0[i] = orders[i];
+        chunk_1[i] = orders[8 + i];
+    }
+    for i in 0usize..16usize
+    {
+        chunk_2[i] = orders[16 + i];
+    }
+    for i in 0usize..32usize
+    {
+        chunk_3[i] = orders[32 + i];
+    }
+    for i in 0usize..64usize
+    {
+        chunk_4[i] = orders[64 + i];
+    }
+    (chunk_0, chunk_1, chunk_2, chunk_3, chunk_4)
+}
+
+/// The auction with compacted outputs, computed over the first `capacity` order slots per side.
+/// Returns the summary, then the chunks of the sell side and the chunks of the buy side.
+#[zk_compute(shortname = 0x69)]
+pub fn double_auction_compacted(
+    tree_aggregation: bool,
+    sequential_price_search: bool,
+    round: u32,
+    folded_through: u32,
+    capacity: u32,
+) -> (
+    SecretClearingSummary,
+    [SecretOrderOutput; 8],
+    [SecretOrderOutput; 8],
+    [SecretOrderOutput; 16],
+    [SecretOrderOutput; 32],
+    [SecretOrderOutput; 64],
+    [SecretOrderOutput; 8],
+    [SecretOrderOutput; 8],
+    [SecretOrderOutput; 16],
+    [SecretOrderOutput; 32],
+    [SecretOrderOutput; 64],)
+{
+    let outputs = calculate_sell_buy_order_outputs(tree_aggregation, sequential_price_search, round, folded_through);
+    let (sell_orders, sell_count) = compact_order_outputs(outputs.sell_orders, capacity as usize);
+    let (buy_orders, buy_count) = compact_order_outputs(outputs.buy_orders, capacity as usize);
+    let (sell_0, sell_1, sell_2, sell_3, sell_4) = split_into_chunks(sell_orders);
+    let (buy_0, buy_1, buy_2, buy_3, buy_4) = split_into_chunks(buy_orders);
+
+    let summary = SecretClearingSummary {
+        market_clearing_price_index: outputs.market_clearing_price_index,
+        sell_count,
+        buy_count,
+    };
+    (summary, sell_0, sell_1, sell_2, sell_3, sell_4, buy_0, buy_1, buy_2, buy_3, buy_4)
+}
+
+// The two-phase auction opens the clearing price index before it selects the quantities of the
+// orders. Its first phase is `stage_clearing_price`. The second phase reads the quantity of every
+// order at the opened index, a public position, so it needs neither the one-hot selector nor the
+// oblivious select of `calculate_order_output`, and costs no multiplications.
+
+fn order_output_at(
+    offer: SecretOrderInput,
+    price_index: usize,
+) -> SecretOrderOutput {
+    SecretOrderOutput {
+        id: offer.id,
+        quantity: offer.quantity_per_price[price_index],
+    }
+}
+
+/// Second phase of the two-phase auction: the quantity of every order of `round` at the opened
+/// `market_clearing_price_index`. Returns the chunks of the sell side and the chunks of the buy side,
+/// with every order in the slot it has in the capacity tiers, so the contract opens only the chunks
+/// that hold the orders of the round.
+#[zk_compute(shortname = 0x6C)]
+pub fn select_order_outputs(
+    round: u32,
+    market_clearing_price_index: u32,
+) -> (
+    [SecretOrderOutput; 8],
+    [SecretOrderOutput; 8],
+    [SecretOrderOutput; 16],
+    [SecretOrderOutput; 32],
+    [SecretOrderOutput; 64],
+    [SecretOrderOutput; 8],
+    [SecretOrderOutput; 8],
+    [SecretOrderOutput; 16],
+    [SecretOrderOutput; 32],
+    [SecretOrderOutput; 64],)
+{
+    let price_index = market_clearing_price_index as usize;
+    let mut sell_order_outputs = [empty_order_output(); MAX_ORDERS_PER_SIDE];
+    let mut buy_order_outputs = [empty_order_output(); MAX_ORDERS_PER_SIDE];
+    let mut index_s: usize = 0;
+    let mut index_b: usize = 0;
+
+    for var_id in secret_variable_ids()
+    {
+        let order_type = order_type_in_round(var_id, round);
+        if order_type == SELLING_ORDER
+        {
+            sell_order_outputs[index_s] = order_output_at(load_sbi::<SecretOrderInput>(var_id), price_index);
+            index_s = index_s + 1;
+        }
+        if order_type == BUYING_ORDER
+        {
+            buy_order_outputs[index_b] = order_output_at(load_sbi::<SecretOrderInput>(var_id), price_index);
+            index_b = index_b + 1;
+        }
+        if order_type == SELLING_ORDER_BATCH
+        {
+            let batch = load_sbi::<SecretOrderBatchInput>(var_id);
+            for k in 0usize..ORDER_BATCH_SIZE
+            {
+                sell_order_outputs[index_s] = order_output_at(batch.orders[k], price_index);
+                index_s = index_s + 1;
+            }
+        }
+        if order_type == BUYING_ORDER_BATCH
+        {
+            let batch = load_sbi::<SecretOrderBatchInput>(var_id);
+            for k in 0usize..ORDER_BATCH_SIZE
+            {
+                buy_order_outputs[index_b] = order_output_at(batch.orders[k], price_index);
+                index_b = index_b + 1;
+            }
+        }
+    }
+    let (sell_0, sell_1, sell_2, sell_3, sell_4) = split_into_chunks(sell_order_outputs);
+    let (buy_0, buy_1, buy_2, buy_3, buy_4) = split_into_chunks(buy_order_outputs);
+    (sell_0, sell_1, sell_2, sell_3, sell_4, buy_0, buy_1, buy_2, buy_3, buy_4)
+}
+
+// Price ladders of up to `MAX_PRICE_LEVELS` levels take cumulative orders. Supply then never
+// decreases and demand never increases with the price, so the difference between them is sorted and
+// the clearing level can be found with a binary search: log2(MAX_PRICE_LEVELS) comparisons instead of
+// one per level.
+
+fn calculate_ladder_supply_demand(
+    round: u32,
+) -> [[SecretQuantity; MAX_PRICE_LEVELS]; 2] {
+    let mut total_supply = [SecretQuantity::from(0); MAX_PRICE_LEVELS];
+    let mut total_demand = [SecretQuantity::from(0); MAX_PRICE_LEVELS];
+    for var_id in secret_variable_ids()
+    {
+        let order_type = order_type_in_round(var_id, round);
+        if order_type == SELLING_LADDER_ORDER
+        {
+            let offer = load_sbi::<SecretLadderOrderInput>(var_id);
+            for i in 0usize..MAX_PRICE_LEVELS
+            {
+                total_supply[i] = total_supply[i] + offer.quantity_per_price[i];
+            }
+        }
+        else if order_type == BUYING_LADDER_ORDER
+        {
+            let offer = load_sbi::<SecretLadderOrderInput>(var_id);
+            for i in 0usize..MAX_PRICE_LEVELS
+            {
+                total_demand[i] = total_demand[i] + offer.quantity_per_price[i];
+            }
+        }
+    }
+    [total_supply, total_demand]
+}
+
+fn absolute_value(
+    value: SecretQuantity,
+) -> SecretQuantity {
+    let mut result = value;
+    if value < SecretQuantity::from(0)
+    {
+        result = SecretQuantity::from(0) - value;
+    }
+    result
+}
+
+/// Finds the first level where supply is at least demand, and picks the level below it instead if
+/// supply and demand are strictly closer there. Levels beyond `price_levels` are padded with the
+/// largest difference, so the search stays within the ladder. Every step compares the last
+/// difference of the lower half of the window and keeps the half that holds the first
+/// non-negative difference, so the window shrinks from `MAX_PRICE_LEVELS` to one level.
+fn calculate_ladder_clearing_price_index(
+    total_supply: [SecretQuantity; MAX_PRICE_LEVELS],
+    total_demand: [SecretQuantity; MAX_PRICE_LEVELS],
+    price_levels: usize,
+) -> SecretPriceIndex {
+    let mut window = [SecretQuantity::from(Quantity::MAX); MAX_PRICE_LEVELS];
+    for i in 0usize..MAX_PRICE_LEVELS
+    {
+        if i < price_levels
+        {
+            window[i] = total_supply[i] - total_demand[i];
+        }
+    }
+
+    let mut index = SecretPriceIndex::from(0);
+    let mut below = SecretQuantity::from(0);
+    let mut has_below = Sbu1::from(false);
+    let mut width = MAX_PRICE_LEVELS;
+    for _step in 0usize..LOG2_MAX_PRICE_LEVELS
+    {
+        let half = width / 2;
+        let lower_last = window[half - 1];
+        let in_upper_half = lower_last < SecretQuantity::from(0);
+        if in_upper_half
+        {
+            index = index + SecretPriceIndex::from(half as PriceIndex);
+            below = lower_last;
+            has_below = Sbu1::from(true);
+        }
+        for i in 0usize..MAX_PRICE_LEVELS
+        {
+            if i < half
+            {
+                if in_upper_half
+                {
+                    window[i] = window[half + i];
+                }
+            }
+        }
+        width = half;
+    }
+
+    let mut market_clearing_price_index = index;
+    if has_below
+    {
+        if absolute_value(below) < absolute_value(window[0])
+        {
+            market_clearing_price_index = index - SecretPriceIndex::from(1);
+        }
+    }
+    market_clearing_price_index
+}
+
+fn calculate_ladder_order_output(
+    offer: SecretLadderOrderInput,
+    market_clearing_price_index: SecretPriceIndex,
+) -> SecretOrderOutput {
+    let mut quantity = SecretQuantity::from(0);
+    for i in 0usize..MAX_PRICE_LEVELS
+    {
+        if market_clearing_price_index == SecretPriceIndex::from(i as PriceIndex)
+        {
+            quantity = offer.quantity_per_price[i];
+        }
+    }
+    SecretOrderOutput {
+        id: offer.id,
+        quantity,
+    }
+}
+
+#[zk_compute(shortname = 0x68)]
+pub fn double_auction_ladder(
+    round: u32,
+    price_levels: u32,
+) -> (
+    SecretPriceIndex,
+    [SecretOrderOutput; LADDER_ORDERS_PER_SIDE],
+    [SecretOrderOutput; LADDER_ORDERS_PER_SIDE],)
+{
+    let total_supply_demand = calculate_ladder_supply_demand(round);
+    let market_clearing_price_index = calculate_ladder_clearing_price_index(
+        total_supply_demand[0],
+        total_supply_demand[1],
+        price_levels as usize,
+    );
+
+    let mut sell_order_outputs = [empty_order_output(); LADDER_ORDERS_PER_SIDE];
+    let mut buy_order_outputs = [empty_order_output(); LADDER_ORDERS_PER_SIDE];
+    let mut index_s: usize = 0;
+    let mut index_b: usize = 0;
+    for var_id in secret_variable_ids()
+    {
+        let order_type = order_type_in_round(var_id, round);
+        if order_type == SELLING_LADDER_ORDER
+        {
+            sell_order_outputs[index_s] = calculate_ladder_order_output(load_sbi::<SecretLadderOrderInput>(var_id), market_clearing_price_index);
+            index_s = index_s + 1;
+        }
+        else if order_type == BUYING_LADDER_ORDER
+        {
+            buy_order_outputs[index_b] = calculate_ladder_order_output(load_sbi::<SecretLadderOrderInput>(var_id), market_clearing_price_index);
+            index_b = index_b + 1;
+        }
+    }
+    (market_clearing_price_index, sell_order_outputs, buy_order_outputs)
 }
\ No newline at end of file
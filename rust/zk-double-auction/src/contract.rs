@@ -7,7 +7,7 @@ extern crate pbc_contract_common;
 mod zk_compute;
 
 use pbc_contract_common::address::Address;
-use crate::zk_compute::SecretOrderStruct;
+use crate::zk_compute::{SecretOrderStruct, MAX_ORDERS};
 use create_type_spec_derive::CreateTypeSpec;
 use pbc_contract_common::context::ContractContext;
 use pbc_contract_common::events::EventGroup;
@@ -32,9 +32,9 @@ enum SecretVarType {
 
 #[derive(ReadWriteState, CreateTypeSpec, Clone)]
 pub struct TradeResult {
-    pub buyer_ids: [i16;135],
-    pub seller_ids: [i16;135],
-    pub quantities: [i16;135],
+    pub buyer_ids: [i16;MAX_ORDERS],
+    pub seller_ids: [i16;MAX_ORDERS],
+    pub quantities: [i16;MAX_ORDERS],
 }
 
 #[derive(ReadWriteState, CreateTypeSpec, Clone)]
@@ -176,6 +176,13 @@ fn hold_double_auction(
 
     assert_eq!(state.equilibrium_price.is_none(), true, "Equilibrium price has been calculated before!");
 
+    let order_count = zk_state
+        .secret_variables
+        .iter()
+        .filter(|(_, variable)| variable.metadata.order_type != SecretVarType::Matched)
+        .count();
+    assert!(order_count <= MAX_ORDERS, "Too many orders for a single auction!");
+
     (
         state,
         vec![],
@@ -225,18 +232,33 @@ fn save_opened_variable(
         state.equilibrium_price = Some(eq_price); 
 
         let list_of_trades:TradeResult = read_variable(&zk_state,opened_variables.get(1));
-        for i in 0usize..10usize
+        for i in 0usize..MAX_ORDERS
         {
-            state.matched_orders.push(SingleTradeResult::new_trade(
-                list_of_trades.buyer_ids[i],
-                list_of_trades.seller_ids[i],
-                list_of_trades.quantities[i],
-            ));
+            if list_of_trades.quantities[i] > 0
+            {
+                state.matched_orders.push(SingleTradeResult::new_trade(
+                    list_of_trades.buyer_ids[i],
+                    list_of_trades.seller_ids[i],
+                    list_of_trades.quantities[i],
+                ));
+            }
         }
 
-        assert!(state.matched_orders.len() == 10, "Matched orders does not have 10 items!");
+    // The outputs have been read and the orders are consumed by the auction, so neither is kept
+    // until the contract is reset. Inputs still pending are left for `reset_contract`.
+    let consumed_variables = zk_state
+        .secret_variables
+        .iter()
+        .map(|(v, _)| v)
+        .collect();
 
-    (state, vec![], vec![])
+    (
+        state,
+        vec![],
+        vec![ZkStateChange::DeleteVariables {
+            variables_to_delete: consumed_variables,
+        }],
+    )
 }
 
 fn read_variable<T: ReadWriteState>(
@@ -1,10 +1,20 @@
 use pbc_zk::*;
 use create_type_spec_derive::CreateTypeSpec;
 
-#[allow(unused)]
 const BUYING_ORDER: u8 = 1u8;
 const SELLING_ORDER: u8 = 2u8;
 
+/// Largest number of orders, sell and buy orders together, of one auction.
+pub const MAX_ORDERS: usize = 256;
+const LOG2_MAX_ORDERS: usize = 8;
+
+/// Start of the padding on the merged axis, after every cumulative quantity.
+const PADDING_START: i16 = 32767;
+
+/// An order with its quantity at each of the six prices. The quantities of the orders of one side at
+/// one price must sum to at most `PADDING_START`: the totals and the prefix sums of the auction are
+/// 16-bit, and the merge needs every cumulative start to lie before the padding. Larger sums wrap
+/// around without notice and give wrong trades.
 #[allow(unused)]
 #[derive(SecretBinary, Clone, Copy, CreateTypeSpec)]
 pub struct SecretOrderStruct {
@@ -14,9 +24,143 @@ pub struct SecretOrderStruct {
 
 #[derive(Clone, PartialEq)]
 pub struct SecretTradeStruct {
-    pub buyer_ids: [Sbi16;135],
-    pub seller_ids: [Sbi16;135],
-    pub quantities: [Sbi16;135],
+    pub buyer_ids: [Sbi16;MAX_ORDERS],
+    pub seller_ids: [Sbi16;MAX_ORDERS],
+    pub quantities: [Sbi16;MAX_ORDERS],
+}
+
+/// Where an order starts on the axis of cumulative quantities of its side.
+#[derive(Clone, Copy)]
+struct Breakpoint {
+    start: Sbi16,
+    id: Sbi16,
+    /// Whether a sell order with a non-zero quantity starts here.
+    starts_seller: Sbu1,
+    /// Whether a buy order with a non-zero quantity starts here.
+    starts_buyer: Sbu1,
+}
+
+/// The quantity of each of the first `count` orders that comes before it, and the total. The sums are
+/// built by doubling the distance added in, so they take log2(count) rounds of additions.
+fn exclusive_prefix_sums(
+    quantities: [Sbi16;MAX_ORDERS],
+    count: usize,
+) -> ([Sbi16;MAX_ORDERS], Sbi16) {
+    let mut sums = quantities;
+    let mut step: usize = 1;
+    for _stage in 0usize..LOG2_MAX_ORDERS
+    {
+        if step < count
+        {
+            let previous = sums;
+            for i in 0usize..MAX_ORDERS
+            {
+                if i >= step && i < count
+                {
+                    sums[i] = previous[i] + previous[i - step];
+                }
+            }
+        }
+        step = step * 2;
+    }
+
+    let mut starts = [Sbi16::from(0);MAX_ORDERS];
+    for i in 0usize..MAX_ORDERS
+    {
+        if i < count
+        {
+            starts[i] = sums[i] - quantities[i];
+        }
+    }
+    let mut total = Sbi16::from(0);
+    if count > 0
+    {
+        total = sums[count - 1];
+    }
+    (starts, total)
+}
+
+/// Sorts the first `width` breakpoints by start with a bitonic merge. They must hold the sell orders
+/// in increasing order followed by the buy orders in decreasing order, which takes log2(width)
+/// rounds of `width / 2` compare-exchanges.
+fn merge_breakpoints(
+    breakpoints: [Breakpoint;MAX_ORDERS],
+    width: usize,
+) -> [Breakpoint;MAX_ORDERS] {
+    let mut merged = breakpoints;
+    let mut half: usize = MAX_ORDERS / 2;
+    for _stage in 0usize..LOG2_MAX_ORDERS
+    {
+        if half < width
+        {
+            for i in 0usize..MAX_ORDERS
+            {
+                if i < width && (i / half) % 2 == 0
+                {
+                    let lower = merged[i];
+                    let upper = merged[i + half];
+                    if upper.start < lower.start
+                    {
+                        merged[i] = upper;
+                        merged[i + half] = lower;
+                    }
+                }
+            }
+        }
+        half = half / 2;
+    }
+    merged
+}
+
+/// For each of the first `width` positions, the id at the last position up to it where `started`
+/// holds. Like the prefix sums, the distance looked back doubles every round.
+fn last_started_ids(
+    started: [Sbu1;MAX_ORDERS],
+    ids: [Sbi16;MAX_ORDERS],
+    width: usize,
+) -> [Sbi16;MAX_ORDERS] {
+    let mut found = started;
+    let mut last = ids;
+    let mut step: usize = 1;
+    for _stage in 0usize..LOG2_MAX_ORDERS
+    {
+        if step < width
+        {
+            let previous_found = found;
+            let previous_last = last;
+            for i in 0usize..MAX_ORDERS
+            {
+                if i >= step && i < width
+                {
+                    found[i] = previous_found[i - step];
+                    last[i] = previous_last[i - step];
+                    if previous_found[i]
+                    {
+                        found[i] = Sbu1::from(true);
+                        last[i] = previous_last[i];
+                    }
+                }
+            }
+        }
+        step = step * 2;
+    }
+    last
+}
+
+/// The quantity of `offer` at the secret price index `ep`.
+fn quantity_at_price(
+    offer: SecretOrderStruct,
+    ep: Sbi16,
+) -> Sbi16 {
+    let mut quantity = Sbi16::from(0);
+    for i in 0usize..6usize
+    {
+        if ep == Sbi16::from(i as i16)
+        {
+            quantity = offer.quantity_per_price[i];
+        }
+    }
+    quantity
 }
 
 #[zk_compute(shortname = 0x62)]
@@ -26,20 +170,22 @@ pub fn double_auction() -> (Sbi16,SecretTradeStruct)
     let mut total_demand = [Sbi16::from(0);6];
     let mut total_supply = [Sbi16::from(0);6];
 
-    //Extract the total demand and supply
+    //Extract the total demand and supply. Only orders are loaded, other variables are skipped by
+    //their metadata.
     for var_id in secret_variable_ids()
     {
-        let offer = load_sbi::<SecretOrderStruct>(var_id);
-
-        if load_metadata::<u8>(var_id) == BUYING_ORDER
+        let order_type = load_metadata::<u8>(var_id);
+        if order_type == BUYING_ORDER
         {
+            let offer = load_sbi::<SecretOrderStruct>(var_id);
             for i in 0usize..6usize
             {
                 total_demand[i] = total_demand[i] + offer.quantity_per_price[i];
             }
         }
-        else if load_metadata::<u8>(var_id) == SELLING_ORDER
+        else if order_type == SELLING_ORDER
         {
+            let offer = load_sbi::<SecretOrderStruct>(var_id);
             for i in 0usize..6usize
             {
                 total_supply[i] = total_supply[i] + offer.quantity_per_price[i];
@@ -60,73 +206,125 @@ pub fn double_auction() -> (Sbi16,SecretTradeStruct)
     }
 
     let mut auction_results = SecretTradeStruct{
-        buyer_ids:[Sbi16::from(0);135],
-        seller_ids:[Sbi16::from(0);135],
-        quantities:[Sbi16::from(0);135],
+        buyer_ids:[Sbi16::from(0);MAX_ORDERS],
+        seller_ids:[Sbi16::from(0);MAX_ORDERS],
+        quantities:[Sbi16::from(0);MAX_ORDERS],
     };
 
     //Placing House_ids and their quantities in two arrays
-    let mut sell_orders_quantity = [Sbi16::from(0);3];
-    let mut sell_orders_ids = [Sbi16::from(0);3];
-    let mut buy_orders_quantity = [Sbi16::from(0);45];
-    let mut buy_orders_ids = [Sbi16::from(0);45];
+    let mut sell_orders_quantity = [Sbi16::from(0);MAX_ORDERS];
+    let mut sell_orders_ids = [Sbi16::from(0);MAX_ORDERS];
+    let mut buy_orders_quantity = [Sbi16::from(0);MAX_ORDERS];
+    let mut buy_orders_ids = [Sbi16::from(0);MAX_ORDERS];
     
     let mut index_b:usize = 0;
     let mut index_s:usize = 0;
 
-    //Extract the quantity for equilibrium price
+    //Extract the quantity for equilibrium price. The select only runs for orders.
     for variable_id in secret_variable_ids()
     {
-        let offer = load_sbi::<SecretOrderStruct>(variable_id);
-        let mut quantity = Sbi16::from(0);
-
-        for i in 0usize..6usize
+        let order_type = load_metadata::<u8>(variable_id);
+        if order_type == BUYING_ORDER
         {
-            if ep == Sbi16::from(i as i16)
-            {
-                quantity = offer.quantity_per_price[i];
-            }
-        }
-
-        if load_metadata::<u8>(variable_id) == BUYING_ORDER
-        {
-            buy_orders_quantity[index_b] = quantity;
+            let offer = load_sbi::<SecretOrderStruct>(variable_id);
+            buy_orders_quantity[index_b] = quantity_at_price(offer, ep);
             buy_orders_ids[index_b] = offer.house_id;
             index_b = index_b + 1;
         }
-        else if load_metadata::<u8>(variable_id) == SELLING_ORDER
+        else if order_type == SELLING_ORDER
         {
-            sell_orders_quantity[index_s] = quantity;
+            let offer = load_sbi::<SecretOrderStruct>(variable_id);
+            sell_orders_quantity[index_s] = quantity_at_price(offer, ep);
             sell_orders_ids[index_s] = offer.house_id;
             index_s = index_s + 1;
         }
     }
     
-    let mut index_t:usize = 0;
+    // Every order covers an interval of the cumulative quantity of its side, and a seller and a buyer
+    // trade the overlap of their intervals up to the traded volume. This is what filling the buyers
+    // from each seller in turn gives, but the trades are found from the sorted interval starts: between
+    // two neighbouring starts, the last seller and the last buyer that started trade the distance.
+    let (sell_starts, total_sell_quantity) = exclusive_prefix_sums(sell_orders_quantity, index_s);
+    let (buy_starts, total_buy_quantity) = exclusive_prefix_sums(buy_orders_quantity, index_b);
+    let mut traded_volume = total_sell_quantity;
+    if total_buy_quantity < total_sell_quantity
+    {
+        traded_volume = total_buy_quantity;
+    }
 
-    //Make a trade between all participants
-    for i in 0usize..3usize
+    let mut width:usize = 1;
+    for _stage in 0usize..LOG2_MAX_ORDERS
     {
-        for j in 0usize..45usize
+        if width < index_s + index_b
         {
-            let mut traded_quantity = Sbi16::from(0);
-            if sell_orders_quantity[i] > buy_orders_quantity[j]
+            width = width * 2;
+        }
+    }
+
+    let padding = Breakpoint {
+        start: Sbi16::from(PADDING_START),
+        id: Sbi16::from(0),
+        starts_seller: Sbu1::from(false),
+        starts_buyer: Sbu1::from(false),
+    };
+    let mut breakpoints = [padding;MAX_ORDERS];
+    for i in 0usize..MAX_ORDERS
+    {
+        if i < index_s
+        {
+            breakpoints[i] = Breakpoint {
+                start: sell_starts[i],
+                id: sell_orders_ids[i],
+                starts_seller: sell_orders_quantity[i] > Sbi16::from(0),
+                starts_buyer: Sbu1::from(false),
+            };
+        }
+        if i < index_b
+        {
+            breakpoints[width - 1 - i] = Breakpoint {
+                start: buy_starts[i],
+                id: buy_orders_ids[i],
+                starts_seller: Sbu1::from(false),
+                starts_buyer: buy_orders_quantity[i] > Sbi16::from(0),
+            };
+        }
+    }
+    let merged = merge_breakpoints(breakpoints, width);
+
+    let mut ids = [Sbi16::from(0);MAX_ORDERS];
+    let mut starts_seller = [Sbu1::from(false);MAX_ORDERS];
+    let mut starts_buyer = [Sbu1::from(false);MAX_ORDERS];
+    for k in 0usize..MAX_ORDERS
+    {
+        ids[k] = merged[k].id;
+        starts_seller[k] = merged[k].starts_seller;
+        starts_buyer[k] = merged[k].starts_buyer;
+    }
+    let seller_ids = last_started_ids(starts_seller, ids, width);
+    let buyer_ids = last_started_ids(starts_buyer, ids, width);
+
+    //Make a trade between every two neighbouring starts
+    for k in 0usize..MAX_ORDERS
+    {
+        if k < width
+        {
+            let mut end = traded_volume;
+            if k + 1 < width
             {
-                traded_quantity = buy_orders_quantity[j];
+                if merged[k + 1].start < traded_volume
+                {
+                    end = merged[k + 1].start;
+                }
             }
-            else
+            let mut traded_quantity = end - merged[k].start;
+            if traded_quantity < Sbi16::from(0)
             {
-                traded_quantity = sell_orders_quantity[i];
+                traded_quantity = Sbi16::from(0);
             }
 
-            sell_orders_quantity[i] = sell_orders_quantity[i] - traded_quantity;
-            buy_orders_quantity[j] = buy_orders_quantity[j] - traded_quantity;
-
-            auction_results.buyer_ids[index_t] = buy_orders_ids[j];
-            auction_results.seller_ids[index_t] = sell_orders_ids[i];
-            auction_results.quantities[index_t] = traded_quantity;
-
-            index_t = index_t + 1;
+            auction_results.buyer_ids[k] = buyer_ids[k];
+            auction_results.seller_ids[k] = seller_ids[k];
+            auction_results.quantities[k] = traded_quantity;
         }
     }
 